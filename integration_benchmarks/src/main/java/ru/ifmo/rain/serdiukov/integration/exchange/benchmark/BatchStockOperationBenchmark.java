@@ -0,0 +1,117 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.StockService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.UserService;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of trades sent over HTTP one by one to {@code stockOp} versus the same trades sent together to {@code stockOps}.
+ * Scores are per single trade.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(4)
+@Fork(1)
+public class BatchStockOperationBenchmark {
+    private static final int BATCH_SIZE = 100;
+    private static final String STOCK = "BATCH";
+
+    @Param({"conditional", "engine"})
+    private String execution;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private URI single;
+    private URI batch;
+    private final AtomicInteger traders = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = ExchangeContext.start(
+                "server.port=0",
+                "exchange.engine.enabled=" + "engine".equals(execution),
+                "exchange.engine.journal.enabled=false"
+        );
+        final int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        single = URI.create("http://localhost:" + port + "/api/1/stockOp");
+        batch = URI.create("http://localhost:" + port + "/api/1/stockOps");
+        client = HttpClient.newHttpClient();
+        context.getBean(StockService.class).createStock(Stock
+                .builder()
+                .index(STOCK)
+                .name(STOCK)
+                .price(1)
+                .availableAmount(Long.MAX_VALUE / 4)
+                .build()
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Trader {
+        private final List<String> operations = new ArrayList<>(BATCH_SIZE);
+        private String batchBody;
+
+        @Setup(Level.Trial)
+        public void setUp(final BatchStockOperationBenchmark benchmark) {
+            final String login = "trader-" + benchmark.traders.incrementAndGet();
+            final UserService userService = benchmark.context.getBean(UserService.class);
+            userService.registerUser(User.builder().login(login).name(login).build());
+            userService.topUpBalance(login, Long.MAX_VALUE / 4, false);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                // Every sell returns the share bought just before it, so the state does not drift between invocations
+                operations.add(String.format("{\"type\":\"%s\",\"userLogin\":\"%s\",\"stockIndex\":\"%s\",\"amount\":1}", (i % 2 == 0) ? "BUY" : "SELL", login, STOCK));
+            }
+            batchBody = "{\"mode\":\"ALL_OR_NOTHING\",\"operations\":[" + String.join(",", operations) + "]}";
+        }
+    }
+
+    private String post(final URI uri, final String body) throws IOException, InterruptedException {
+        final HttpResponse<String> response = client.send(HttpRequest
+                        .newBuilder(uri)
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString()
+        );
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Unexpected response " + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void singleOperations(final Trader trader) throws IOException, InterruptedException {
+        for (final String operation : trader.operations) {
+            post(single, operation);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public String batchOperations(final Trader trader) throws IOException, InterruptedException {
+        return post(batch, trader.batchBody);
+    }
+}
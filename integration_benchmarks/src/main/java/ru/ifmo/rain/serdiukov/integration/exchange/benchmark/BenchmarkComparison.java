@@ -0,0 +1,86 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JSON results of JMH, such as those of two releases, benchmark by benchmark with the same parameters.
+ * A score is a regression when it is worse than the baseline by more than the threshold and by more than both errors,
+ * the process exits with 1 when there is any.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar ru.ifmo.rain.serdiukov.integration.exchange.benchmark.BenchmarkComparison
+ * baseline.json jmh-result.json [--threshold=10]}, the threshold is in percent.
+ */
+public final class BenchmarkComparison {
+    private BenchmarkComparison() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: BenchmarkComparison <baseline.json> <current.json> [--threshold=<percent>]");
+        }
+        final double threshold = (args.length > 2 && args[2].startsWith("--threshold="))
+                ? Double.parseDouble(args[2].substring("--threshold=".length())) / 100
+                : 0.1;
+        final Map<String, JsonNode> baseline = read(Path.of(args[0]));
+        final Map<String, JsonNode> current = read(Path.of(args[1]));
+        int regressions = 0;
+        System.out.printf("%-92s %14s %14s %8s%n", "Benchmark", "Baseline", "Current", "Change");
+        for (final Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            final JsonNode before = baseline.get(entry.getKey());
+            final JsonNode after = entry.getValue();
+            final JsonNode metric = after.get("primaryMetric");
+            if (before == null) {
+                System.out.printf("%-92s %14s %14.3f %8s%n", entry.getKey(), "-", metric.get("score").asDouble(), "new");
+                continue;
+            }
+            final JsonNode baseMetric = before.get("primaryMetric");
+            final double base = baseMetric.get("score").asDouble();
+            final double score = metric.get("score").asDouble();
+            final double change = (score - base) / base;
+            // Throughput is better when higher, times are better when lower
+            final double worsening = after.get("mode").asText().equals("thrpt") ? -change : change;
+            final double errors = error(baseMetric) + error(metric);
+            final boolean regressed = worsening > threshold && Math.abs(score - base) > errors;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-92s %14.3f %14.3f %+7.1f%%%s%n", entry.getKey(), base, score, change * 100, regressed ? " REGRESSION" : "");
+        }
+        baseline.keySet().stream().filter(key -> !current.containsKey(key)).forEach(key -> System.out.printf("%-92s %14s%n", key, "removed"));
+        System.out.printf("%d regressions beyond %.0f%%%n", regressions, threshold * 100);
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static double error(final JsonNode metric) {
+        final double error = metric.path("scoreError").asDouble(0);
+        // JMH writes NaN as a string when there are too few iterations to estimate the error
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    /**
+     * Results by benchmark name, mode and parameters.
+     */
+    private static Map<String, JsonNode> read(final Path file) throws IOException {
+        final Map<String, JsonNode> results = new TreeMap<>();
+        for (final JsonNode result : new ObjectMapper().readTree(file.toFile())) {
+            final String benchmark = result.get("benchmark").asText();
+            // Class and method, without the package
+            final StringBuilder key = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1))
+                    .append(" [")
+                    .append(result.get("mode").asText());
+            final Map<String, String> params = new TreeMap<>();
+            result.path("params").fields().forEachRemaining(param -> params.put(param.getKey(), param.getValue().asText()));
+            params.forEach((name, value) -> key.append(", ").append(name).append('=').append(value));
+            results.put(key.append(']').toString(), result);
+        }
+        return results;
+    }
+}
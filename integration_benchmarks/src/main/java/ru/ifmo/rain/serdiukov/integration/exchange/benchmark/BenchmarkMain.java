@@ -0,0 +1,22 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs JMH as {@code org.openjdk.jmh.Main} does, but writes the results as JSON to {@code jmh-result.json}
+ * unless another format is given by {@code -rf}, so that every run can be compared by {@link BenchmarkComparison}.
+ */
+public final class BenchmarkMain {
+    private BenchmarkMain() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final List<String> arguments = new ArrayList<>(List.of(args));
+        if (!arguments.contains("-rf")) {
+            arguments.add("-rf");
+            arguments.add("json");
+        }
+        org.openjdk.jmh.Main.main(arguments.toArray(String[]::new));
+    }
+}
@@ -0,0 +1,107 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperation;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.ConcurrencyMode;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.StockService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.TransactionService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.UserService;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of buy and sell round trips when all threads trade the same stock (hot) or each thread trades its own stock (cold).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Threads(8)
+@Fork(1)
+public class ConcurrencyModeBenchmark {
+    private static final String HOT_STOCK = "HOT";
+
+    @Param({"OPTIMISTIC", "PESSIMISTIC", "CONDITIONAL"})
+    private ConcurrencyMode mode;
+
+    @Param({"hot", "cold"})
+    private String contention;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+    private UserService userService;
+    private StockService stockService;
+    private final AtomicInteger traders = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = ExchangeContext.start(
+                "spring.main.web-application-type=none",
+                "exchange.concurrency.mode=" + mode.name(),
+                "exchange.concurrency.max-attempts=1000"
+        );
+        transactionService = context.getBean(TransactionService.class);
+        userService = context.getBean(UserService.class);
+        stockService = context.getBean(StockService.class);
+        createStock(HOT_STOCK);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    private void createStock(final String index) {
+        stockService.createStock(Stock
+                .builder()
+                .index(index)
+                .name(index)
+                .price(1)
+                .availableAmount(Long.MAX_VALUE / 4)
+                .build()
+        );
+    }
+
+    @State(Scope.Thread)
+    public static class Trader {
+        private User user;
+        private Stock stock;
+
+        @Setup(Level.Trial)
+        public void setUp(final ConcurrencyModeBenchmark benchmark) {
+            final int id = benchmark.traders.incrementAndGet();
+            final String login = "trader-" + id;
+            benchmark.userService.registerUser(User.builder().login(login).name(login).build());
+            benchmark.userService.topUpBalance(login, Long.MAX_VALUE / 4, false);
+            final String index = "hot".equals(benchmark.contention) ? HOT_STOCK : "COLD-" + id;
+            if (!HOT_STOCK.equals(index)) {
+                benchmark.createStock(index);
+            }
+            user = benchmark.userService.findByLogin(login).orElseThrow();
+            stock = benchmark.stockService.findByIndex(index).orElseThrow();
+        }
+    }
+
+    private void trade(final Trader trader, final StockOperationType type) {
+        transactionService.performStockOperation(StockOperation
+                .builder()
+                .type(type)
+                .user(trader.user)
+                .stock(trader.stock)
+                .amount(1)
+                .build()
+        );
+    }
+
+    @Benchmark
+    public void buyAndSell(final Trader trader) {
+        trade(trader, StockOperationType.BUY);
+        trade(trader, StockOperationType.SELL);
+    }
+}
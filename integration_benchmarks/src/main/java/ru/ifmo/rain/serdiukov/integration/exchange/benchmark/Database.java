@@ -0,0 +1,16 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+/**
+ * Database the exchange is started with by {@link ExchangeContext}.
+ */
+public enum Database {
+    /**
+     * In-memory H2 without the trade history and the engine journal, which leaves out the cost of the disk.
+     */
+    MEMORY,
+    /**
+     * File H2 as configured by {@code application.properties}, in a temporary directory removed when the JVM exits,
+     * where the trade history and the engine journal are written as well.
+     */
+    FILE
+}
@@ -0,0 +1,77 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+import ru.ifmo.rain.serdiukov.integration.exchange.ExchangeLauncher;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Starts the Stock Exchange inside the benchmark JVM with a fresh database and quiet logging.
+ */
+final class ExchangeContext {
+    private ExchangeContext() {
+    }
+
+    /**
+     * @param properties {@code name=value} pairs overriding the defaults.
+     */
+    static ConfigurableApplicationContext start(final String... properties) {
+        return start(Database.MEMORY, properties);
+    }
+
+    /**
+     * @param properties {@code name=value} pairs overriding the defaults.
+     */
+    static ConfigurableApplicationContext start(final Database database, final String... properties) {
+        final Map<String, String> arguments = new LinkedHashMap<>();
+        final Path directory;
+        if (database == Database.MEMORY) {
+            directory = null;
+            arguments.put("spring.datasource.url", "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000");
+            arguments.put("spring.jpa.hibernate.ddl-auto", "create-drop");
+            arguments.put("exchange.trade-history.enabled", "false");
+            arguments.put("exchange.engine.journal.enabled", "false");
+        } else {
+            try {
+                directory = Files.createTempDirectory("exchange-benchmark");
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            arguments.put("spring.datasource.url", "jdbc:h2:file:" + directory.resolve("exchange.db").toAbsolutePath());
+            arguments.put("exchange.trade-history.directory", directory.resolve("trade-history").toString());
+            arguments.put("exchange.engine.journal.directory", directory.resolve("exchange-journal").toString());
+        }
+        arguments.put("spring.jpa.show-sql", "false");
+        arguments.put("debug", "false");
+        arguments.put("logging.level.root", "warn");
+        arguments.put("exchange.engine.enabled", "false");
+        // Spring joins repeated command line arguments instead of overriding them
+        for (final String property : properties) {
+            final int separator = property.indexOf('=');
+            arguments.put(property.substring(0, separator), property.substring(separator + 1));
+        }
+        if (directory != null) {
+            // Files are still open while the context is closing, they are removed with the forked JVM
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    FileSystemUtils.deleteRecursively(directory);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        return new SpringApplicationBuilder(ExchangeLauncher.class).run(arguments
+                .entrySet()
+                .stream()
+                .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new)
+        );
+    }
+}
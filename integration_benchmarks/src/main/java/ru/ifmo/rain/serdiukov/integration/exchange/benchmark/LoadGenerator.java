@@ -0,0 +1,247 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.netty.resources.LoopResources;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the given number of connections to a running Stock Exchange busy, every connection sends its next request
+ * as soon as the previous one is answered. Reports throughput, latency percentiles and threads of the exchange,
+ * then checks that no share has been created or lost and that no balance is negative; the process exits with 1 otherwise.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar ru.ifmo.rain.serdiukov.integration.exchange.benchmark.LoadGenerator
+ * --url=http://localhost:8081/api/2 --connections=10000 --warmup=10s --duration=30s --workload=trade}
+ * <p>
+ * Workloads: {@code read} requests a stock, {@code trade} alternately buys and sells one share of it,
+ * {@code random} buys and sells from 1 to 10 shares of a random stock and updates its price to a random one
+ * every {@code --price-update-every} requests, as {@code buySellTest} does one step at a time. Connections are spread
+ * over {@code --users} users topped up by {@code --balance} each and over {@code --stocks} stocks
+ * of {@code --inventory} shares each. Rejected trades, such as sales of shares which are not held, are reported as 400.
+ */
+public final class LoadGenerator {
+    private static final int CONNECTION_FAILED = -1;
+
+    private final String url;
+    private final int connections;
+    private final String workload;
+    private final HttpClient client;
+    private final ConnectionProvider provider;
+    private final LoopResources loops;
+    private final String prefix = "LOAD-" + UUID.randomUUID();
+    private final String[] logins;
+    private final String[] indices;
+    private final long balance;
+    private final long inventory;
+    private final int priceUpdateEvery;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private LoadGenerator(final Map<String, String> options) {
+        this.url = options.getOrDefault("url", "http://localhost:8081/api/2");
+        this.connections = Integer.parseInt(options.getOrDefault("connections", "10000"));
+        this.workload = options.getOrDefault("workload", "trade");
+        this.logins = new String[Integer.parseInt(options.getOrDefault("users", String.valueOf(Math.min(connections, 1000))))];
+        this.indices = new String[Integer.parseInt(options.getOrDefault("stocks", "1"))];
+        this.balance = Long.parseLong(options.getOrDefault("balance", String.valueOf(Long.MAX_VALUE / 4 / logins.length)));
+        this.inventory = Long.parseLong(options.getOrDefault("inventory", String.valueOf(Long.MAX_VALUE / 4 / indices.length)));
+        this.priceUpdateEvery = Integer.parseInt(options.getOrDefault("price-update-every", "10"));
+        this.provider = ConnectionProvider
+                .builder("load")
+                .maxConnections(connections)
+                .pendingAcquireMaxCount(-1)
+                .pendingAcquireTimeout(Duration.ofMinutes(1))
+                .build();
+        this.loops = LoopResources.create("load", Runtime.getRuntime().availableProcessors(), true);
+        this.client = HttpClient
+                .create(provider)
+                .runOn(loops)
+                .baseUrl(url)
+                .responseTimeout(Duration.ofMinutes(1));
+    }
+
+    public static void main(final String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Options should look like --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        final LoadGenerator generator = new LoadGenerator(options);
+        final boolean consistent;
+        try {
+            generator.setUp();
+            generator.run(Duration.parse("PT" + options.getOrDefault("warmup", "10s")), false);
+            generator.get("/getRuntimeStats?resetPeak=true").block();
+            generator.run(Duration.parse("PT" + options.getOrDefault("duration", "30s")), true);
+            consistent = generator.checkInvariants();
+        } finally {
+            generator.provider.disposeLater().block();
+            generator.loops.disposeLater().block();
+        }
+        if (!consistent) {
+            System.exit(1);
+        }
+    }
+
+    private void setUp() {
+        Flux.range(0, indices.length)
+                .flatMap(i -> {
+                    indices[i] = prefix + "-S" + i;
+                    return get("/createStock?index=" + indices[i] + "&name=load&price=1").then(get("/increaseStockAmount?index=" + indices[i] + "&amount=" + inventory));
+                }, 64)
+                .blockLast();
+        Flux.range(0, logins.length)
+                .flatMap(i -> {
+                    logins[i] = prefix + "-" + i;
+                    return get("/createUser?login=" + logins[i] + "&name=load").then(get("/topUp?login=" + logins[i] + "&amount=" + balance));
+                }, 64)
+                .blockLast();
+    }
+
+    /**
+     * Every stock should have exactly its inventory in the available amount and in the holdings, and no balance should be negative.
+     * Holdings are read by pages of holders, which are consistent only when nothing trades, as after the run.
+     */
+    private boolean checkInvariants() {
+        final List<String> violations = Flux
+                .fromArray(indices)
+                .flatMap(index -> get("/getStock?index=" + index).zipWith(holdings(index, 0)).map(stockAndHeld -> {
+                    final long available = read(stockAndHeld.getT1()).get("availableAmount").asLong();
+                    final long total = available + stockAndHeld.getT2();
+                    return (total == inventory) ? "" : String.format("stock %s has %d available and %d held shares instead of %d in total", index, available, stockAndHeld.getT2(), inventory);
+                }), 16)
+                .concatWith(Flux.fromArray(logins).flatMap(login -> get("/getUser?login=" + login).map(user -> {
+                    final long userBalance = read(user).get("balance").asLong();
+                    return (userBalance >= 0) ? "" : String.format("user %s has a negative balance %d", login, userBalance);
+                }), 64))
+                .filter(violation -> !violation.isEmpty())
+                .collectList()
+                .block();
+        System.out.printf("invariants: %d stocks and %d users checked, %d violations%n", indices.length, logins.length, violations.size());
+        violations.stream().limit(20).forEach(violation -> System.out.println("  " + violation));
+        return violations.isEmpty();
+    }
+
+    private Mono<Long> holdings(final String index, final long after) {
+        return get("/getStockHolders?index=" + index + "&limit=1000&after=" + after).flatMap(body -> {
+            final JsonNode page = read(body);
+            long held = 0;
+            for (final JsonNode holder : page.get("holders")) {
+                held += holder.get("amount").asLong();
+            }
+            final long sum = held;
+            return page.get("nextAfter").isNull() ? Mono.just(sum) : holdings(index, page.get("nextAfter").asLong()).map(rest -> sum + rest);
+        });
+    }
+
+    private JsonNode read(final String json) {
+        try {
+            return mapper.readTree(json);
+        } catch (final JsonProcessingException e) {
+            throw new IllegalStateException("Cannot parse " + json, e);
+        }
+    }
+
+    private void run(final Duration duration, final boolean report) {
+        final Histogram latencies = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+        final Map<Integer, LongAdder> errors = new ConcurrentSkipListMap<>();
+        final long deadline = System.nanoTime() + duration.toNanos();
+        final long started = System.nanoTime();
+        Flux.range(0, connections)
+                .flatMap(connection -> {
+                    final AtomicLong sent = new AtomicLong();
+                    return Mono
+                            .defer(() -> {
+                                final long start = System.nanoTime();
+                                return request(connection, sent.getAndIncrement())
+                                        .onErrorReturn(CONNECTION_FAILED)
+                                        .doOnSuccess(status -> {
+                                            latencies.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), latencies.getHighestTrackableValue()));
+                                            if (status != 200) {
+                                                errors.computeIfAbsent(status, s -> new LongAdder()).increment();
+                                            }
+                                        });
+                            })
+                            .repeat(() -> System.nanoTime() < deadline);
+                }, connections)
+                .blockLast();
+        final double seconds = (System.nanoTime() - started) / 1e9;
+        if (!report) {
+            return;
+        }
+        System.out.printf("url=%s workload=%s connections=%d users=%d stocks=%d%n", url, workload, connections, logins.length, indices.length);
+        System.out.printf("requests=%d errors=%s throughput=%.1f req/s%n", latencies.getTotalCount(), errors, latencies.getTotalCount() / seconds);
+        System.out.printf("latency ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                latencies.getValueAtPercentile(50) / 1e3,
+                latencies.getValueAtPercentile(90) / 1e3,
+                latencies.getValueAtPercentile(99) / 1e3,
+                latencies.getValueAtPercentile(99.9) / 1e3,
+                latencies.getMaxValue() / 1e3
+        );
+        System.out.println("exchange threads: " + get("/getRuntimeStats").block());
+    }
+
+    /**
+     * @return status of the response, or {@link #CONNECTION_FAILED}.
+     */
+    private Mono<Integer> request(final int connection, final long sequence) {
+        final String index = indices[connection % indices.length];
+        if ("read".equals(workload)) {
+            return status(client.get().uri("/getStock?index=" + index));
+        }
+        if ("random".equals(workload)) {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final String randomIndex = indices[random.nextInt(indices.length)];
+            if (priceUpdateEvery > 0 && random.nextInt(priceUpdateEvery) == 0) {
+                return status(client.get().uri("/updateStockPrice?index=" + randomIndex + "&price=" + random.nextLong(1, 100)));
+            }
+            return trade(random.nextBoolean() ? "BUY" : "SELL", logins[random.nextInt(logins.length)], randomIndex, random.nextLong(1, 11));
+        }
+        return trade((sequence % 2 == 0) ? "BUY" : "SELL", logins[connection % logins.length], index, 1);
+    }
+
+    private Mono<Integer> trade(final String type, final String login, final String index, final long amount) {
+        final String body = String.format("{\"type\":\"%s\",\"userLogin\":\"%s\",\"stockIndex\":\"%s\",\"amount\":%d}", type, login, index, amount);
+        return status(client
+                .headers(headers -> headers.set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON))
+                .post()
+                .uri("/stockOp")
+                .send(ByteBufFlux.fromString(Mono.just(body)))
+        );
+    }
+
+    private static Mono<Integer> status(final HttpClient.ResponseReceiver<?> request) {
+        return request.responseSingle((response, content) -> content.asByteArray().then(Mono.just(response.status().code())));
+    }
+
+    private Mono<String> get(final String path) {
+        return client.get().uri(path).responseSingle((response, content) -> content.asString().flatMap(body -> {
+            if (response.status().code() != 200) {
+                return Mono.error(new IllegalStateException(String.format("%s answered %s: %s", path, response.status(), body)));
+            }
+            return Mono.just(body);
+        }));
+    }
+}
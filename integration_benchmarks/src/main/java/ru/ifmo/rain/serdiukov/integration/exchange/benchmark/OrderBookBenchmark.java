@@ -0,0 +1,113 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.rain.serdiukov.integration.exchange.engine.book.OrderBook;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a single insert, match and cancel in an order book of {@code restingOrders} orders spread over
+ * {@code LEVELS} price levels per side. Every iteration runs {@code BATCH} operations on a freshly built book,
+ * so the book stays close to its size. Allocations reported by {@code -prof gc} for these are those of building the book.
+ * {@code insertAndCancel} runs for a fixed time instead, so building the book is spread over millions of operations
+ * and what is reported for it is close to zero.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class OrderBookBenchmark {
+    private static final int BATCH = 100_000;
+    private static final int LEVELS = 1000;
+    private static final long MID_PRICE = 100_000;
+    private static final long ORDER_AMOUNT = 10;
+    private static final Object OWNER = new Object();
+
+    @Param({"1000000"})
+    private int restingOrders;
+
+    private OrderBook<Object> book;
+    private long[] cancelledIds;
+    private long[] insertedPrices;
+    private boolean[] insertedSides;
+    private long nextOrderId;
+    private long fills;
+    private final OrderBook.FillHandler<Object> handler = (makerOrderId, maker, price, amount, makerRemaining) -> fills += amount;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final Random random = new Random(restingOrders);
+        book = new OrderBook<>(restingOrders + BATCH);
+        nextOrderId = 0;
+        for (int i = 0; i < restingOrders; i++) {
+            final boolean buy = (i % 2 == 0);
+            book.place(++nextOrderId, buy, price(buy, random), ORDER_AMOUNT, OWNER, handler);
+        }
+        cancelledIds = new long[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            cancelledIds[i] = 1 + random.nextInt(restingOrders);
+        }
+        insertedPrices = new long[BATCH];
+        insertedSides = new boolean[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            insertedSides[i] = random.nextBoolean();
+            insertedPrices[i] = price(insertedSides[i], random);
+        }
+    }
+
+    /**
+     * Bids are below and asks are above the middle price, so that the resting orders never cross.
+     */
+    private static long price(final boolean buy, final Random random) {
+        final int level = 1 + random.nextInt(LEVELS);
+        return buy ? MID_PRICE - level : MID_PRICE + level;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long insert() {
+        for (int i = 0; i < BATCH; i++) {
+            book.place(++nextOrderId, insertedSides[i], insertedPrices[i], ORDER_AMOUNT, OWNER, handler);
+        }
+        return book.size();
+    }
+
+    /**
+     * Every incoming order crosses the spread and fills the oldest order at the best price of the opposite side.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long match() {
+        for (int i = 0; i < BATCH; i++) {
+            final boolean buy = (i % 2 == 0);
+            book.place(++nextOrderId, buy, buy ? MID_PRICE + LEVELS : MID_PRICE - LEVELS, ORDER_AMOUNT, OWNER, handler);
+        }
+        return fills;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public long insertAndCancel() {
+        final int i = (int) (nextOrderId % BATCH);
+        book.place(++nextOrderId, insertedSides[i], insertedPrices[i], ORDER_AMOUNT, OWNER, handler);
+        return book.cancel(nextOrderId);
+    }
+
+    /**
+     * Cancels orders from random positions of their price levels, some of them have been cancelled already.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long cancel() {
+        long cancelled = 0;
+        for (int i = 0; i < BATCH; i++) {
+            cancelled += book.cancel(cancelledIds[i]);
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,63 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single portfolio lookup and update, which should not depend on the number of positions in the portfolio.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PortfolioBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    private int positions;
+
+    private Map<Stock, Long> portfolio;
+    private Stock[] stocks;
+
+    @Setup
+    public void setUp() {
+        portfolio = new HashMap<>();
+        stocks = new Stock[positions];
+        for (int i = 0; i < positions; i++) {
+            stocks[i] = Stock
+                    .builder()
+                    .id(i + 1)
+                    .index("STOCK-" + i)
+                    .name("Stock " + i)
+                    .price(100)
+                    .availableAmount(1000)
+                    .build();
+            portfolio.put(stocks[i], 1L);
+        }
+    }
+
+    private Stock randomStock() {
+        // A separate instance with the same index, as it happens when the stock is loaded again
+        final Stock stock = stocks[ThreadLocalRandom.current().nextInt(positions)];
+        return Stock
+                .builder()
+                .id(stock.getId())
+                .index(stock.getIndex())
+                .build();
+    }
+
+    @Benchmark
+    public Long get() {
+        return portfolio.get(randomStock());
+    }
+
+    @Benchmark
+    public Long compute() {
+        return portfolio.compute(randomStock(), (stock, amount) -> (amount != null) ? (amount + 1) : 1L);
+    }
+}
@@ -0,0 +1,127 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperation;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationResponseDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.StockService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.TransactionService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.UserService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of the services on the in-memory and on the file database, with and without the engine: a buy and sell
+ * round trip of a trader holding {@code positions} stocks, the total actives price of the trader, a price update
+ * of the traded stock, which has {@code positions} holders, and writing a trade with the whole portfolio as JSON.
+ * Run by {@link BenchmarkMain} the results are written to {@code jmh-result.json} to be compared by {@link BenchmarkComparison}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceBenchmark {
+    private static final String TRADER = "trader";
+
+    @Param({"MEMORY", "FILE"})
+    private Database database;
+
+    @Param({"false", "true"})
+    private boolean engine;
+
+    @Param({"10", "1000"})
+    private int positions;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+    private UserService userService;
+    private StockService stockService;
+    private ObjectMapper mapper;
+    private StockOperation buy;
+    private StockOperation sell;
+    private StockOperationResponseDTO response;
+    private String tradedIndex;
+    private long price;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = ExchangeContext.start(database, "spring.main.web-application-type=none", "exchange.engine.enabled=" + engine);
+        transactionService = context.getBean(TransactionService.class);
+        userService = context.getBean(UserService.class);
+        stockService = context.getBean(StockService.class);
+        mapper = context.getBean(ObjectMapper.class);
+        final User trader = register(TRADER);
+        Stock stock = null;
+        for (int i = 0; i < positions; i++) {
+            stock = stockService.createStock(Stock
+                    .builder()
+                    .index("STOCK-" + i)
+                    .name("Stock " + i)
+                    .price(1)
+                    .availableAmount(Long.MAX_VALUE / 4)
+                    .build()
+            );
+            transactionService.performStockOperation(trade(StockOperationType.BUY, trader, stock));
+        }
+        for (int i = 1; i < positions; i++) {
+            transactionService.performStockOperation(trade(StockOperationType.BUY, register("holder-" + i), stock));
+        }
+        tradedIndex = stock.getIndex();
+        price = stock.getPrice();
+        buy = trade(StockOperationType.BUY, trader, stock);
+        sell = trade(StockOperationType.SELL, trader, stock);
+        response = transactionService.performStockOperation(buy, true);
+    }
+
+    private User register(final String login) {
+        userService.registerUser(User.builder().login(login).name(login).build());
+        return userService.topUpBalance(login, Long.MAX_VALUE / 4, false);
+    }
+
+    private static StockOperation trade(final StockOperationType type, final User user, final Stock stock) {
+        return StockOperation
+                .builder()
+                .type(type)
+                .user(user)
+                .stock(stock)
+                .amount(1)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public StockOperationResponseDTO buySell() {
+        transactionService.performStockOperation(buy);
+        return transactionService.performStockOperation(sell);
+    }
+
+    @Benchmark
+    public long totalUserActivesPrice() {
+        return userService.getTotalUserActivesPrice(TRADER);
+    }
+
+    /**
+     * Moves the price up and down by one, so that it stays bounded.
+     */
+    @Benchmark
+    public Stock updateStockPrice() {
+        price = (price == 1) ? 2 : 1;
+        return stockService.updateStockPrice(tradedIndex, price);
+    }
+
+    @Benchmark
+    public byte[] serializeResponse() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(response);
+    }
+}
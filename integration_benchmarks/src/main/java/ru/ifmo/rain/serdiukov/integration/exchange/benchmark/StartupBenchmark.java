@@ -0,0 +1,189 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import org.springframework.util.FileSystemUtils;
+import ru.ifmo.rain.serdiukov.integration.exchange.ExchangeLauncher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Starts the Stock Exchange in a new process again and again and measures the time from starting the process
+ * to the first answer of {@code /api/1/getRuntimeStats}, that is until the exchange is ready to serve, and the resident
+ * memory of the process at that moment (read from {@code /proc}, so on Linux only). Configurations are {@code default},
+ * as configured by {@code application.properties}, {@code fast-start} with the profile of the same name,
+ * {@code fast-start-cds}, which is also given the CDS archive recorded beforehand by {@code ExchangeLauncher train}
+ * on the same class path, and {@code native}, the binary of the native profile given by {@code --native}
+ * with the {@code fast-start} profile. Every start gets a new working directory, hence a new file database.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar ru.ifmo.rain.serdiukov.integration.exchange.benchmark.StartupBenchmark
+ * --runs=5 --port=18080 --configurations=default,fast-start,fast-start-cds,native --native=../integration_exchange/target/exchange}
+ */
+public final class StartupBenchmark {
+    private static final Duration START_TIMEOUT = Duration.ofMinutes(1);
+
+    private final int runs;
+    private final int port;
+    private final Path nativeBinary;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    private StartupBenchmark(final Map<String, String> options) {
+        this.runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+        this.port = Integer.parseInt(options.getOrDefault("port", "18080"));
+        this.nativeBinary = Path.of(options.getOrDefault("native", "../integration_exchange/target/exchange")).toAbsolutePath();
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Options should look like --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        final StartupBenchmark benchmark = new StartupBenchmark(options);
+        for (final String configuration : options.getOrDefault("configurations", "default,fast-start,fast-start-cds").split(",")) {
+            benchmark.measure(configuration);
+        }
+    }
+
+    private void measure(final String configuration) throws IOException, InterruptedException {
+        final List<String> jvmOptions = new ArrayList<>();
+        List<String> launcher = null;
+        final List<String> arguments = new ArrayList<>(List.of("--server.port=" + port, "--exchange.reactive.port=" + (port + 1)));
+        final Path archiveDirectory = Files.createTempDirectory("exchange-cds");
+        switch (configuration) {
+            case "default" -> {
+            }
+            case "fast-start" -> arguments.add("--spring.profiles.active=fast-start");
+            case "fast-start-cds" -> {
+                final Path archive = archiveDirectory.resolve("exchange.jsa");
+                final Process training = start(
+                        jvm(List.of("-XX:ArchiveClassesAtExit=" + archive)),
+                        List.of("train", "--spring.profiles.active=fast-start", "--server.port=0", "--exchange.reactive.port=0"),
+                        archiveDirectory
+                );
+                if (training.waitFor() != 0 || !Files.exists(archive)) {
+                    throw new IllegalStateException("Training run has not recorded the archive, see " + archiveDirectory.resolve("exchange.log"));
+                }
+                jvmOptions.add("-XX:SharedArchiveFile=" + archive);
+                arguments.add("--spring.profiles.active=fast-start");
+            }
+            case "native" -> {
+                launcher = List.of(nativeBinary.toString());
+                arguments.add("--spring.profiles.active=fast-start");
+            }
+            default -> throw new IllegalArgumentException("Unknown configuration " + configuration);
+        }
+        if (launcher == null) {
+            launcher = jvm(jvmOptions);
+        }
+        final long[] millis = new long[runs];
+        final long[] residentKilobytes = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            final long[] measured = startUntilReady(launcher, arguments);
+            millis[i] = measured[0];
+            residentKilobytes[i] = measured[1];
+        }
+        Arrays.sort(millis);
+        Arrays.sort(residentKilobytes);
+        System.out.printf(
+                "%-16s median %5d ms, min %5d ms, max %5d ms, median RSS %4d MB%n",
+                configuration, millis[runs / 2], millis[0], millis[runs - 1], residentKilobytes[runs / 2] / 1024
+        );
+        FileSystemUtils.deleteRecursively(archiveDirectory);
+    }
+
+    /**
+     * @return milliseconds until ready and kilobytes of resident memory when ready, or -1 when it is unknown
+     */
+    private long[] startUntilReady(final List<String> launcher, final List<String> arguments) throws IOException, InterruptedException {
+        final Path directory = Files.createTempDirectory("exchange-startup");
+        final HttpRequest ready = HttpRequest.newBuilder(URI.create(String.format("http://localhost:%d/api/1/getRuntimeStats", port))).build();
+        final long start = System.nanoTime();
+        final Process exchange = start(launcher, arguments, directory);
+        long millis = -1;
+        long residentKilobytes = -1;
+        try {
+            while (millis < 0) {
+                try {
+                    if (client.send(ready, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                        residentKilobytes = residentKilobytes(exchange);
+                    }
+                } catch (final IOException e) {
+                    // Not listening yet
+                }
+                if (millis < 0) {
+                    if (!exchange.isAlive() || System.nanoTime() - start > START_TIMEOUT.toNanos()) {
+                        // The directory is left for its log
+                        throw new IllegalStateException("Exchange has not become ready, see " + directory.resolve("exchange.log"));
+                    }
+                    Thread.sleep(5);
+                }
+            }
+        } finally {
+            exchange.destroy();
+            if (!exchange.waitFor(30, TimeUnit.SECONDS)) {
+                exchange.destroyForcibly().waitFor();
+            }
+        }
+        FileSystemUtils.deleteRecursively(directory);
+        return new long[]{millis, residentKilobytes};
+    }
+
+    private static long residentKilobytes(final Process process) throws IOException {
+        final Path status = Path.of("/proc", String.valueOf(process.pid()), "status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        // VmRSS:    123456 kB
+        return Files
+                .readAllLines(status)
+                .stream()
+                .filter(line -> line.startsWith("VmRSS:"))
+                .mapToLong(line -> Long.parseLong(line.substring("VmRSS:".length()).replace("kB", "").trim()))
+                .findFirst()
+                .orElse(-1);
+    }
+
+    /**
+     * Command starting the exchange in a JVM running the benchmark's own class path.
+     */
+    private static List<String> jvm(final List<String> jvmOptions) {
+        final List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        // Absolute, since the exchange runs in another directory, and the same for every run, as the CDS archive requires
+        final String classPath = Arrays
+                .stream(System.getProperty("java.class.path").split(File.pathSeparator))
+                .map(entry -> Path.of(entry).toAbsolutePath().toString())
+                .collect(Collectors.joining(File.pathSeparator));
+        command.addAll(List.of("-cp", classPath, ExchangeLauncher.class.getName()));
+        return command;
+    }
+
+    private static Process start(final List<String> launcher, final List<String> arguments, final Path directory) throws IOException {
+        final List<String> command = new ArrayList<>(launcher);
+        command.addAll(arguments);
+        return new ProcessBuilder(command)
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("exchange.log").toFile())
+                .start();
+    }
+}
@@ -0,0 +1,92 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperation;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.StockService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.TransactionService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.UserService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a trade and of a top-up of a user holding {@code positions} stocks, including writing the response as JSON,
+ * when the whole portfolio is returned (as every response did before) and when it is not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserResponseBenchmark {
+    private static final String LOGIN = "holder";
+
+    @Param({"10", "1000"})
+    private int positions;
+
+    @Param({"false", "true"})
+    private boolean engine;
+
+    @Param({"true", "false"})
+    private boolean portfolio;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+    private UserService userService;
+    private ObjectMapper mapper;
+    private StockOperation buy;
+    private StockOperation sell;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = ExchangeContext.start(
+                "spring.main.web-application-type=none",
+                "exchange.engine.enabled=" + engine,
+                "exchange.engine.journal.enabled=false",
+                "exchange.trade-history.enabled=false"
+        );
+        transactionService = context.getBean(TransactionService.class);
+        userService = context.getBean(UserService.class);
+        mapper = context.getBean(ObjectMapper.class);
+        final StockService stockService = context.getBean(StockService.class);
+        userService.registerUser(User.builder().login(LOGIN).name(LOGIN).build());
+        userService.topUpBalance(LOGIN, Long.MAX_VALUE / 4, false);
+        final User user = userService.findByLogin(LOGIN).orElseThrow();
+        Stock stock = null;
+        for (int i = 0; i < positions; i++) {
+            stock = stockService.createStock(Stock
+                    .builder()
+                    .index("STOCK-" + i)
+                    .name("Stock " + i)
+                    .price(1)
+                    .availableAmount(Long.MAX_VALUE / 4)
+                    .build()
+            );
+            buy = StockOperation.builder().type(StockOperationType.BUY).user(user).stock(stock).amount(1).build();
+            transactionService.performStockOperation(buy);
+        }
+        sell = StockOperation.builder().type(StockOperationType.SELL).user(user).stock(stock).amount(1).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int trade() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(transactionService.performStockOperation(buy, portfolio)).length
+                + mapper.writeValueAsBytes(transactionService.performStockOperation(sell, portfolio)).length;
+    }
+
+    @Benchmark
+    public int topUp() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(userService.topUpBalance(LOGIN, 1, portfolio)).length;
+    }
+}
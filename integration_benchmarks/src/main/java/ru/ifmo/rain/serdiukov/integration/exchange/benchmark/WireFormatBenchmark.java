@@ -0,0 +1,118 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperation;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.binary.BinaryStockOperationCodec;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationReceiptDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationResponseDTO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading a trade request and writing its result as JSON, which carries the whole user with the portfolio
+ * of {@code positions} stocks, and in the binary encoding of {@code /api/1/stockOp}, which carries only the changes.
+ * Sizes of the messages are printed when a trial starts; {@code -prof gc} reports allocated bytes per trade.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+    @Param({"1", "10", "100"})
+    private int positions;
+
+    private ObjectMapper mapper;
+    private StockOperationRequestDTO request;
+    private StockOperationResponseDTO response;
+    private StockOperationReceiptDTO receipt;
+    private byte[] jsonRequest;
+    private byte[] binaryRequest;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        // Configured as the one of the exchange, which creates requests by their constructors
+        mapper = Jackson2ObjectMapperBuilder
+                .json()
+                .modulesToInstall(new ParameterNamesModule())
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        final Map<Stock, Long> portfolio = new HashMap<>();
+        Stock traded = null;
+        for (int i = 0; i < positions; i++) {
+            traded = Stock
+                    .builder()
+                    .id(i + 1)
+                    .index("STOCK-" + i)
+                    .name("Stock " + i)
+                    .price(100)
+                    .availableAmount(1000)
+                    .build();
+            portfolio.put(traded, 10L);
+        }
+        final User user = User
+                .builder()
+                .id(1)
+                .login("user")
+                .name("User")
+                .portfolio(portfolio)
+                .balance(1_000_000)
+                .build();
+        request = new StockOperationRequestDTO(StockOperationType.BUY, user.getLogin(), traded.getIndex(), 10);
+        response = StockOperationResponseDTO
+                .builder()
+                .operation(StockOperation
+                        .builder()
+                        .type(StockOperationType.BUY)
+                        .user(user)
+                        .stock(traded)
+                        .amount(10)
+                        .build())
+                .timestamp(Instant.now())
+                .build();
+        receipt = StockOperationReceiptDTO.of(response);
+        jsonRequest = mapper.writeValueAsBytes(request);
+        binaryRequest = BinaryStockOperationCodec.encodeRequest(request);
+        System.out.printf("%nBytes per trade with %d positions: JSON %d + %d, binary %d + %d%n",
+                positions, jsonRequest.length, mapper.writeValueAsBytes(response).length,
+                binaryRequest.length, BinaryStockOperationCodec.encodeReceipt(receipt).length);
+    }
+
+    @Benchmark
+    public StockOperationRequestDTO jsonReadRequest() throws IOException {
+        return mapper.readValue(jsonRequest, StockOperationRequestDTO.class);
+    }
+
+    @Benchmark
+    public byte[] jsonWriteResponse() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public StockOperationRequestDTO binaryReadRequest() {
+        return BinaryStockOperationCodec.decodeRequest(ByteBuffer.wrap(binaryRequest));
+    }
+
+    /**
+     * Includes building the receipt from the result, as the controller does.
+     */
+    @Benchmark
+    public byte[] binaryWriteReceipt() {
+        return BinaryStockOperationCodec.encodeReceipt(StockOperationReceiptDTO.of(response));
+    }
+}
@@ -1,12 +1,53 @@
 package ru.ifmo.rain.serdiukov.integration.exchange;
 
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.reactive.ReactiveApiProperties;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.reactive.ReactiveExchangeServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 //@EnableAutoConfiguration
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class ExchangeLauncher {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length >= 2 && args[0].equals("import")) {
+            // import <file> [--property=value...]: loads the file without serving any API and exits
+            final SpringApplication application = new SpringApplication(ExchangeLauncher.class);
+            application.setWebApplicationType(WebApplicationType.NONE);
+            application.setDefaultProperties(Map.of("exchange.reactive.enabled", "false"));
+            final String[] importArgs = Stream
+                    .concat(Stream.of("--exchange.bulk-import.file=" + args[1]), Arrays.stream(args, 2, args.length))
+                    .toArray(String[]::new);
+            System.exit(SpringApplication.exit(application.run(importArgs)));
+        }
+        if (args.length >= 1 && args[0].equals("train")) {
+            // train [--property=value...]: starts, serves a request by each API and exits, so that a JVM started with
+            // -XX:ArchiveClassesAtExit records the classes of a start into a CDS archive
+            final ConfigurableApplicationContext context = SpringApplication.run(ExchangeLauncher.class, Arrays.copyOfRange(args, 1, args.length));
+            final HttpClient client = HttpClient.newHttpClient();
+            final List<String> prefixes = new ArrayList<>(List.of("http://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/api/1/"));
+            if (context.getBean(ReactiveApiProperties.class).isEnabled()) {
+                prefixes.add("http://localhost:" + context.getBean(ReactiveExchangeServer.class).getPort() + "/api/2/");
+            }
+            for (final String prefix : prefixes) {
+                client.send(HttpRequest.newBuilder(URI.create(prefix + "getRuntimeStats")).build(), HttpResponse.BodyHandlers.discarding());
+            }
+            System.exit(SpringApplication.exit(context));
+        }
         SpringApplication.run(ExchangeLauncher.class, args);
     }
 
@@ -0,0 +1,32 @@
+package ru.ifmo.rain.serdiukov.integration.exchange;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.ifmo.rain.serdiukov.integration.exchange.engine.EngineWriteBehind;
+import ru.ifmo.rain.serdiukov.integration.exchange.engine.ExchangeEngine;
+import ru.ifmo.rain.serdiukov.integration.exchange.history.TradeHistory;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.reactive.ReactiveExchangeServer;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.SchemaMigrations;
+
+/**
+ * With {@code spring.main.lazy-initialization}, as in the {@code fast-start} profile, beans are created when they are
+ * used for the first time, except for the ones which prepare the exchange to serve: the engine recovers its state
+ * from the journal, the trade history opens its partitions and the data of an older database is migrated before the first
+ * request rather than during it.
+ */
+@Configuration
+public class StartupConfiguration {
+    @Bean
+    public static @NotNull @NonNull LazyInitializationExcludeFilter eagerExchangeBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+                ExchangeEngine.class,
+                EngineWriteBehind.class,
+                TradeHistory.class,
+                ReactiveExchangeServer.class,
+                SchemaMigrations.class
+        );
+    }
+}
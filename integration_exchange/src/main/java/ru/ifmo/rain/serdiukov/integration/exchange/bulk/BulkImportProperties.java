@@ -0,0 +1,20 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.bulk;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+
+@Data
+@ConfigurationProperties(prefix = "exchange.bulk-import")
+public class BulkImportProperties {
+    /**
+     * When set, the file is imported on startup, as by {@code java -jar exchange.jar import <file>}.
+     */
+    private Path file;
+
+    /**
+     * Number of rows inserted by a JDBC batch and committed together.
+     */
+    private int batchSize = 1000;
+}
@@ -0,0 +1,39 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.bulk;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.BulkImportResultDTO;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Imports {@code exchange.bulk-import.file} once the exchange has started, a failed import fails the startup.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "exchange.bulk-import", name = "file")
+public class BulkImportRunner implements ApplicationRunner {
+    private final @NotNull @NonNull BulkImportProperties properties;
+    private final @NotNull @NonNull BulkImporter importer;
+
+    @Override
+    public void run(final @NotNull @NonNull ApplicationArguments args) throws IOException {
+        final Path file = properties.getFile();
+        final long start = System.nanoTime();
+        final BulkImportResultDTO result;
+        try (final InputStream input = Files.newInputStream(file)) {
+            result = importer.importRows(input, ImportFormat.of(file));
+        }
+        log.info("Imported {} users and {} stocks from {} in {} ms", result.getUsers(), result.getStocks(), file, (System.nanoTime() - start) / 1_000_000);
+    }
+}
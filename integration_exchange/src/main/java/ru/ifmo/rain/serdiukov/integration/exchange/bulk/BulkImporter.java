@@ -0,0 +1,262 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.bulk;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.engine.ExchangeEngine;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.QuoteFeed;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.BulkImportResultDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.ImportRowDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.StockService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.UserService;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Loads users with their balances and stocks with their available amounts from a stream of rows, read line by line.
+ * Rows are validated as {@link UserService#registerUser} and {@link StockService#createStock} do, and are inserted
+ * by JDBC batches of {@code exchange.bulk-import.batch-size} with ids taken from the sequence beforehand,
+ * so that neither lookups by login or index nor the persistence context are involved; occupied logins and indices
+ * are rejected by the unique constraints. Every batch is committed on its own: when a row is rejected,
+ * the batches before it stay imported and the error tells how many rows they hold.
+ */
+@Component
+public class BulkImporter {
+    private static final String INSERT_USER = "insert into user (id, login, name, balance, holdings_value, version) values (?, ?, ?, ?, 0, 0)";
+    private static final String INSERT_STOCK = "insert into stock (id, index, name, price, available_amount, version) values (?, ?, ?, ?, ?, 0)";
+    // Entities share the sequence of Hibernate, a single query takes as many values as there are rows in the batch
+    private static final String NEXT_IDS = "select next value for hibernate_sequence from system_range(1, ?)";
+
+    private final @NotNull @NonNull BulkImportProperties properties;
+    private final @NotNull @NonNull UserService userService;
+    private final @NotNull @NonNull StockService stockService;
+    private final @NotNull @NonNull ExchangeEngine engine;
+    private final @NotNull @NonNull QuoteFeed quoteFeed;
+    private final @NotNull @NonNull JdbcTemplate jdbcTemplate;
+    private final @NotNull @NonNull TransactionTemplate transaction;
+    private final @NotNull @NonNull ObjectMapper objectMapper;
+
+    public BulkImporter(
+            final @NotNull @NonNull BulkImportProperties properties,
+            final @NotNull @NonNull UserService userService,
+            final @NotNull @NonNull StockService stockService,
+            final @NotNull @NonNull ExchangeEngine engine,
+            final @NotNull @NonNull QuoteFeed quoteFeed,
+            final @NotNull @NonNull JdbcTemplate jdbcTemplate,
+            final @NotNull @NonNull PlatformTransactionManager transactionManager,
+            final @NotNull @NonNull ObjectMapper objectMapper
+    ) {
+        if (properties.getBatchSize() <= 0) {
+            throw new IllegalArgumentException("Batch size of the bulk import should be positive");
+        }
+        this.properties = properties;
+        this.userService = userService;
+        this.stockService = stockService;
+        this.engine = engine;
+        this.quoteFeed = quoteFeed;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Blank lines and lines starting with {@code #} are skipped.
+     *
+     * @throws IllegalArgumentException when a row is malformed, invalid or occupies a login or an index
+     */
+    public @NotNull @NonNull BulkImportResultDTO importRows(final @NotNull @NonNull InputStream input, final @NotNull @NonNull ImportFormat format) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        final int batchSize = properties.getBatchSize();
+        final List<User> users = new ArrayList<>();
+        final List<Stock> stocks = new ArrayList<>();
+        long importedUsers = 0;
+        long importedStocks = 0;
+        long lineNumber = 0;
+        long batchStart = 1;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                final Object row = (format == ImportFormat.CSV) ? parseCsv(line) : parseNdjson(line);
+                if (row instanceof User user) {
+                    users.add(user);
+                } else {
+                    stocks.add((Stock) row);
+                }
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("Line %d: %s; %d users and %d stocks before line %d were imported", lineNumber, e.getMessage(), importedUsers, importedStocks, batchStart), e);
+            }
+            if (users.size() + stocks.size() >= batchSize) {
+                insert(users, stocks, batchStart, lineNumber, importedUsers, importedStocks);
+                importedUsers += users.size();
+                importedStocks += stocks.size();
+                users.clear();
+                stocks.clear();
+                batchStart = lineNumber + 1;
+            }
+        }
+        insert(users, stocks, batchStart, lineNumber, importedUsers, importedStocks);
+        return BulkImportResultDTO
+                .builder()
+                .users(importedUsers + users.size())
+                .stocks(importedStocks + stocks.size())
+                .build();
+    }
+
+    private void insert(final @NotNull @NonNull List<User> users, final @NotNull @NonNull List<Stock> stocks, final long firstLine, final long lastLine, final long importedUsers, final long importedStocks) {
+        if (users.isEmpty() && stocks.isEmpty()) {
+            return;
+        }
+        try {
+            transaction.executeWithoutResult(status -> {
+                final Iterator<Long> ids = jdbcTemplate.queryForList(NEXT_IDS, Long.class, users.size() + stocks.size()).iterator();
+                users.forEach(user -> user.setId(ids.next()));
+                stocks.forEach(stock -> stock.setId(ids.next()));
+                jdbcTemplate.batchUpdate(INSERT_USER, users, users.size(), (statement, user) -> {
+                    statement.setLong(1, user.getId());
+                    statement.setString(2, user.getLogin());
+                    statement.setString(3, user.getName());
+                    statement.setLong(4, user.getBalance());
+                });
+                jdbcTemplate.batchUpdate(INSERT_STOCK, stocks, stocks.size(), (statement, stock) -> {
+                    statement.setLong(1, stock.getId());
+                    statement.setString(2, stock.getIndex());
+                    statement.setString(3, stock.getName());
+                    statement.setLong(4, stock.getPrice());
+                    statement.setLong(5, stock.getAvailableAmount());
+                });
+            });
+        } catch (final DataIntegrityViolationException e) {
+            throw new IllegalArgumentException(String.format("Lines %d-%d: a login or an index is repeated or already occupied; %d users and %d stocks before line %d were imported", firstLine, lastLine, importedUsers, importedStocks, firstLine), e);
+        }
+        if (engine.isEnabled()) {
+            engine.registerAll(users, stocks);
+        } else {
+            stocks.forEach(quoteFeed::publish);
+        }
+    }
+
+    private @NotNull @NonNull Object parseNdjson(final @NotNull @NonNull String line) {
+        final ImportRowDTO row;
+        try {
+            row = objectMapper.readValue(line, ImportRowDTO.class);
+        } catch (final JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed row: " + e.getOriginalMessage());
+        }
+        if ("user".equals(row.getType())) {
+            return user(row.getLogin(), row.getName(), row.getBalance());
+        }
+        if ("stock".equals(row.getType())) {
+            return stock(row.getIndex(), row.getName(), row.getPrice(), row.getAvailableAmount());
+        }
+        throw new IllegalArgumentException("Type should be user or stock but is " + row.getType());
+    }
+
+    private @NotNull @NonNull Object parseCsv(final @NotNull @NonNull String line) {
+        final List<String> fields = splitCsv(line);
+        switch (fields.get(0)) {
+            case "user" -> {
+                checkFields(fields, 4);
+                return user(fields.get(1), fields.get(2), parseLong(fields.get(3), "Balance"));
+            }
+            case "stock" -> {
+                checkFields(fields, 5);
+                return stock(fields.get(1), fields.get(2), parseLong(fields.get(3), "Price"), parseLong(fields.get(4), "Available amount"));
+            }
+            default -> throw new IllegalArgumentException("Type should be user or stock but is " + fields.get(0));
+        }
+    }
+
+    private @NotNull @NonNull User user(final String login, final String name, final long balance) {
+        final User user = User
+                .builder()
+                .login(login)
+                .name(name)
+                .balance(balance)
+                .build();
+        userService.validateUser(user);
+        if (balance < 0) {
+            throw new IllegalArgumentException("Balance might not be negative");
+        }
+        return user;
+    }
+
+    private @NotNull @NonNull Stock stock(final String index, final String name, final long price, final long availableAmount) {
+        final Stock stock = Stock
+                .builder()
+                .index(index)
+                .name(name)
+                .price(price)
+                .availableAmount(availableAmount)
+                .build();
+        // Otherwise rejected by the not null constraints, which would be reported as an occupied index
+        if (index == null || name == null) {
+            throw new IllegalArgumentException("Index and name should be filled");
+        }
+        stockService.validateStock(stock);
+        return stock;
+    }
+
+    private static void checkFields(final @NotNull @NonNull List<String> fields, final int expected) {
+        if (fields.size() != expected) {
+            throw new IllegalArgumentException(String.format("Row of type %s should have %d fields but has %d", fields.get(0), expected, fields.size()));
+        }
+    }
+
+    private static long parseLong(final @NotNull @NonNull String value, final @NotNull @NonNull String field) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("%s should be a number but is %s", field, value));
+        }
+    }
+
+    private static @NotNull @NonNull List<String> splitCsv(final @NotNull @NonNull String line) {
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Quoted field is not closed");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,30 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.bulk;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+
+public enum ImportFormat {
+    /**
+     * {@code user,<login>,<name>,<balance>} and {@code stock,<index>,<name>,<price>,<availableAmount>},
+     * fields containing commas or quotes are quoted by {@code "} with quotes doubled.
+     */
+    CSV,
+    /**
+     * {@code {"type":"user","login":..,"name":..,"balance":..}} and
+     * {@code {"type":"stock","index":..,"name":..,"price":..,"availableAmount":..}}, one object per line.
+     */
+    NDJSON;
+
+    public static @NotNull @NonNull ImportFormat of(final @NotNull @NonNull Path file) {
+        final String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".csv")) {
+            return CSV;
+        }
+        if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+            return NDJSON;
+        }
+        throw new IllegalArgumentException(String.format("Cannot tell the format of %s by its extension, expected .csv, .ndjson or .jsonl", file));
+    }
+}
@@ -0,0 +1,12 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.domain.commands;
+
+public enum BatchMode {
+    /**
+     * Either all operations of the batch are executed or none of them.
+     */
+    ALL_OR_NOTHING,
+    /**
+     * Operations which cannot be executed are reported and skipped, the rest are executed.
+     */
+    BEST_EFFORT
+}
@@ -0,0 +1,28 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.domain.model;
+
+import lombok.*;
+
+import javax.persistence.*;
+
+/**
+ * Single row naming the journal the database is written back from. The engine recovering its state from a journal
+ * requires the database to carry the epoch of that journal: a database changed by anything else since, such as a start
+ * without the engine or with another journal, would be overwritten by the recovered state.
+ */
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "engine_watermark")
+public class EngineWatermark {
+    public static final long ID = 1;
+
+    @Id
+    @Column(name = "id", nullable = false)
+    private long id;
+
+    @Column(name = "epoch", nullable = false)
+    private long epoch;
+}
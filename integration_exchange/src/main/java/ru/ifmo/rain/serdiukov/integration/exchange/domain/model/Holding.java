@@ -0,0 +1,54 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.domain.model;
+
+import lombok.*;
+import org.hibernate.Hibernate;
+
+import javax.persistence.*;
+import java.util.Objects;
+
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Entity
+@Table(
+        name = "holding",
+        uniqueConstraints = @UniqueConstraint(name = "uk_holding_user_stock", columnNames = {"user_id", "stock_id"}),
+        indexes = @Index(name = "idx_holding_stock_user", columnList = "stock_id, user_id")
+)
+public class Holding {
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "id", nullable = false)
+    private long id;
+
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "user_id", nullable = false)
+    private User user;
+
+    @ToString.Exclude
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "stock_id", nullable = false)
+    private Stock stock;
+
+    @Column(name = "amount", nullable = false)
+    private long amount;
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || Hibernate.getClass(this) != Hibernate.getClass(o)) return false;
+        final Holding holding = (Holding) o;
+        // There is a single holding per user and stock, ids of proxies are read without initializing them
+        return getUser() != null && getStock() != null && holding.getUser() != null && holding.getStock() != null
+                && getUser().getId() == holding.getUser().getId() && getStock().getId() == holding.getStock().getId();
+    }
+
+    @Override
+    public int hashCode() {
+        return (getUser() == null || getStock() == null) ? 0 : Objects.hash(getUser().getId(), getStock().getId());
+    }
+}
@@ -1,10 +1,13 @@
 package ru.ifmo.rain.serdiukov.integration.exchange.domain.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.*;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.Hibernate;
+import org.hibernate.annotations.ColumnDefault;
 
 import javax.persistence.*;
+import java.util.Objects;
 
 @Getter
 @Setter
@@ -32,16 +35,24 @@ public class Stock {
     @Column(name = "availableAmount", nullable = false)
     private long availableAmount;
 
+    @Version
+    @JsonIgnore
+    @ToString.Exclude
+    @ColumnDefault("0")
+    @Column(name = "version", nullable = false)
+    private long version;
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
         if (o == null || Hibernate.getClass(this) != Hibernate.getClass(o)) return false;
         final Stock stock = (Stock) o;
-        return id == stock.id;
+        // Index is unique and assigned before the stock is persisted, getters are used so that proxies are initialized
+        return getIndex() != null && getIndex().equals(stock.getIndex());
     }
 
     @Override
     public int hashCode() {
-        return getClass().hashCode();
+        return Objects.hashCode(getIndex());
     }
 }
@@ -1,11 +1,15 @@
 package ru.ifmo.rain.serdiukov.integration.exchange.domain.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.Hibernate;
+import org.hibernate.annotations.ColumnDefault;
 
 import javax.persistence.*;
 import java.util.Map;
+import java.util.Objects;
 
 @Getter
 @Setter
@@ -27,23 +31,42 @@ public class User {
     @Column(name = "name", nullable = false)
     private String name;
 
-    @ElementCollection
-    @Column(name = "portfolio", nullable = false)
+    /**
+     * Loaded only when it is asked for, responses leave it out otherwise.
+     */
+    @Transient
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private Map<Stock, Long> portfolio;
 
     @Column(name = "balance", nullable = false)
     private long balance;
 
+    /**
+     * Sum of all holdings of the user at current prices, maintained by trades and price updates.
+     */
+    @JsonIgnore
+    @ColumnDefault("0")
+    @Column(name = "holdings_value", nullable = false)
+    private long holdingsValue;
+
+    @Version
+    @JsonIgnore
+    @ToString.Exclude
+    @ColumnDefault("0")
+    @Column(name = "version", nullable = false)
+    private long version;
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
         if (o == null || Hibernate.getClass(this) != Hibernate.getClass(o)) return false;
         final User user = (User) o;
-        return id == user.id;
+        // Login is unique and assigned before the user is persisted, getters are used so that proxies are initialized
+        return getLogin() != null && getLogin().equals(user.getLogin());
     }
 
     @Override
     public int hashCode() {
-        return getClass().hashCode();
+        return Objects.hashCode(getLogin());
     }
 }
@@ -0,0 +1,51 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "exchange.engine")
+public class EngineProperties {
+    /**
+     * When enabled, stocks and user accounts are kept in memory and all trades are executed by the engine,
+     * the database is only updated asynchronously.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Number of single-writer lanes, every stock index is pinned to one of them. Zero means one lane per CPU.
+     */
+    private int lanes = 0;
+
+    /**
+     * How often dirty stocks and accounts are written back to the database.
+     */
+    private Duration flushInterval = Duration.ofMillis(200);
+
+    private final Journal journal = new Journal();
+
+    @Data
+    public static class Journal {
+        /**
+         * When enabled, every change of the engine state is appended to the journal before it is acknowledged,
+         * and the state is recovered from the latest snapshot and the journal on restart.
+         */
+        private boolean enabled = true;
+
+        private Path directory = Path.of("exchange-journal");
+
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * How long the journal waits for more records before forcing them to the disk together.
+         */
+        private Duration groupCommitWindow = Duration.ofNanos(200_000);
+
+        private Duration snapshotInterval = Duration.ofMinutes(1);
+    }
+}
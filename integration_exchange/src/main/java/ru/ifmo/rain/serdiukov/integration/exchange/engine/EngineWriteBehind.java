@@ -0,0 +1,216 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Holding;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.HoldingRepository;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.StockRepository;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.UserRepository;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Asynchronously writes changed engine state back to the database.
+ * Changes are coalesced: however many trades touched a stock or an account between two flushes, it is written once.
+ * Only the holdings of the positions which have changed are written, except after a recovery, when all holdings
+ * of the recovered users are reconciled with their positions.
+ */
+@Slf4j
+@Component
+public class EngineWriteBehind {
+    private final @NotNull @NonNull UserRepository userRepository;
+    private final @NotNull @NonNull StockRepository stockRepository;
+    private final @NotNull @NonNull HoldingRepository holdingRepository;
+    private final @NotNull @NonNull TransactionTemplate transactionTemplate;
+    private final @NotNull @NonNull Set<String> dirtyStocks = ConcurrentHashMap.newKeySet();
+    private final @NotNull @NonNull Set<String> dirtyUsers = ConcurrentHashMap.newKeySet();
+    private final @NotNull @NonNull Set<Position> dirtyPositions = ConcurrentHashMap.newKeySet();
+    private final @NotNull @NonNull Set<String> reconciledUsers = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService flusher;
+    private Function<String, StockState> stocks;
+    private Function<String, UserAccount> accounts;
+
+    public EngineWriteBehind(final @NotNull @NonNull UserRepository userRepository, final @NotNull @NonNull StockRepository stockRepository, final @NotNull @NonNull HoldingRepository holdingRepository, final @NotNull @NonNull PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.stockRepository = stockRepository;
+        this.holdingRepository = holdingRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    void start(final @NotNull @NonNull EngineProperties properties, final @NotNull @NonNull Function<String, StockState> stocks, final @NotNull @NonNull Function<String, UserAccount> accounts) {
+        this.stocks = stocks;
+        this.accounts = accounts;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "exchange-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long interval = properties.getFlushInterval().toMillis();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void stockChanged(final @NotNull @NonNull String index) {
+        dirtyStocks.add(index);
+    }
+
+    void userChanged(final @NotNull @NonNull String login) {
+        dirtyUsers.add(login);
+    }
+
+    void positionChanged(final @NotNull @NonNull String login, final @NotNull @NonNull String index) {
+        dirtyPositions.add(new Position(login, index));
+        dirtyUsers.add(login);
+    }
+
+    void allChanged(final @NotNull @NonNull Collection<String> indices, final @NotNull @NonNull Collection<String> logins) {
+        dirtyStocks.addAll(indices);
+        reconciledUsers.addAll(logins);
+        dirtyUsers.addAll(logins);
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (final RuntimeException e) {
+            log.error("Failed to write engine state back to the database", e);
+        }
+    }
+
+    public void flush() {
+        final List<StockState> changedStocks = drain(dirtyStocks, stocks);
+        final List<UserAccount> changedUsers = drain(dirtyUsers, accounts);
+        final List<UserAccount> reconciled = drain(reconciledUsers, accounts);
+        final List<Position> changedPositions = drain(dirtyPositions, position -> position);
+        if (changedStocks.isEmpty() && changedUsers.isEmpty() && reconciled.isEmpty() && changedPositions.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                writeStocks(changedStocks);
+                writeUsers(changedUsers);
+                writePositions(changedPositions);
+                reconcileHoldings(reconciled);
+            });
+        } catch (final RuntimeException e) {
+            // Let the next flush retry everything that was not written
+            changedStocks.forEach(s -> dirtyStocks.add(s.getIndex()));
+            changedUsers.forEach(u -> dirtyUsers.add(u.getLogin()));
+            reconciled.forEach(u -> reconciledUsers.add(u.getLogin()));
+            dirtyPositions.addAll(changedPositions);
+            throw e;
+        }
+    }
+
+    private static <K, T> @NotNull @NonNull List<T> drain(final @NotNull @NonNull Set<K> dirty, final @NotNull @NonNull Function<K, T> lookup) {
+        final List<T> drained = new ArrayList<>();
+        final Iterator<K> it = dirty.iterator();
+        while (it.hasNext()) {
+            final K key = it.next();
+            it.remove();
+            // Removed from the dirty set before reading the state, so a concurrent change is written by the next flush
+            final T state = lookup.apply(key);
+            if (state != null) {
+                drained.add(state);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Versions are written as well: they are not bumped by the flush, so that the engine loading the stocks after a restart
+     * goes on from the sequence of the last quote it has published.
+     */
+    private void writeStocks(final @NotNull @NonNull List<StockState> changed) {
+        for (final StockState stock : changed) {
+            stockRepository.writeBack(stock.getId(), stock.getPrice(), stock.getAvailableAmount(), stock.getVersion());
+        }
+    }
+
+    private void writeUsers(final @NotNull @NonNull List<UserAccount> changed) {
+        final Map<Long, UserAccount> byId = new HashMap<>();
+        changed.forEach(u -> byId.put(u.getId(), u));
+        for (final User user : userRepository.findAllById(byId.keySet())) {
+            final UserAccount account = byId.get(user.getId());
+            // Resting orders are not persisted, so the database sees them as cancelled
+            user.setBalance(account.getBalance() + account.getReservedBalance());
+            user.setHoldingsValue(account.getHoldingsValue());
+        }
+    }
+
+    /**
+     * Updates, inserts or removes the single holding row of every changed position.
+     */
+    private void writePositions(final @NotNull @NonNull List<Position> changed) {
+        for (final Position position : changed) {
+            final UserAccount account = accounts.apply(position.login());
+            final StockState stock = stocks.apply(position.index());
+            if (account == null || stock == null) {
+                continue;
+            }
+            final long amount = account.getPosition(position.index());
+            if (amount == 0) {
+                holdingRepository.deleteHolding(account.getId(), stock.getId());
+            } else if (holdingRepository.setAmount(account.getId(), stock.getId(), amount) == 0) {
+                holdingRepository.save(Holding
+                        .builder()
+                        .user(userRepository.getById(account.getId()))
+                        .stock(stockRepository.getById(stock.getId()))
+                        .amount(amount)
+                        .build()
+                );
+            }
+        }
+    }
+
+    /**
+     * Makes all holdings of the users match their positions, whichever of them have changed.
+     */
+    private void reconcileHoldings(final @NotNull @NonNull List<UserAccount> reconciled) {
+        final Map<Long, Map<String, Long>> positions = new HashMap<>();
+        reconciled.forEach(account -> positions.put(account.getId(), new HashMap<>(account.getPositions())));
+        for (final Holding holding : holdingRepository.findByUserIdsFetchStock(positions.keySet())) {
+            final Long amount = positions.get(holding.getUser().getId()).remove(holding.getStock().getIndex());
+            if (amount == null) {
+                holdingRepository.delete(holding);
+            } else {
+                holding.setAmount(amount);
+            }
+        }
+        positions.forEach((userId, added) -> added.forEach((index, amount) -> {
+            final StockState stock = stocks.apply(index);
+            if (stock != null) {
+                holdingRepository.save(Holding
+                        .builder()
+                        .user(userRepository.getById(userId))
+                        .stock(stockRepository.getById(stock.getId()))
+                        .amount(amount)
+                        .build()
+                );
+            }
+        }));
+    }
+
+    private record Position(@NotNull @NonNull String login, @NotNull @NonNull String index) {
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        flusher.awaitTermination(1, TimeUnit.MINUTES);
+        flush();
+    }
+}
@@ -0,0 +1,1127 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.BatchMode;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperation;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.EngineWatermark;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.engine.book.OrderBook;
+import ru.ifmo.rain.serdiukov.integration.exchange.engine.journal.*;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.CandleAggregator;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.QuoteFeed;
+import ru.ifmo.rain.serdiukov.integration.exchange.history.TradeHistory;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.BatchItemResultDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.OrderBookDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.OrderDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.PriceLevelDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockHolderDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.EngineWatermarkRepository;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.HoldingRepository;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.StockRepository;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.UserRepository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * In-memory execution engine. Every stock index is pinned to one single-threaded lane, and all changes of the stock
+ * (trades, price and availability updates) are executed by that lane, so they never race with each other.
+ * User balances are shared between lanes and are only changed atomically, see {@link UserAccount}.
+ * <p>
+ * Limit orders rest in an {@link OrderBook} per stock, which is only used by the lane of that stock as well.
+ * <p>
+ * Every change is appended to the {@link OperationJournal} before it is applied, and is acknowledged to the caller
+ * once the journal has it on disk. Snapshots are taken periodically, so that restart only replays the journal tail.
+ * Whatever waits for a change to become durable (trade history, candles, quotes and the caller) runs on a separate
+ * completion thread in the order of the journal, so that it never holds up the journal flusher.
+ * The state is only recovered from the journal while the database still carries its {@link EngineWatermark}, otherwise
+ * the database has been changed behind the journal and the start fails rather than overwrite those changes.
+ */
+@Slf4j
+@Component
+@DependsOn("schemaMigrations")
+public class ExchangeEngine {
+    private static final CompletableFuture<Void> NOT_JOURNALED = CompletableFuture.completedFuture(null);
+
+    private final @NotNull @NonNull EngineProperties properties;
+    private final @NotNull @NonNull UserRepository userRepository;
+    private final @NotNull @NonNull StockRepository stockRepository;
+    private final @NotNull @NonNull HoldingRepository holdingRepository;
+    private final @NotNull @NonNull EngineWatermarkRepository watermarkRepository;
+    private final @NotNull @NonNull EngineWriteBehind writeBehind;
+    private final @NotNull @NonNull QuoteFeed quoteFeed;
+    private final @NotNull @NonNull TradeHistory tradeHistory;
+    private final @NotNull @NonNull CandleAggregator candles;
+    private final @NotNull @NonNull TransactionTemplate transactionTemplate;
+    private final @NotNull @NonNull ConcurrentMap<String, StockState> stocks = new ConcurrentHashMap<>();
+    private final @NotNull @NonNull ConcurrentMap<String, UserAccount> accounts = new ConcurrentHashMap<>();
+    // Same stocks and users ordered by their ids, for listing them page by page
+    private final @NotNull @NonNull ConcurrentNavigableMap<Long, StockState> stocksById = new ConcurrentSkipListMap<>();
+    private final @NotNull @NonNull ConcurrentNavigableMap<Long, UserAccount> accountsById = new ConcurrentSkipListMap<>();
+    private final @NotNull @NonNull ConcurrentMap<String, OrderBook<UserAccount>> books = new ConcurrentHashMap<>();
+    private final @NotNull @NonNull AtomicLong lastOrderId = new AtomicLong();
+    // Every change holds the read lock while it is journaled and applied, snapshots take the write lock
+    private final @NotNull @NonNull ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private ExecutorService[] lanes;
+    private OperationJournal journal;
+    private ExecutorService completions;
+    private SnapshotStore snapshotStore;
+    private ScheduledExecutorService snapshotter;
+    private long epoch;
+
+    public ExchangeEngine(final @NotNull @NonNull EngineProperties properties, final @NotNull @NonNull UserRepository userRepository, final @NotNull @NonNull StockRepository stockRepository, final @NotNull @NonNull HoldingRepository holdingRepository, final @NotNull @NonNull EngineWatermarkRepository watermarkRepository, final @NotNull @NonNull EngineWriteBehind writeBehind, final @NotNull @NonNull QuoteFeed quoteFeed, final @NotNull @NonNull TradeHistory tradeHistory, final @NotNull @NonNull CandleAggregator candles, final @NotNull @NonNull PlatformTransactionManager transactionManager) {
+        this.properties = properties;
+        this.userRepository = userRepository;
+        this.stockRepository = stockRepository;
+        this.holdingRepository = holdingRepository;
+        this.watermarkRepository = watermarkRepository;
+        this.writeBehind = writeBehind;
+        this.quoteFeed = quoteFeed;
+        this.tradeHistory = tradeHistory;
+        this.candles = candles;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    @PostConstruct
+    public void start() {
+        final EngineProperties.Journal journalProperties = properties.getJournal();
+        if (!isEnabled() || !journalProperties.isEnabled()) {
+            // Changes made from now on are not journaled, no journal may be recovered over them
+            watermarkRepository.deleteAll();
+        }
+        if (!isEnabled()) {
+            return;
+        }
+        boolean recovered = false;
+        long lastSequence = 0;
+        if (journalProperties.isEnabled()) {
+            snapshotStore = new SnapshotStore(journalProperties.getDirectory());
+            journal = new OperationJournal(journalProperties.getDirectory(), (int) journalProperties.getSegmentSize().toBytes(), journalProperties.getGroupCommitWindow());
+            final Optional<EngineSnapshot> snapshot = snapshotStore.loadLatest();
+            if (snapshot.isPresent() || !journal.isEmpty()) {
+                epoch = snapshot.map(EngineSnapshot::getEpoch).orElse(0L);
+                final long watermark = watermarkRepository.findById(EngineWatermark.ID).map(EngineWatermark::getEpoch).orElse(0L);
+                if (epoch == 0 || epoch != watermark) {
+                    throw new IllegalStateException(String.format(
+                            "Database has been changed since the journal in %s was written back to it, recovering the journal would overwrite the changes; "
+                                    + "remove the directory to load the engine from the database",
+                            journalProperties.getDirectory().toAbsolutePath()
+                    ));
+                }
+                snapshot.ifPresent(this::restore);
+                lastSequence = journal.replay(snapshot.map(EngineSnapshot::getSequence).orElse(0L), this::replay);
+                recovered = true;
+                log.info("Exchange engine state recovered up to journal record {}", lastSequence);
+            }
+        }
+        if (!recovered) {
+            transactionTemplate.executeWithoutResult(status -> {
+                stockRepository.findAll().forEach(stock -> addStock(new StockState(stock)));
+                userRepository.findAll().forEach(user -> addAccount(new UserAccount(user)));
+                holdingRepository.findAllFetchUserAndStock().forEach(holding -> accounts.get(holding.getUser().getLogin()).getPositions().put(holding.getStock().getIndex(), holding.getAmount()));
+            });
+            indexHolders();
+            if (journal != null) {
+                // The journal starting now is the one the database follows, before the first snapshot records its epoch
+                epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+                watermarkRepository.save(new EngineWatermark(EngineWatermark.ID, epoch));
+            }
+        }
+        final int laneCount = properties.getLanes() > 0 ? properties.getLanes() : Runtime.getRuntime().availableProcessors();
+        lanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor(daemon("exchange-lane-" + i));
+        }
+        writeBehind.start(properties, stocks::get, accounts::get);
+        if (recovered) {
+            // The database might have missed changes which were only journaled
+            writeBehind.allChanged(stocks.keySet(), accounts.keySet());
+        }
+        if (journal != null) {
+            completions = Executors.newSingleThreadExecutor(daemon("exchange-journal-completions"));
+            journal.open(lastSequence);
+            // Either compacts the replayed journal or captures the state loaded from the database
+            takeSnapshot();
+            final long interval = journalProperties.getSnapshotInterval().toMillis();
+            snapshotter = Executors.newSingleThreadScheduledExecutor(daemon("exchange-snapshotter"));
+            snapshotter.scheduleWithFixedDelay(this::takeSnapshotQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        log.info("Exchange engine started with {} lanes, {} stocks and {} users loaded", laneCount, stocks.size(), accounts.size());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (lanes == null) {
+            return;
+        }
+        for (final ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (final ExecutorService lane : lanes) {
+            lane.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        if (journal != null) {
+            snapshotter.shutdown();
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+            journal.close();
+            completions.shutdown();
+            completions.awaitTermination(1, TimeUnit.MINUTES);
+            takeSnapshot();
+        }
+    }
+
+    public void takeSnapshot() {
+        final EngineSnapshot snapshot;
+        stateLock.writeLock().lock();
+        try {
+            final List<EngineSnapshot.OrderEntry> orders = new ArrayList<>();
+            books.forEach((index, book) -> book.forEachOrder((id, buy, price, remaining, owner) -> orders.add(new EngineSnapshot.OrderEntry(id, index, owner.getLogin(), buy, price, remaining))));
+            snapshot = new EngineSnapshot(
+                    journal.getLastSequence(),
+                    epoch,
+                    stocks.values().stream().map(s -> new EngineSnapshot.StockEntry(s.getId(), s.getIndex(), s.getName(), s.getPrice(), s.getAvailableAmount(), s.getVersion())).toList(),
+                    accounts.values().stream().map(u -> new EngineSnapshot.UserEntry(u.getId(), u.getLogin(), u.getName(), u.getBalance() + u.getReservedBalance(), Map.copyOf(u.getPositions()))).toList(),
+                    orders
+            );
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        snapshotStore.save(snapshot);
+        journal.truncate(snapshot.getSequence());
+    }
+
+    private void takeSnapshotQuietly() {
+        try {
+            takeSnapshot();
+        } catch (final RuntimeException e) {
+            log.error("Failed to take a snapshot of the exchange engine", e);
+        }
+    }
+
+    private void restore(final @NotNull @NonNull EngineSnapshot snapshot) {
+        snapshot.getStocks().forEach(s -> addStock(new StockState(s.id(), s.index(), s.name(), s.price(), s.availableAmount(), s.version())));
+        snapshot.getUsers().forEach(u -> {
+            final UserAccount account = new UserAccount(u.id(), u.login(), u.name(), u.balance());
+            account.getPositions().putAll(u.positions());
+            addAccount(account);
+        });
+        indexHolders();
+        snapshot.getOrders().forEach(order -> {
+            final UserAccount account = account(order.login());
+            book(order.index()).restore(order.id(), order.buy(), order.price(), order.remaining(), account);
+            reserve(account, order.index(), order.buy(), order.price(), order.remaining());
+            lastOrderId.accumulateAndGet(order.id(), Math::max);
+        });
+    }
+
+    private void indexHolders() {
+        accounts.values().forEach(account -> account.getPositions().forEach((index, amount) -> {
+            final StockState stock = stock(index);
+            stock.getHolders().put(account.getId(), account);
+            account.revalue(cost(index, stock.getPrice(), amount));
+        }));
+    }
+
+    /**
+     * Applies a journaled change unconditionally, all checks were made before it was journaled.
+     */
+    private void replay(final @NotNull @NonNull JournalRecord record) {
+        switch (record.getType()) {
+            case CREATE_USER -> addAccount(new UserAccount(record.getId(), record.getLogin(), record.getName(), record.getAmount()));
+            // Stocks are created with the initial version, every replayed change grows it as it did before
+            case CREATE_STOCK -> addStock(new StockState(record.getId(), record.getIndex(), record.getName(), record.getPrice(), record.getAmount(), 0));
+            case TOP_UP -> account(record.getLogin()).credit(record.getAmount());
+            case UPDATE_PRICE -> applyPrice(stock(record.getIndex()), record.getPrice());
+            case INCREASE_AMOUNT -> {
+                final StockState stock = stock(record.getIndex());
+                stock.setAvailableAmount(stock.getAvailableAmount() + record.getAmount());
+            }
+            case BUY -> {
+                final UserAccount account = account(record.getLogin());
+                account.credit(-cost(record.getIndex(), record.getPrice(), record.getAmount()));
+                applyBuy(account, stock(record.getIndex()), record.getAmount());
+            }
+            case SELL -> {
+                final UserAccount account = account(record.getLogin());
+                account.credit(cost(record.getIndex(), record.getPrice(), record.getAmount()));
+                applySell(account, stock(record.getIndex()), record.getAmount());
+            }
+            case BID, ASK -> {
+                final boolean buy = record.getType() == JournalRecordType.BID;
+                final UserAccount account = account(record.getLogin());
+                reserve(account, record.getIndex(), buy, record.getPrice(), record.getAmount());
+                applyOrder(record.getId(), buy, account, stock(record.getIndex()), record.getPrice(), record.getAmount());
+                lastOrderId.accumulateAndGet(record.getId(), Math::max);
+            }
+            case CANCEL_ORDER -> applyCancel(record.getIndex(), record.getId());
+            case BATCH -> record.getRecords().forEach(this::replay);
+            default -> throw new IllegalStateException("Unknown journal record type: " + record.getType());
+        }
+    }
+
+    private boolean addStock(final @NotNull @NonNull StockState stock) {
+        if (stocks.putIfAbsent(stock.getIndex(), stock) != null) {
+            return false;
+        }
+        stocksById.put(stock.getId(), stock);
+        return true;
+    }
+
+    private void addAccount(final @NotNull @NonNull UserAccount account) {
+        if (accounts.putIfAbsent(account.getLogin(), account) == null) {
+            accountsById.put(account.getId(), account);
+        }
+    }
+
+    /**
+     * Stocks with ids greater than {@code afterId} in the order of their ids, lazily, so that they can be streamed.
+     */
+    public @NotNull @NonNull Stream<Stock> listStocks(final long afterId, final long minPrice, final long maxPrice) {
+        return stocksById
+                .tailMap(afterId, false)
+                .values()
+                .stream()
+                .map(StockState::toStock)
+                .filter(stock -> stock.getPrice() >= minPrice && stock.getPrice() <= maxPrice);
+    }
+
+    /**
+     * Users with ids greater than {@code afterId} in the order of their ids, without portfolios, lazily, so that they can be streamed.
+     */
+    public @NotNull @NonNull Stream<User> listUsers(final long afterId, final long minBalance) {
+        return accountsById
+                .tailMap(afterId, false)
+                .values()
+                .stream()
+                .filter(account -> account.getBalance() >= minBalance)
+                .map(account -> toUser(account, false));
+    }
+
+    public @NotNull @NonNull Optional<Stock> findStock(final @NotNull @NonNull String index) {
+        return Optional.ofNullable(stocks.get(index)).map(StockState::toStock);
+    }
+
+    public @NotNull @NonNull List<StockHolderDTO> findHolders(final @NotNull @NonNull String index, final long afterUserId, final int limit) {
+        final StockState stock = stock(index);
+        return stock
+                .getHolders()
+                .tailMap(afterUserId, false)
+                .values()
+                .stream()
+                .map(holder -> StockHolderDTO
+                        .builder()
+                        .userId(holder.getId())
+                        .login(holder.getLogin())
+                        .amount(holder.getPosition(index))
+                        .build()
+                )
+                // A holder may be selling the last shares on the lane right now
+                .filter(holder -> holder.getAmount() > 0)
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * @param withPortfolio whether all positions of the user should be copied, otherwise the portfolio is {@code null}
+     */
+    public @NotNull @NonNull Optional<User> findUser(final @NotNull @NonNull String login, final boolean withPortfolio) {
+        return Optional.ofNullable(accounts.get(login)).map(account -> toUser(account, withPortfolio));
+    }
+
+    public @NotNull @NonNull Stock registerStock(final @NotNull @NonNull Stock stock) {
+        await(locked(() -> new Committed<>(stock, created(stock))).whenDurable());
+        return stock;
+    }
+
+    public @NotNull @NonNull User registerUser(final @NotNull @NonNull User user) {
+        await(locked(() -> new Committed<>(user, created(user))).whenDurable());
+        return user;
+    }
+
+    /**
+     * Registers users and stocks which have been inserted together, waiting for the journal once for all of them.
+     */
+    public void registerAll(final @NotNull @NonNull List<User> users, final @NotNull @NonNull List<Stock> stocks) {
+        await(locked(() -> {
+            final CompletableFuture<?>[] durable = new CompletableFuture<?>[users.size() + stocks.size()];
+            int i = 0;
+            for (final User user : users) {
+                durable[i++] = created(user);
+            }
+            for (final Stock stock : stocks) {
+                durable[i++] = created(stock);
+            }
+            return new Committed<Void>(null, CompletableFuture.allOf(durable));
+        }).whenDurable());
+    }
+
+    private @NotNull @NonNull CompletableFuture<Void> created(final @NotNull @NonNull Stock stock) {
+        final CompletableFuture<Void> durable = journal(JournalRecord
+                .builder()
+                .type(JournalRecordType.CREATE_STOCK)
+                .id(stock.getId())
+                .index(stock.getIndex())
+                .name(stock.getName())
+                .price(stock.getPrice())
+                .amount(stock.getAvailableAmount())
+                .build());
+        final StockState state = new StockState(stock);
+        if (addStock(state)) {
+            published(state, durable);
+        }
+        return durable;
+    }
+
+    private @NotNull @NonNull CompletableFuture<Void> created(final @NotNull @NonNull User user) {
+        final CompletableFuture<Void> durable = journal(JournalRecord
+                .builder()
+                .type(JournalRecordType.CREATE_USER)
+                .id(user.getId())
+                .login(user.getLogin())
+                .name(user.getName())
+                .amount(user.getBalance())
+                .build());
+        addAccount(new UserAccount(user));
+        return durable;
+    }
+
+    public @NotNull @NonNull User topUpBalance(final @NotNull @NonNull String login, final long amount, final boolean withPortfolio) {
+        final UserAccount account = account(login);
+        await(locked(() -> {
+            final CompletableFuture<Void> durable = journal(JournalRecord
+                    .builder()
+                    .type(JournalRecordType.TOP_UP)
+                    .login(login)
+                    .amount(amount)
+                    .build());
+            account.credit(amount);
+            return new Committed<>(account, durable);
+        }).whenDurable());
+        writeBehind.userChanged(login);
+        return toUser(account, withPortfolio);
+    }
+
+    public long getTotalUserActivesPrice(final @NotNull @NonNull String login) {
+        final UserAccount account = account(login);
+        return account.getBalance() + account.getReservedBalance() + account.getHoldingsValue();
+    }
+
+    public @NotNull @NonNull CompletableFuture<Stock> updateStockPriceAsync(final @NotNull @NonNull String index, final long newPrice) {
+        return onLane(index, () -> {
+            final StockState stock = stock(index);
+            final CompletableFuture<Void> durable = journal(JournalRecord
+                    .builder()
+                    .type(JournalRecordType.UPDATE_PRICE)
+                    .index(index)
+                    .price(newPrice)
+                    .build());
+            applyPrice(stock, newPrice);
+            writeBehind.stockChanged(index);
+            stock.getHolders().values().forEach(holder -> writeBehind.userChanged(holder.getLogin()));
+            return new Committed<>(stock.toStock(), published(stock, durable.thenRun(() -> candles.priceUpdated(index, newPrice))));
+        });
+    }
+
+    public @NotNull @NonNull CompletableFuture<Stock> increaseStockAmountAsync(final @NotNull @NonNull String index, final long amount) {
+        return onLane(index, () -> {
+            final StockState stock = stock(index);
+            final CompletableFuture<Void> durable = journal(JournalRecord
+                    .builder()
+                    .type(JournalRecordType.INCREASE_AMOUNT)
+                    .index(index)
+                    .amount(amount)
+                    .build());
+            stock.setAvailableAmount(stock.getAvailableAmount() + amount);
+            writeBehind.stockChanged(index);
+            return new Committed<>(stock.toStock(), published(stock, durable));
+        });
+    }
+
+    /**
+     * @param withPortfolio whether all positions of the user should be returned, otherwise only the position in the traded stock
+     */
+    public @NotNull @NonNull CompletableFuture<StockOperation> performStockOperationAsync(final @NotNull @NonNull StockOperationType type, final @NotNull @NonNull String login, final @NotNull @NonNull String index, final long amount, final boolean withPortfolio) {
+        return onLane(index, () -> {
+            final StockState stock = stock(index);
+            final UserAccount account = account(login);
+            final CompletableFuture<Void> durable = executeTrade(type, account, stock, amount);
+            final StockOperation operation = StockOperation
+                    .builder()
+                    .type(type)
+                    .amount(amount)
+                    .user(withPortfolio ? toUser(account, true) : toUser(account, stock))
+                    .stock(stock.toStock())
+                    .build();
+            return new Committed<>(operation, durable);
+        });
+    }
+
+    public @NotNull @NonNull List<BatchItemResultDTO> performStockOperations(final @NotNull @NonNull BatchMode mode, final @NotNull @NonNull List<StockOperationRequestDTO> operations) {
+        return (mode == BatchMode.ALL_OR_NOTHING) ? performAllOrNothing(operations) : performBestEffort(operations);
+    }
+
+    /**
+     * Operations on the same stock are executed by its lane in the order of the batch, operations on different stocks in parallel.
+     */
+    private @NotNull @NonNull List<BatchItemResultDTO> performBestEffort(final @NotNull @NonNull List<StockOperationRequestDTO> operations) {
+        final List<CompletableFuture<BatchItemResultDTO>> results = operations
+                .stream()
+                .map(operation -> onLane(operation.getStockIndex(), () -> {
+                    final StockState stock = stock(operation.getStockIndex());
+                    final UserAccount account = account(operation.getUserLogin());
+                    final CompletableFuture<Void> durable = executeTrade(operation.getType(), account, stock, operation.getAmount());
+                    return new Committed<>(succeeded(account, stock), durable);
+                }).exceptionally(e -> {
+                    if (e.getCause() instanceof IllegalArgumentException || e.getCause() instanceof NoSuchElementException) {
+                        return BatchItemResultDTO
+                                .builder()
+                                .success(false)
+                                .error(e.getCause().getMessage())
+                                .build();
+                    }
+                    throw (e instanceof CompletionException completion) ? completion : new CompletionException(e);
+                }))
+                .toList();
+        return results.stream().map(ExchangeEngine::await).toList();
+    }
+
+    /**
+     * The whole batch is journaled as one record before any of its trades is applied, so it is either recovered whole or not at all.
+     */
+    private @NotNull @NonNull List<BatchItemResultDTO> performAllOrNothing(final @NotNull @NonNull List<StockOperationRequestDTO> operations) {
+        final List<BatchItemResultDTO> results = new ArrayList<>(operations.size());
+        final CompletableFuture<Void> durable;
+        // Lanes hold the read lock while they change the state, so nothing changes between the check and the execution of the batch
+        stateLock.writeLock().lock();
+        try {
+            checkBatch(operations);
+            final List<JournalRecord> trades = operations
+                    .stream()
+                    .map(operation -> {
+                        final StockState stock = stock(operation.getStockIndex());
+                        final JournalRecordType type = (operation.getType() == StockOperationType.BUY) ? JournalRecordType.BUY : JournalRecordType.SELL;
+                        return trade(type, account(operation.getUserLogin()), stock, operation.getAmount(), stock.getPrice());
+                    })
+                    .toList();
+            durable = journal(JournalRecord
+                    .builder()
+                    .type(JournalRecordType.BATCH)
+                    .records(trades)
+                    .build());
+            for (int i = 0; i < operations.size(); i++) {
+                final StockOperationRequestDTO operation = operations.get(i);
+                final StockState stock = stock(operation.getStockIndex());
+                final UserAccount account = account(operation.getUserLogin());
+                // Checked by the whole batch above
+                replay(trades.get(i));
+                traded(operation.getType(), account, stock, operation.getAmount(), trades.get(i).getPrice(), durable);
+                results.add(succeeded(account, stock));
+            }
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        await(durable);
+        return results;
+    }
+
+    /**
+     * Executes the whole batch on a copy of the balances, amounts and positions it touches, so that it fails before anything is changed.
+     */
+    private void checkBatch(final @NotNull @NonNull List<StockOperationRequestDTO> operations) {
+        final Map<String, Long> balances = new HashMap<>();
+        final Map<String, Long> availableAmounts = new HashMap<>();
+        final Map<String, Map<String, Long>> positions = new HashMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            final StockOperationRequestDTO operation = operations.get(i);
+            try {
+                final UserAccount account = account(operation.getUserLogin());
+                final StockState stock = stock(operation.getStockIndex());
+                final long amount = operation.getAmount();
+                if (amount <= 0) {
+                    throw new IllegalArgumentException("Amount should be positive");
+                }
+                final long balance = balances.computeIfAbsent(account.getLogin(), login -> account.getBalance());
+                final long availableAmount = availableAmounts.computeIfAbsent(stock.getIndex(), index -> stock.getAvailableAmount());
+                final Map<String, Long> accountPositions = positions.computeIfAbsent(account.getLogin(), login -> new HashMap<>());
+                final long position = accountPositions.computeIfAbsent(stock.getIndex(), account::getAvailablePosition);
+                switch (operation.getType()) {
+                    case BUY -> {
+                        final long cost = cost(stock.getIndex(), stock.getPrice(), amount);
+                        if (cost > balance) {
+                            throw insufficientBalance(amount, stock.getIndex(), cost, balance, account.getLogin());
+                        }
+                        if (availableAmount < amount) {
+                            throw notAvailable(stock.getIndex(), availableAmount);
+                        }
+                        balances.put(account.getLogin(), balance - cost);
+                        availableAmounts.put(stock.getIndex(), availableAmount - amount);
+                        accountPositions.put(stock.getIndex(), position + amount);
+                    }
+                    case SELL -> {
+                        if (position == 0 && account.getPosition(stock.getIndex()) == 0) {
+                            throw notOwned(stock.getIndex(), account.getLogin());
+                        }
+                        if (position < amount) {
+                            throw notOwnedEnough(amount, stock.getIndex(), account.getLogin(), position);
+                        }
+                        balances.put(account.getLogin(), balance + cost(stock.getIndex(), stock.getPrice(), amount));
+                        availableAmounts.put(stock.getIndex(), availableAmount + amount);
+                        accountPositions.put(stock.getIndex(), position - amount);
+                    }
+                    default -> throw new IllegalArgumentException("Unknown operation type: " + operation.getType().name());
+                }
+            } catch (final IllegalArgumentException | NoSuchElementException e) {
+                throw new IllegalArgumentException(String.format("Operation %d failed: %s", i, e.getMessage()), e);
+            }
+        }
+    }
+
+    private @NotNull @NonNull CompletableFuture<Void> executeTrade(final @NotNull @NonNull StockOperationType type, final @NotNull @NonNull UserAccount account, final @NotNull @NonNull StockState stock, final long amount) {
+        final long price = stock.getPrice();
+        final CompletableFuture<Void> durable = switch (type) {
+            case BUY -> buyStock(account, stock, amount);
+            case SELL -> sellStock(account, stock, amount);
+            default -> throw new IllegalArgumentException("Unknown operation type: " + type.name());
+        };
+        return traded(type, account, stock, amount, price, durable);
+    }
+
+    /**
+     * Writes back, records and publishes a trade which has been applied.
+     */
+    private @NotNull @NonNull CompletableFuture<Void> traded(final @NotNull @NonNull StockOperationType type, final @NotNull @NonNull UserAccount account, final @NotNull @NonNull StockState stock, final long amount, final long price, final @NotNull @NonNull CompletableFuture<Void> durable) {
+        writeBehind.stockChanged(stock.getIndex());
+        writeBehind.positionChanged(account.getLogin(), stock.getIndex());
+        // Recorded before the trade is acknowledged, so that the caller finds it in the history right away
+        return published(stock, durable.thenRun(() -> {
+            tradeHistory.record(type, account.getLogin(), stock.getIndex(), amount, price);
+            candles.trade(stock.getIndex(), price, amount);
+        }));
+    }
+
+    /**
+     * Publishes the stock as it is now, once the change is durable.
+     */
+    private @NotNull @NonNull CompletableFuture<Void> published(final @NotNull @NonNull StockState stock, final @NotNull @NonNull CompletableFuture<Void> durable) {
+        final Stock quote = stock.toStock();
+        durable.thenRun(() -> quoteFeed.publish(quote));
+        return durable;
+    }
+
+    private static @NotNull @NonNull BatchItemResultDTO succeeded(final @NotNull @NonNull UserAccount account, final @NotNull @NonNull StockState stock) {
+        return BatchItemResultDTO
+                .builder()
+                .success(true)
+                .balance(account.getBalance())
+                .price(stock.getPrice())
+                .availableAmount(stock.getAvailableAmount())
+                .build();
+    }
+
+    public @NotNull @NonNull Stock updateStockPrice(final @NotNull @NonNull String index, final long newPrice) {
+        return await(updateStockPriceAsync(index, newPrice));
+    }
+
+    public @NotNull @NonNull Stock increaseStockAmount(final @NotNull @NonNull String index, final long amount) {
+        return await(increaseStockAmountAsync(index, amount));
+    }
+
+    public @NotNull @NonNull StockOperation performStockOperation(final @NotNull @NonNull StockOperationType type, final @NotNull @NonNull String login, final @NotNull @NonNull String index, final long amount, final boolean withPortfolio) {
+        return await(performStockOperationAsync(type, login, index, amount, withPortfolio));
+    }
+
+    /**
+     * Reserves what the order may spend, matches it against the book of the stock and leaves the rest of it resting there.
+     */
+    public @NotNull @NonNull CompletableFuture<OrderDTO> placeOrderAsync(final @NotNull @NonNull StockOperationType type, final @NotNull @NonNull String login, final @NotNull @NonNull String index, final long price, final long amount) {
+        return onLane(index, () -> {
+            final StockState stock = stock(index);
+            final UserAccount account = account(login);
+            if (amount <= 0) {
+                throw new IllegalArgumentException("Amount should be positive");
+            }
+            if (price <= 0) {
+                throw new IllegalArgumentException("Price should be positive");
+            }
+            // Fills value the shares at the price of the stock, which must not overflow halfway through the matching
+            cost(index, stock.getPrice(), amount);
+            final boolean buy = switch (type) {
+                case BUY -> true;
+                case SELL -> false;
+                default -> throw new IllegalArgumentException("Unknown operation type: " + type.name());
+            };
+            if (buy) {
+                final long cost = cost(index, price, amount);
+                if (!account.tryReserve(cost)) {
+                    throw insufficientBalance(amount, index, cost, account.getBalance(), login);
+                }
+            } else {
+                if (account.getPosition(index) == 0) {
+                    throw notOwned(index, login);
+                }
+                final long available = account.getAvailablePosition(index);
+                if (available < amount) {
+                    throw notOwnedEnough(amount, index, login, available);
+                }
+                account.reservePosition(index, amount);
+            }
+            final long orderId = lastOrderId.incrementAndGet();
+            final CompletableFuture<Void> durable;
+            try {
+                durable = journal(JournalRecord
+                        .builder()
+                        .type(buy ? JournalRecordType.BID : JournalRecordType.ASK)
+                        .id(orderId)
+                        .login(login)
+                        .index(index)
+                        .price(price)
+                        .amount(amount)
+                        .build());
+            } catch (final RuntimeException e) {
+                release(account, index, buy, price, amount);
+                throw e;
+            }
+            final Execution execution = applyOrder(orderId, buy, account, stock, price, amount);
+            if (execution.fills.isEmpty()) {
+                writeBehind.userChanged(login);
+            } else {
+                writeBehind.positionChanged(login, index);
+            }
+            execution.fills.forEach(fill -> writeBehind.positionChanged(fill.maker().getLogin(), index));
+            return new Committed<>(OrderDTO
+                    .builder()
+                    .orderId(orderId)
+                    .stockIndex(index)
+                    .type(type)
+                    .price(price)
+                    .filledAmount(execution.filledAmount)
+                    .filledValue(execution.filledValue)
+                    .restingAmount(execution.resting)
+                    .build(), recorded(execution, durable));
+        });
+    }
+
+    public @NotNull @NonNull CompletableFuture<OrderDTO> cancelOrderAsync(final @NotNull @NonNull String login, final @NotNull @NonNull String index, final long orderId) {
+        return onLane(index, () -> {
+            stock(index);
+            final UserAccount account = account(login);
+            final OrderBook<UserAccount> book = books.get(index);
+            if (book == null || !book.contains(orderId)) {
+                throw new NoSuchElementException(String.format("Cannot find resting order %d of stock %s", orderId, index));
+            }
+            if (book.getOwner(orderId) != account) {
+                throw new IllegalArgumentException(String.format("Order %d has not been placed by user %s", orderId, login));
+            }
+            final boolean buy = book.isBuy(orderId);
+            final long price = book.getPrice(orderId);
+            final CompletableFuture<Void> durable = journal(JournalRecord
+                    .builder()
+                    .type(JournalRecordType.CANCEL_ORDER)
+                    .id(orderId)
+                    .index(index)
+                    .build());
+            final long cancelled = applyCancel(index, orderId);
+            writeBehind.userChanged(login);
+            return new Committed<>(OrderDTO
+                    .builder()
+                    .orderId(orderId)
+                    .stockIndex(index)
+                    .type(buy ? StockOperationType.BUY : StockOperationType.SELL)
+                    .price(price)
+                    .cancelledAmount(cancelled)
+                    .build(), durable);
+        });
+    }
+
+    public @NotNull @NonNull CompletableFuture<OrderBookDTO> getOrderBookAsync(final @NotNull @NonNull String index, final int depth) {
+        return onLane(index, () -> {
+            stock(index);
+            final List<PriceLevelDTO> bids = new ArrayList<>();
+            final List<PriceLevelDTO> asks = new ArrayList<>();
+            final OrderBook<UserAccount> book = books.get(index);
+            if (book != null) {
+                book.forEachLevel(true, depth, (price, amount, orders) -> bids.add(level(price, amount, orders)));
+                book.forEachLevel(false, depth, (price, amount, orders) -> asks.add(level(price, amount, orders)));
+            }
+            return new Committed<>(OrderBookDTO
+                    .builder()
+                    .index(index)
+                    .bids(bids)
+                    .asks(asks)
+                    .build(), NOT_JOURNALED);
+        });
+    }
+
+    public @NotNull @NonNull OrderDTO placeOrder(final @NotNull @NonNull StockOperationType type, final @NotNull @NonNull String login, final @NotNull @NonNull String index, final long price, final long amount) {
+        return await(placeOrderAsync(type, login, index, price, amount));
+    }
+
+    public @NotNull @NonNull OrderDTO cancelOrder(final @NotNull @NonNull String login, final @NotNull @NonNull String index, final long orderId) {
+        return await(cancelOrderAsync(login, index, orderId));
+    }
+
+    public @NotNull @NonNull OrderBookDTO getOrderBook(final @NotNull @NonNull String index, final int depth) {
+        return await(getOrderBookAsync(index, depth));
+    }
+
+    private static @NotNull @NonNull PriceLevelDTO level(final long price, final long amount, final int orders) {
+        return PriceLevelDTO
+                .builder()
+                .price(price)
+                .amount(amount)
+                .orders(orders)
+                .build();
+    }
+
+    private @NotNull @NonNull OrderBook<UserAccount> book(final @NotNull @NonNull String index) {
+        return books.computeIfAbsent(index, i -> new OrderBook<>());
+    }
+
+    private @NotNull @NonNull Execution applyOrder(final long orderId, final boolean buy, final @NotNull @NonNull UserAccount account, final @NotNull @NonNull StockState stock, final long price, final long amount) {
+        final Execution execution = new Execution(account, stock, buy, price);
+        execution.resting = book(stock.getIndex()).place(orderId, buy, price, amount, account, execution);
+        return execution;
+    }
+
+    /**
+     * Records every fill of the order once the order is durable, as a purchase of its buyer and a sale of its seller,
+     * and adds it to the bars of the stock once.
+     *
+     * @return future which completes once the fills are recorded
+     */
+    private @NotNull @NonNull CompletableFuture<Void> recorded(final @NotNull @NonNull Execution execution, final @NotNull @NonNull CompletableFuture<Void> durable) {
+        if (execution.fills.isEmpty()) {
+            return durable;
+        }
+        final String index = execution.stock.getIndex();
+        return durable.thenRun(() -> execution.fills.forEach(fill -> {
+            final UserAccount buyer = execution.buy ? execution.taker : fill.maker();
+            final UserAccount seller = execution.buy ? fill.maker() : execution.taker;
+            tradeHistory.record(StockOperationType.BUY, buyer.getLogin(), index, fill.amount(), fill.price());
+            tradeHistory.record(StockOperationType.SELL, seller.getLogin(), index, fill.amount(), fill.price());
+            candles.trade(index, fill.price(), fill.amount());
+        }));
+    }
+
+    private long applyCancel(final @NotNull @NonNull String index, final long orderId) {
+        final OrderBook<UserAccount> book = book(index);
+        final UserAccount owner = book.getOwner(orderId);
+        final boolean buy = book.isBuy(orderId);
+        final long price = book.getPrice(orderId);
+        final long cancelled = book.cancel(orderId);
+        release(owner, index, buy, price, cancelled);
+        return cancelled;
+    }
+
+    private static void reserve(final @NotNull @NonNull UserAccount account, final @NotNull @NonNull String index, final boolean buy, final long price, final long amount) {
+        if (buy) {
+            account.reserve(cost(index, price, amount));
+        } else {
+            account.reservePosition(index, amount);
+        }
+    }
+
+    private static void release(final @NotNull @NonNull UserAccount account, final @NotNull @NonNull String index, final boolean buy, final long price, final long amount) {
+        if (buy) {
+            account.release(cost(index, price, amount), 0);
+        } else {
+            account.reservePosition(index, -amount);
+        }
+    }
+
+    /**
+     * Settles the fills of an incoming order: reserved shares move from the seller to the buyer
+     * and reserved money from the buyer to the seller. Holdings keep being valued at the price of the stock.
+     */
+    private static final class Execution implements OrderBook.FillHandler<UserAccount> {
+        private final @NotNull @NonNull UserAccount taker;
+        private final @NotNull @NonNull StockState stock;
+        private final boolean buy;
+        private final long limit;
+        private final @NotNull @NonNull List<Fill> fills = new ArrayList<>();
+        private long filledAmount;
+        private long filledValue;
+        private long resting;
+
+        private Execution(final @NotNull @NonNull UserAccount taker, final @NotNull @NonNull StockState stock, final boolean buy, final long limit) {
+            this.taker = taker;
+            this.stock = stock;
+            this.buy = buy;
+            this.limit = limit;
+        }
+
+        @Override
+        public void fill(final long makerOrderId, final @NotNull @NonNull UserAccount maker, final long price, final long amount, final long makerRemaining) {
+            final UserAccount buyer = buy ? taker : maker;
+            final UserAccount seller = buy ? maker : taker;
+            // A bid has reserved its own limit price, which is above the price of the ask it is filled against when it is the incoming one
+            final long value = cost(stock.getIndex(), price, amount);
+            final long reserved = cost(stock.getIndex(), buy ? limit : price, amount);
+            final long holdingsValue = cost(stock.getIndex(), stock.getPrice(), amount);
+            buyer.release(reserved, value);
+            seller.reservePosition(stock.getIndex(), -amount);
+            seller.credit(value);
+            buyer.getPositions().merge(stock.getIndex(), amount, Long::sum);
+            stock.getHolders().put(buyer.getId(), buyer);
+            buyer.revalue(holdingsValue);
+            if (seller.getPositions().computeIfPresent(stock.getIndex(), (index, owned) -> owned > amount ? owned - amount : null) == null) {
+                stock.getHolders().remove(seller.getId());
+            }
+            seller.revalue(-holdingsValue);
+            filledAmount += amount;
+            filledValue += value;
+            fills.add(new Fill(maker, price, amount));
+        }
+    }
+
+    private record Fill(@NotNull @NonNull UserAccount maker, long price, long amount) {
+    }
+
+    private @NotNull @NonNull CompletableFuture<Void> buyStock(final @NotNull @NonNull UserAccount account, final @NotNull @NonNull StockState stock, final long requestedAmount) {
+        if (requestedAmount <= 0) {
+            throw new IllegalArgumentException("Amount should be positive");
+        }
+        final long price = stock.getPrice();
+        final long cost = cost(stock.getIndex(), price, requestedAmount);
+        if (cost > account.getBalance()) {
+            throw insufficientBalance(requestedAmount, stock.getIndex(), cost, account.getBalance(), account.getLogin());
+        }
+        if (stock.getAvailableAmount() < requestedAmount) {
+            throw notAvailable(stock.getIndex(), stock.getAvailableAmount());
+        }
+        // Balance might have been spent by another lane since the check above
+        if (!account.tryDebit(cost)) {
+            throw insufficientBalance(requestedAmount, stock.getIndex(), cost, account.getBalance(), account.getLogin());
+        }
+        final CompletableFuture<Void> durable;
+        try {
+            durable = journal(trade(JournalRecordType.BUY, account, stock, requestedAmount, price));
+        } catch (final RuntimeException e) {
+            account.credit(cost);
+            throw e;
+        }
+        applyBuy(account, stock, requestedAmount);
+        return durable;
+    }
+
+    private static void applyPrice(final @NotNull @NonNull StockState stock, final long newPrice) {
+        final long delta = newPrice - stock.getPrice();
+        stock.setPrice(newPrice);
+        stock.getHolders().values().forEach(holder -> holder.revalue(delta * holder.getPosition(stock.getIndex())));
+    }
+
+    private static void applyBuy(final @NotNull @NonNull UserAccount account, final @NotNull @NonNull StockState stock, final long amount) {
+        stock.setAvailableAmount(stock.getAvailableAmount() - amount);
+        account.getPositions().merge(stock.getIndex(), amount, Long::sum);
+        stock.getHolders().put(account.getId(), account);
+        account.revalue(cost(stock.getIndex(), stock.getPrice(), amount));
+    }
+
+    /**
+     * Money paid for {@code amount} shares at {@code price}, a trade whose cost does not fit into a long is rejected instead of wrapping around.
+     */
+    private static long cost(final @NotNull @NonNull String index, final long price, final long amount) {
+        try {
+            return Math.multiplyExact(price, amount);
+        } catch (final ArithmeticException e) {
+            throw new IllegalArgumentException(String.format("Cannot trade %d of stock %s at %d because the cost is too large", amount, index, price), e);
+        }
+    }
+
+    private static @NotNull @NonNull IllegalArgumentException insufficientBalance(final long requestedAmount, final @NotNull @NonNull String index, final long cost, final long balance, final @NotNull @NonNull String login) {
+        return new IllegalArgumentException(String.format(
+                "Cannot buy %d of stock %s because it requires %d money while only %d is available for user %s",
+                requestedAmount,
+                index,
+                cost,
+                balance,
+                login
+        ));
+    }
+
+    private static @NotNull @NonNull IllegalArgumentException notAvailable(final @NotNull @NonNull String index, final long availableAmount) {
+        return new IllegalArgumentException(String.format(
+                "Requested amount of stock %s is not available for purchase, you can request at most %d",
+                index,
+                availableAmount
+        ));
+    }
+
+    private static @NotNull @NonNull IllegalArgumentException notOwned(final @NotNull @NonNull String index, final @NotNull @NonNull String login) {
+        return new IllegalArgumentException(String.format(
+                "Cannot sell stock %s because user %s does not own it",
+                index,
+                login
+        ));
+    }
+
+    private static @NotNull @NonNull IllegalArgumentException notOwnedEnough(final long requestedSellingAmount, final @NotNull @NonNull String index, final @NotNull @NonNull String login, final long ownedAmount) {
+        return new IllegalArgumentException(String.format(
+                "Cannot sell %d of stock %s because user %s owns only %d of it",
+                requestedSellingAmount,
+                index,
+                login,
+                ownedAmount
+        ));
+    }
+
+    private @NotNull @NonNull CompletableFuture<Void> sellStock(final @NotNull @NonNull UserAccount account, final @NotNull @NonNull StockState stock, final long requestedSellingAmount) {
+        if (requestedSellingAmount <= 0) {
+            throw new IllegalArgumentException("Amount should be positive");
+        }
+        if (!account.getPositions().containsKey(stock.getIndex())) {
+            throw notOwned(stock.getIndex(), account.getLogin());
+        }
+        // Shares offered by resting asks cannot be sold to the exchange
+        final long availableAmount = account.getAvailablePosition(stock.getIndex());
+        if (availableAmount < requestedSellingAmount) {
+            throw notOwnedEnough(requestedSellingAmount, stock.getIndex(), account.getLogin(), availableAmount);
+        }
+        final long price = stock.getPrice();
+        final long proceeds = cost(stock.getIndex(), price, requestedSellingAmount);
+        final CompletableFuture<Void> durable = journal(trade(JournalRecordType.SELL, account, stock, requestedSellingAmount, price));
+        account.credit(proceeds);
+        applySell(account, stock, requestedSellingAmount);
+        return durable;
+    }
+
+    private static void applySell(final @NotNull @NonNull UserAccount account, final @NotNull @NonNull StockState stock, final long amount) {
+        if (account.getPositions().computeIfPresent(stock.getIndex(), (index, owned) -> owned > amount ? owned - amount : null) == null) {
+            stock.getHolders().remove(account.getId());
+        }
+        account.revalue(-cost(stock.getIndex(), stock.getPrice(), amount));
+        stock.setAvailableAmount(stock.getAvailableAmount() + amount);
+    }
+
+    private static @NotNull @NonNull JournalRecord trade(final @NotNull @NonNull JournalRecordType type, final @NotNull @NonNull UserAccount account, final @NotNull @NonNull StockState stock, final long amount, final long price) {
+        return JournalRecord
+                .builder()
+                .type(type)
+                .login(account.getLogin())
+                .index(stock.getIndex())
+                .amount(amount)
+                .price(price)
+                .build();
+    }
+
+    /**
+     * @return future which completes on the completion thread once the record is on disk
+     */
+    private @NotNull @NonNull CompletableFuture<Void> journal(final @NotNull @NonNull JournalRecord record) {
+        return journal != null ? journal.append(record).thenApplyAsync(Function.identity(), completions) : NOT_JOURNALED;
+    }
+
+    private @NotNull @NonNull StockState stock(final @NotNull @NonNull String index) {
+        final StockState stock = stocks.get(index);
+        if (stock == null) {
+            throw new NoSuchElementException("Cannot find stock with index = " + index);
+        }
+        return stock;
+    }
+
+    private @NotNull @NonNull UserAccount account(final @NotNull @NonNull String login) {
+        final UserAccount account = accounts.get(login);
+        if (account == null) {
+            throw new NoSuchElementException("Cannot find user with login = " + login);
+        }
+        return account;
+    }
+
+    private @NotNull @NonNull User toUser(final @NotNull @NonNull UserAccount account, final boolean withPortfolio) {
+        Map<Stock, Long> portfolio = null;
+        if (withPortfolio) {
+            portfolio = new HashMap<>();
+            for (final Map.Entry<String, Long> position : account.getPositions().entrySet()) {
+                final StockState stock = stocks.get(position.getKey());
+                if (stock != null) {
+                    portfolio.put(stock.toStock(), position.getValue());
+                }
+            }
+        }
+        return toUser(account, portfolio);
+    }
+
+    /**
+     * Copies only the position in the given stock, whatever the size of the portfolio is.
+     */
+    private @NotNull @NonNull User toUser(final @NotNull @NonNull UserAccount account, final @NotNull @NonNull StockState stock) {
+        final long position = account.getPosition(stock.getIndex());
+        return toUser(account, (position > 0) ? Map.of(stock.toStock(), position) : Map.of());
+    }
+
+    private static @NotNull @NonNull User toUser(final @NotNull @NonNull UserAccount account, final Map<Stock, Long> portfolio) {
+        return User
+                .builder()
+                .id(account.getId())
+                .login(account.getLogin())
+                .name(account.getName())
+                .balance(account.getBalance())
+                .portfolio(portfolio)
+                .build();
+    }
+
+    private <T> @NotNull @NonNull Committed<T> locked(final @NotNull @NonNull Supplier<Committed<T>> change) {
+        stateLock.readLock().lock();
+        try {
+            return change.get();
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    private <T> @NotNull @NonNull CompletableFuture<T> onLane(final @NotNull @NonNull String index, final @NotNull @NonNull Supplier<Committed<T>> change) {
+        if (lanes == null) {
+            throw new IllegalStateException("Exchange engine is not enabled");
+        }
+        return CompletableFuture
+                .supplyAsync(() -> locked(change), lanes[Math.floorMod(index.hashCode(), lanes.length)])
+                .thenCompose(Committed::whenDurable);
+    }
+
+    private static <T> T await(final @NotNull @NonNull CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static @NotNull @NonNull ThreadFactory daemon(final @NotNull @NonNull String name) {
+        return r -> {
+            final Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private record Committed<T>(T result, @NotNull @NonNull CompletableFuture<Void> durable) {
+        @NotNull @NonNull CompletableFuture<T> whenDurable() {
+            return durable.thenApply(v -> result);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Hot state of a single stock. Price and availability are only ever changed from the lane that owns the stock index,
+ * other threads may read them at any time. Holders are the accounts with a position in this stock, keyed by user id,
+ * they are maintained by the same lane. Version grows with every change, it orders quotes of the stock.
+ */
+@Getter
+public class StockState {
+    private final long id;
+    private final @NotNull @NonNull String index;
+    private final @NotNull @NonNull String name;
+    private volatile long price;
+    private volatile long availableAmount;
+    private volatile long version;
+    @Getter(AccessLevel.PACKAGE)
+    private final @NotNull @NonNull NavigableMap<Long, UserAccount> holders = new ConcurrentSkipListMap<>();
+
+    StockState(final long id, final @NotNull @NonNull String index, final @NotNull @NonNull String name, final long price, final long availableAmount, final long version) {
+        this.id = id;
+        this.index = index;
+        this.name = name;
+        this.price = price;
+        this.availableAmount = availableAmount;
+        this.version = version;
+    }
+
+    StockState(final @NotNull @NonNull Stock stock) {
+        this(stock.getId(), stock.getIndex(), stock.getName(), stock.getPrice(), stock.getAvailableAmount(), stock.getVersion());
+    }
+
+    void setPrice(final long price) {
+        this.price = price;
+        this.version++;
+    }
+
+    void setAvailableAmount(final long availableAmount) {
+        this.availableAmount = availableAmount;
+        this.version++;
+    }
+
+    public @NotNull @NonNull Stock toStock() {
+        return Stock
+                .builder()
+                .id(id)
+                .index(index)
+                .name(name)
+                .price(price)
+                .availableAmount(availableAmount)
+                .version(version)
+                .build();
+    }
+}
@@ -0,0 +1,122 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hot state of a user account. Balance may be changed by any lane, so it is only updated atomically.
+ * Position in a given stock is only changed by the lane that owns that stock index.
+ * Holdings value is the sum of positions at current prices, it is adjusted by every trade and price change.
+ * Resting limit orders reserve what they may spend: bids move money out of the balance, asks mark a part of the position
+ * as not available for selling. Both are given back when the order is cancelled.
+ */
+@Getter
+public class UserAccount {
+    private final long id;
+    private final @NotNull @NonNull String login;
+    private final @NotNull @NonNull String name;
+    @Getter(AccessLevel.NONE)
+    private final @NotNull @NonNull AtomicLong balance;
+    @Getter(AccessLevel.NONE)
+    private final @NotNull @NonNull AtomicLong holdingsValue = new AtomicLong();
+    @Getter(AccessLevel.NONE)
+    private final @NotNull @NonNull AtomicLong reservedBalance = new AtomicLong();
+    @Getter(AccessLevel.PACKAGE)
+    private final @NotNull @NonNull Map<String, Long> positions = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.PACKAGE)
+    private final @NotNull @NonNull Map<String, Long> reservedPositions = new ConcurrentHashMap<>();
+
+    UserAccount(final long id, final @NotNull @NonNull String login, final @NotNull @NonNull String name, final long balance) {
+        this.id = id;
+        this.login = login;
+        this.name = name;
+        this.balance = new AtomicLong(balance);
+    }
+
+    UserAccount(final @NotNull @NonNull User user) {
+        this(user.getId(), user.getLogin(), user.getName(), user.getBalance());
+        if (user.getPortfolio() != null) {
+            user.getPortfolio().forEach((stock, amount) -> positions.put(stock.getIndex(), amount));
+        }
+    }
+
+    public long getBalance() {
+        return balance.get();
+    }
+
+    public long getHoldingsValue() {
+        return holdingsValue.get();
+    }
+
+    void revalue(final long delta) {
+        holdingsValue.addAndGet(delta);
+    }
+
+    boolean tryDebit(final long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Cannot debit a negative amount of money: " + amount);
+        }
+        long current;
+        do {
+            current = balance.get();
+            if (current < amount) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - amount));
+        return true;
+    }
+
+    long credit(final long amount) {
+        return balance.addAndGet(amount);
+    }
+
+    /**
+     * @return money held by resting bids, it is not part of the balance.
+     */
+    public long getReservedBalance() {
+        return reservedBalance.get();
+    }
+
+    boolean tryReserve(final long amount) {
+        if (!tryDebit(amount)) {
+            return false;
+        }
+        reservedBalance.addAndGet(amount);
+        return true;
+    }
+
+    void reserve(final long amount) {
+        balance.addAndGet(-amount);
+        reservedBalance.addAndGet(amount);
+    }
+
+    /**
+     * Takes the amount out of the reserved money, the part which is not {@code spent} goes back to the balance.
+     */
+    void release(final long amount, final long spent) {
+        reservedBalance.addAndGet(-amount);
+        balance.addAndGet(amount - spent);
+    }
+
+    public long getPosition(final @NotNull @NonNull String stockIndex) {
+        return positions.getOrDefault(stockIndex, 0L);
+    }
+
+    /**
+     * @return part of the position which is not offered by resting asks.
+     */
+    public long getAvailablePosition(final @NotNull @NonNull String stockIndex) {
+        return getPosition(stockIndex) - reservedPositions.getOrDefault(stockIndex, 0L);
+    }
+
+    void reservePosition(final @NotNull @NonNull String stockIndex, final long amount) {
+        reservedPositions.merge(stockIndex, amount, (reserved, added) -> (reserved + added == 0) ? null : reserved + added);
+    }
+}
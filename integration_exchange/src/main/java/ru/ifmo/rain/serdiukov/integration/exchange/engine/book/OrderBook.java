@@ -0,0 +1,429 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine.book;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Resting limit orders of a single stock, matched by price-time priority. The book is not thread-safe, it is only used
+ * by the lane that owns the stock.
+ * <p>
+ * Orders are kept in pooled slots of parallel primitive arrays and are linked into a FIFO queue per price level.
+ * Price levels of each side are sorted arrays with the best price last, so that the best level is reached and removed
+ * in constant time. Placing, matching and cancelling allocate nothing once the arrays have grown to the size of the book.
+ *
+ * @param <T> owner of an order, it is handed back when the order is filled.
+ */
+public class OrderBook<T> {
+    private static final int NONE = -1;
+
+    private final @NotNull @NonNull Levels bids = new Levels(true);
+    private final @NotNull @NonNull Levels asks = new Levels(false);
+    private final @NotNull @NonNull SlotIndex slots;
+    private long[] orderIds;
+    private long[] prices;
+    private long[] remaining;
+    private boolean[] buys;
+    private Object[] owners;
+    // Next and previous order of the same level, next also links the free slots
+    private int[] next;
+    private int[] previous;
+    private int freeSlot = NONE;
+    private int usedSlots;
+    private int size;
+
+    public OrderBook() {
+        this(16);
+    }
+
+    public OrderBook(final int expectedOrders) {
+        final int capacity = Math.max(expectedOrders, 16);
+        this.slots = new SlotIndex(capacity);
+        this.orderIds = new long[capacity];
+        this.prices = new long[capacity];
+        this.remaining = new long[capacity];
+        this.buys = new boolean[capacity];
+        this.owners = new Object[capacity];
+        this.next = new int[capacity];
+        this.previous = new int[capacity];
+    }
+
+    /**
+     * Receives every fill of an incoming order, in the order they happen.
+     */
+    @FunctionalInterface
+    public interface FillHandler<T> {
+        /**
+         * @param makerOrderId resting order which has been filled, it is removed from the book once its remaining amount is zero.
+         * @param price        price of the resting order, the fill is executed at it.
+         */
+        void fill(long makerOrderId, @NotNull @NonNull T maker, long price, long amount, long makerRemaining);
+    }
+
+    @FunctionalInterface
+    public interface LevelConsumer {
+        void accept(long price, long amount, int orders);
+    }
+
+    @FunctionalInterface
+    public interface OrderConsumer<T> {
+        void accept(long orderId, boolean buy, long price, long remaining, @NotNull @NonNull T owner);
+    }
+
+    /**
+     * Matches the order against the opposite side of the book while prices cross, the rest of it is left resting.
+     *
+     * @param orderId positive and unique within the book.
+     * @return amount left resting in the book, zero when the order has been filled completely.
+     */
+    public long place(final long orderId, final boolean buy, final long price, final long amount, final @NotNull @NonNull T owner, final @NotNull @NonNull FillHandler<T> fills) {
+        if (orderId <= 0) {
+            throw new IllegalArgumentException("Order id should be positive");
+        }
+        if (price <= 0 || amount <= 0) {
+            throw new IllegalArgumentException("Order price and amount should be positive");
+        }
+        if (slots.get(orderId) != NONE) {
+            throw new IllegalArgumentException(String.format("Order %d is already in the book", orderId));
+        }
+        final long left = match(buy, price, amount, fills);
+        if (left > 0) {
+            rest(orderId, buy, price, left, owner);
+        }
+        return left;
+    }
+
+    /**
+     * Adds the order without matching it, used to restore a book in which no prices cross.
+     */
+    public void restore(final long orderId, final boolean buy, final long price, final long amount, final @NotNull @NonNull T owner) {
+        if (slots.get(orderId) != NONE) {
+            throw new IllegalArgumentException(String.format("Order %d is already in the book", orderId));
+        }
+        rest(orderId, buy, price, amount, owner);
+    }
+
+    /**
+     * @return remaining amount of the cancelled order, zero when there is no such order.
+     */
+    public long cancel(final long orderId) {
+        final int slot = slots.get(orderId);
+        if (slot == NONE) {
+            return 0;
+        }
+        final long left = remaining[slot];
+        final Levels levels = buys[slot] ? bids : asks;
+        final int level = levels.find(prices[slot]);
+        levels.amounts[level] -= left;
+        unlink(levels, level, slot);
+        return left;
+    }
+
+    public boolean contains(final long orderId) {
+        return slots.get(orderId) != NONE;
+    }
+
+    @SuppressWarnings("unchecked")
+    public @NotNull @NonNull T getOwner(final long orderId) {
+        return (T) owners[slot(orderId)];
+    }
+
+    public boolean isBuy(final long orderId) {
+        return buys[slot(orderId)];
+    }
+
+    public long getPrice(final long orderId) {
+        return prices[slot(orderId)];
+    }
+
+    public long getRemaining(final long orderId) {
+        return remaining[slot(orderId)];
+    }
+
+    /**
+     * @return the highest bid or the lowest ask, zero when that side is empty.
+     */
+    public long getBestPrice(final boolean buy) {
+        final Levels levels = buy ? bids : asks;
+        return (levels.size == 0) ? 0 : levels.price(levels.size - 1);
+    }
+
+    /**
+     * @return number of resting orders.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Visits at most {@code depth} price levels of one side, best first.
+     */
+    public void forEachLevel(final boolean buy, final int depth, final @NotNull @NonNull LevelConsumer consumer) {
+        final Levels levels = buy ? bids : asks;
+        for (int level = levels.size - 1; level >= Math.max(0, levels.size - depth); level--) {
+            consumer.accept(levels.price(level), levels.amounts[level], levels.counts[level]);
+        }
+    }
+
+    /**
+     * Visits all resting orders, those of a price level in time priority, so that restoring them in this order keeps it.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachOrder(final @NotNull @NonNull OrderConsumer<T> consumer) {
+        for (final Levels levels : new Levels[]{bids, asks}) {
+            for (int level = levels.size - 1; level >= 0; level--) {
+                for (int slot = levels.heads[level]; slot != NONE; slot = next[slot]) {
+                    consumer.accept(orderIds[slot], buys[slot], prices[slot], remaining[slot], (T) owners[slot]);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private long match(final boolean buy, final long limit, final long amount, final @NotNull @NonNull FillHandler<T> fills) {
+        final Levels opposite = buy ? asks : bids;
+        long left = amount;
+        while (left > 0 && opposite.size > 0) {
+            final int level = opposite.size - 1;
+            final long price = opposite.price(level);
+            if (buy ? price > limit : price < limit) {
+                break;
+            }
+            // The level is removed together with its last order, so the loop checks the next best one
+            while (left > 0 && opposite.size - 1 == level) {
+                final int slot = opposite.heads[level];
+                final long filled = Math.min(left, remaining[slot]);
+                left -= filled;
+                remaining[slot] -= filled;
+                opposite.amounts[level] -= filled;
+                final long makerOrderId = orderIds[slot];
+                final T maker = (T) owners[slot];
+                final long makerRemaining = remaining[slot];
+                if (makerRemaining == 0) {
+                    unlink(opposite, level, slot);
+                }
+                fills.fill(makerOrderId, maker, price, filled, makerRemaining);
+            }
+        }
+        return left;
+    }
+
+    private void rest(final long orderId, final boolean buy, final long price, final long amount, final @NotNull @NonNull T owner) {
+        final int slot = allocate();
+        orderIds[slot] = orderId;
+        prices[slot] = price;
+        remaining[slot] = amount;
+        buys[slot] = buy;
+        owners[slot] = owner;
+        next[slot] = NONE;
+        final Levels levels = buy ? bids : asks;
+        int level = levels.find(price);
+        if (level < 0) {
+            level = levels.insert(-level - 1, price);
+        }
+        final int tail = levels.tails[level];
+        previous[slot] = tail;
+        if (tail == NONE) {
+            levels.heads[level] = slot;
+        } else {
+            next[tail] = slot;
+        }
+        levels.tails[level] = slot;
+        levels.amounts[level] += amount;
+        levels.counts[level]++;
+        slots.put(orderId, slot);
+        size++;
+    }
+
+    private void unlink(final @NotNull @NonNull Levels levels, final int level, final int slot) {
+        final int before = previous[slot];
+        final int after = next[slot];
+        if (before == NONE) {
+            levels.heads[level] = after;
+        } else {
+            next[before] = after;
+        }
+        if (after == NONE) {
+            levels.tails[level] = before;
+        } else {
+            previous[after] = before;
+        }
+        if (--levels.counts[level] == 0) {
+            levels.remove(level);
+        }
+        slots.remove(orderIds[slot]);
+        owners[slot] = null;
+        next[slot] = freeSlot;
+        freeSlot = slot;
+        size--;
+    }
+
+    private int allocate() {
+        if (freeSlot != NONE) {
+            final int slot = freeSlot;
+            freeSlot = next[slot];
+            return slot;
+        }
+        if (usedSlots == orderIds.length) {
+            final int capacity = orderIds.length * 2;
+            orderIds = Arrays.copyOf(orderIds, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            remaining = Arrays.copyOf(remaining, capacity);
+            buys = Arrays.copyOf(buys, capacity);
+            owners = Arrays.copyOf(owners, capacity);
+            next = Arrays.copyOf(next, capacity);
+            previous = Arrays.copyOf(previous, capacity);
+        }
+        return usedSlots++;
+    }
+
+    private int slot(final long orderId) {
+        final int slot = slots.get(orderId);
+        if (slot == NONE) {
+            throw new IllegalArgumentException(String.format("Order %d is not in the book", orderId));
+        }
+        return slot;
+    }
+
+    /**
+     * Price levels of one side, sorted by key with the best price last. Keys are prices for bids and negated prices
+     * for asks, so that both sides are sorted ascending.
+     */
+    private static final class Levels {
+        private final boolean bids;
+        private long[] keys = new long[16];
+        private int[] heads = new int[16];
+        private int[] tails = new int[16];
+        private long[] amounts = new long[16];
+        private int[] counts = new int[16];
+        private int size;
+
+        private Levels(final boolean bids) {
+            this.bids = bids;
+        }
+
+        private long price(final int level) {
+            return bids ? keys[level] : -keys[level];
+        }
+
+        /**
+         * @return level of the price, or {@code -(insertion point) - 1} when there is none.
+         */
+        private int find(final long price) {
+            return Arrays.binarySearch(keys, 0, size, bids ? price : -price);
+        }
+
+        private int insert(final int level, final long price) {
+            if (size == keys.length) {
+                final int capacity = keys.length * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                heads = Arrays.copyOf(heads, capacity);
+                tails = Arrays.copyOf(tails, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            final int moved = size - level;
+            System.arraycopy(keys, level, keys, level + 1, moved);
+            System.arraycopy(heads, level, heads, level + 1, moved);
+            System.arraycopy(tails, level, tails, level + 1, moved);
+            System.arraycopy(amounts, level, amounts, level + 1, moved);
+            System.arraycopy(counts, level, counts, level + 1, moved);
+            keys[level] = bids ? price : -price;
+            heads[level] = NONE;
+            tails[level] = NONE;
+            amounts[level] = 0;
+            counts[level] = 0;
+            size++;
+            return level;
+        }
+
+        private void remove(final int level) {
+            final int moved = size - level - 1;
+            System.arraycopy(keys, level + 1, keys, level, moved);
+            System.arraycopy(heads, level + 1, heads, level, moved);
+            System.arraycopy(tails, level + 1, tails, level, moved);
+            System.arraycopy(amounts, level + 1, amounts, level, moved);
+            System.arraycopy(counts, level + 1, counts, level, moved);
+            size--;
+        }
+    }
+
+    /**
+     * Open addressing map from order id to its slot, zero marks an empty cell as order ids are positive.
+     */
+    private static final class SlotIndex {
+        private long[] keys;
+        private int[] values;
+        private int mask;
+        private int size;
+
+        private SlotIndex(final int expected) {
+            final int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+            this.keys = new long[capacity];
+            this.values = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private int get(final long key) {
+            for (int cell = cell(key); keys[cell] != 0; cell = (cell + 1) & mask) {
+                if (keys[cell] == key) {
+                    return values[cell];
+                }
+            }
+            return NONE;
+        }
+
+        private void put(final long key, final int value) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int cell = cell(key);
+            while (keys[cell] != 0) {
+                cell = (cell + 1) & mask;
+            }
+            keys[cell] = key;
+            values[cell] = value;
+            size++;
+        }
+
+        private void remove(final long key) {
+            int cell = cell(key);
+            while (keys[cell] != key) {
+                cell = (cell + 1) & mask;
+            }
+            // Moves back the following entries of the probe run, so that lookups never stop at the emptied cell
+            int empty = cell;
+            for (cell = (cell + 1) & mask; keys[cell] != 0; cell = (cell + 1) & mask) {
+                final int home = cell(keys[cell]);
+                if (((cell - home) & mask) >= ((cell - empty) & mask)) {
+                    keys[empty] = keys[cell];
+                    values[empty] = values[cell];
+                    empty = cell;
+                }
+            }
+            keys[empty] = 0;
+            size--;
+        }
+
+        private void grow() {
+            final long[] oldKeys = keys;
+            final int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            mask = keys.length - 1;
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private int cell(final long key) {
+            // Order ids are sequential, mixing spreads them over the whole table
+            final long mixed = key * 0x9E3779B97F4A7C15L;
+            return (int) (mixed ^ (mixed >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine.journal;
+
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact copy of the whole engine state, consistent with the journal up to {@link #sequence} inclusive.
+ */
+@Data
+public class EngineSnapshot {
+    private final long sequence;
+    /**
+     * Epoch of the journal, which the database written back from it carries as its {@code EngineWatermark}.
+     */
+    private final long epoch;
+    private final @NotNull @NonNull List<StockEntry> stocks;
+    private final @NotNull @NonNull List<UserEntry> users;
+    /**
+     * Resting limit orders, those of a stock in the order they should be restored in to keep time priority.
+     */
+    private final @NotNull @NonNull List<OrderEntry> orders;
+
+    /**
+     * @param version of the stock, so that quotes published after a restart keep growing their sequence.
+     */
+    public record StockEntry(long id, @NotNull @NonNull String index, @NotNull @NonNull String name, long price, long availableAmount, long version) {
+    }
+
+    /**
+     * @param balance includes the money reserved by resting bids.
+     */
+    public record UserEntry(long id, @NotNull @NonNull String login, @NotNull @NonNull String name, long balance, @NotNull @NonNull Map<String, Long> positions) {
+    }
+
+    public record OrderEntry(long id, @NotNull @NonNull String index, @NotNull @NonNull String login, boolean buy, long price, long remaining) {
+    }
+}
@@ -0,0 +1,40 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine.journal;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Single state change of the engine. Fields that do not apply to the record type are left empty:
+ * <ul>
+ *     <li>{@code CREATE_USER}: id, login, name, amount (balance)</li>
+ *     <li>{@code CREATE_STOCK}: id, index, name, price, amount (available amount)</li>
+ *     <li>{@code TOP_UP}: login, amount</li>
+ *     <li>{@code UPDATE_PRICE}: index, price</li>
+ *     <li>{@code INCREASE_AMOUNT}: index, amount</li>
+ *     <li>{@code BUY}, {@code SELL}: login, index, amount, price at which the trade was executed</li>
+ *     <li>{@code BID}, {@code ASK}: id (order id), login, index, amount, limit price; fills are replayed by matching the order again</li>
+ *     <li>{@code CANCEL_ORDER}: id (order id), index</li>
+ *     <li>{@code BATCH}: records ({@code BUY} and {@code SELL} records of an all-or-nothing batch, which are replayed together)</li>
+ * </ul>
+ */
+@Data
+@Builder
+public class JournalRecord {
+    private final long sequence;
+    private final @NotNull @NonNull JournalRecordType type;
+    private final long id;
+    @Builder.Default
+    private final @NotNull @NonNull String login = "";
+    @Builder.Default
+    private final @NotNull @NonNull String index = "";
+    @Builder.Default
+    private final @NotNull @NonNull String name = "";
+    private final long amount;
+    private final long price;
+    @Builder.Default
+    private final @NotNull @NonNull List<JournalRecord> records = List.of();
+}
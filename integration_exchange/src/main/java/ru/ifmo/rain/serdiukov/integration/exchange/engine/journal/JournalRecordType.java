@@ -0,0 +1,15 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine.journal;
+
+public enum JournalRecordType {
+    CREATE_USER,
+    CREATE_STOCK,
+    TOP_UP,
+    UPDATE_PRICE,
+    INCREASE_AMOUNT,
+    BUY,
+    SELL,
+    BID,
+    ASK,
+    CANCEL_ORDER,
+    BATCH
+}
@@ -0,0 +1,396 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine.journal;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of engine state changes, stored in memory-mapped segment files.
+ * <p>
+ * Every record is written as {@code [int length][int crc][body]}; a zero length marks the end of a segment.
+ * Replay stops at the first torn or corrupted record, and the journal is cut there when it is opened again.
+ * Appending only copies the record into the mapped segment, a background thread forces all records appended since
+ * its previous run to the disk with one call and then completes their futures (group commit).
+ */
+@Slf4j
+public class OperationJournal implements AutoCloseable {
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final @NotNull @NonNull Path directory;
+    private final int segmentSize;
+    private final long groupCommitNanos;
+    private final @NotNull @NonNull ByteBuffer scratch = ByteBuffer.allocate(64 * 1024);
+    private final @NotNull @NonNull CRC32 crc = new CRC32();
+    private final @NotNull @NonNull ArrayDeque<PendingRecord> pending = new ArrayDeque<>();
+    private final @NotNull @NonNull Object lock = new Object();
+    // Where replay has found the first torn or corrupted record
+    private Path tornSegment;
+    private int tornOffset;
+    private MappedByteBuffer segment;
+    private long lastSequence;
+    private MappedByteBuffer forcedSegment;
+    private int forcedPosition;
+    private volatile boolean running;
+    private Thread flusher;
+
+    public OperationJournal(final @NotNull @NonNull Path directory, final int segmentSize, final @NotNull @NonNull Duration groupCommitWindow) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.groupCommitNanos = groupCommitWindow.toNanos();
+    }
+
+    public boolean isEmpty() {
+        return segments().isEmpty();
+    }
+
+    /**
+     * Reads all valid records with sequence greater than {@code afterSequence}. Nothing after the first torn or corrupted record
+     * is read, not even later segments, so that no record is applied after a gap.
+     *
+     * @return sequence of the last valid record, or {@code afterSequence} if there were none
+     */
+    public long replay(final long afterSequence, final @NotNull @NonNull Consumer<JournalRecord> consumer) {
+        long last = afterSequence;
+        for (final Path file : segments()) {
+            try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= HEADER_SIZE) {
+                    final int offset = buffer.position();
+                    final int length = buffer.getInt();
+                    final int checksum = buffer.getInt();
+                    if (length == 0) {
+                        break;
+                    }
+                    boolean valid = length > 0 && length <= buffer.remaining();
+                    if (valid) {
+                        crc.reset();
+                        crc.update(buffer.slice(buffer.position(), length));
+                        valid = (int) crc.getValue() == checksum;
+                    }
+                    if (!valid) {
+                        log.warn("Journal segment {} has a torn record at offset {}, ignoring the rest of the journal", file, offset);
+                        tornSegment = file;
+                        tornOffset = offset;
+                        return last;
+                    }
+                    final ByteBuffer body = buffer.slice(buffer.position(), length);
+                    buffer.position(buffer.position() + length);
+                    final JournalRecord record = decode(body);
+                    if (record.getSequence() > last) {
+                        consumer.accept(record);
+                        last = record.getSequence();
+                    }
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Cannot read journal segment " + file, e);
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Starts writing to a fresh segment; records appended from now on get sequences after {@code lastSequence}.
+     */
+    public void open(final long lastSequence) {
+        try {
+            Files.createDirectories(directory);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot create journal directory " + directory, e);
+        }
+        if (tornSegment != null) {
+            cutTornTail();
+        }
+        synchronized (lock) {
+            this.lastSequence = lastSequence;
+            this.segment = newSegment(lastSequence + 1);
+        }
+        running = true;
+        flusher = new Thread(this::flushLoop, "exchange-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public long getLastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    /**
+     * Appends the record, assigning it the next sequence number.
+     *
+     * @return future which completes once the record is on disk
+     */
+    public @NotNull @NonNull CompletableFuture<Void> append(final @NotNull @NonNull JournalRecord record) {
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+        synchronized (lock) {
+            if (!running) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            final long sequence = lastSequence + 1;
+            final ByteBuffer body = encode(sequence, record);
+            crc.reset();
+            crc.update(body.duplicate());
+            if (segment.remaining() < HEADER_SIZE + body.remaining() + HEADER_SIZE) {
+                segment.force();
+                segment = newSegment(sequence);
+            }
+            segment.putInt(body.remaining());
+            segment.putInt((int) crc.getValue());
+            segment.put(body);
+            lastSequence = sequence;
+            pending.addLast(new PendingRecord(sequence, durable));
+            if (pending.size() == 1) {
+                lock.notifyAll();
+            }
+        }
+        return durable;
+    }
+
+    /**
+     * Removes segments which only contain records up to {@code sequence} inclusive.
+     */
+    public void truncate(final long sequence) {
+        final List<Path> files = segments();
+        for (int i = 0; i + 1 < files.size(); i++) {
+            if (firstSequence(files.get(i + 1)) <= sequence + 1) {
+                try {
+                    Files.deleteIfExists(files.get(i));
+                } catch (final IOException e) {
+                    log.warn("Cannot remove journal segment {}", files.get(i), e);
+                }
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (running || hasPending()) {
+            final long target;
+            final MappedByteBuffer toForce;
+            final int from;
+            final int to;
+            synchronized (lock) {
+                while (running && pending.isEmpty()) {
+                    try {
+                        lock.wait();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+            }
+            if (groupCommitNanos > 0) {
+                // Give concurrent writers a chance to join this commit
+                LockSupport.parkNanos(groupCommitNanos);
+            }
+            synchronized (lock) {
+                target = lastSequence;
+                toForce = segment;
+                to = segment.position();
+                from = (toForce == forcedSegment) ? forcedPosition : 0;
+            }
+            toForce.force(from, to - from);
+            final List<PendingRecord> completed = new ArrayList<>();
+            synchronized (lock) {
+                forcedSegment = toForce;
+                forcedPosition = to;
+                while (!pending.isEmpty() && pending.peekFirst().sequence() <= target) {
+                    completed.add(pending.pollFirst());
+                }
+            }
+            completed.forEach(p -> p.durable().complete(null));
+        }
+    }
+
+    private boolean hasPending() {
+        synchronized (lock) {
+            return !pending.isEmpty();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (final InterruptedException e) {
+            // Records the flusher has not completed yet are still forced below, only their futures stay incomplete
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Ends the segment at the record replay has stopped at and removes the segments after it,
+     * so that they are not read once new records follow the replayed ones.
+     */
+    private void cutTornTail() {
+        try (final FileChannel channel = FileChannel.open(tornSegment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(HEADER_SIZE), tornOffset);
+            channel.force(false);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot cut journal segment " + tornSegment, e);
+        }
+        for (final Path file : segments()) {
+            if (file.compareTo(tornSegment) > 0) {
+                log.warn("Removing journal segment {} which follows a torn record", file);
+                try {
+                    Files.delete(file);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException("Cannot remove journal segment " + file, e);
+                }
+            }
+        }
+        tornSegment = null;
+    }
+
+    /**
+     * Encodes the record into the scratch buffer, or into a larger one if it does not fit there.
+     *
+     * @return buffer holding the body of the record, ready to be read
+     */
+    private @NotNull @NonNull ByteBuffer encode(final long sequence, final @NotNull @NonNull JournalRecord record) {
+        final int maxBodySize = segmentSize - 2 * HEADER_SIZE;
+        ByteBuffer buffer = scratch;
+        while (true) {
+            buffer.clear();
+            try {
+                encode(sequence, record, buffer);
+                return buffer.flip();
+            } catch (final BufferOverflowException e) {
+                if (buffer.capacity() >= maxBodySize) {
+                    throw new IllegalArgumentException(String.format("%s record does not fit into a journal segment of %d bytes", record.getType(), segmentSize));
+                }
+                buffer = ByteBuffer.allocate((int) Math.min(2L * buffer.capacity(), maxBodySize));
+            }
+        }
+    }
+
+    private @NotNull @NonNull MappedByteBuffer newSegment(final long firstSequence) {
+        final Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot create journal segment " + file, e);
+        }
+    }
+
+    private @NotNull @NonNull List<Path> segments() {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(f -> f.getFileName().toString().startsWith(SEGMENT_PREFIX) && f.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot list journal directory " + directory, e);
+        }
+    }
+
+    private static long firstSequence(final @NotNull @NonNull Path segment) {
+        final String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void encode(final long sequence, final @NotNull @NonNull JournalRecord record, final @NotNull @NonNull ByteBuffer buffer) {
+        buffer.putLong(sequence);
+        encodeBody(record, buffer);
+    }
+
+    /**
+     * Records of a batch follow its fields, each without a sequence of its own.
+     */
+    private static void encodeBody(final @NotNull @NonNull JournalRecord record, final @NotNull @NonNull ByteBuffer buffer) {
+        buffer.put((byte) record.getType().ordinal());
+        buffer.putLong(record.getId());
+        buffer.putLong(record.getAmount());
+        buffer.putLong(record.getPrice());
+        putString(buffer, record.getLogin());
+        putString(buffer, record.getIndex());
+        putString(buffer, record.getName());
+        if (record.getType() == JournalRecordType.BATCH) {
+            buffer.putInt(record.getRecords().size());
+            record.getRecords().forEach(batched -> encodeBody(batched, buffer));
+        }
+    }
+
+    private static @NotNull @NonNull JournalRecord decode(final @NotNull @NonNull ByteBuffer buffer) {
+        return decodeBody(buffer.getLong(), buffer);
+    }
+
+    private static @NotNull @NonNull JournalRecord decodeBody(final long sequence, final @NotNull @NonNull ByteBuffer buffer) {
+        final JournalRecordType type = JournalRecordType.values()[buffer.get()];
+        final JournalRecord.JournalRecordBuilder record = JournalRecord
+                .builder()
+                .sequence(sequence)
+                .type(type)
+                .id(buffer.getLong())
+                .amount(buffer.getLong())
+                .price(buffer.getLong())
+                .login(getString(buffer))
+                .index(getString(buffer))
+                .name(getString(buffer));
+        if (type == JournalRecordType.BATCH) {
+            final int count = buffer.getInt();
+            final List<JournalRecord> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                records.add(decodeBody(sequence, buffer));
+            }
+            record.records(records);
+        }
+        return record.build();
+    }
+
+    private static void putString(final @NotNull @NonNull ByteBuffer buffer, final @NotNull @NonNull String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Value is too long to be journaled: " + value.substring(0, 32) + "...");
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static @NotNull @NonNull String getString(final @NotNull @NonNull ByteBuffer buffer) {
+        final byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private record PendingRecord(long sequence, @NotNull @NonNull CompletableFuture<Void> durable) {
+    }
+}
@@ -0,0 +1,151 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine.journal;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Stores engine snapshots as {@code snapshot-<sequence>.bin} files next to the journal, only the latest one is kept.
+ */
+@Slf4j
+public class SnapshotStore {
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    private static final int MAGIC = 0x45584348;
+    // Version 1 had no resting orders, version 2 had no versions of stocks, version 3 had no epoch
+    private static final int FORMAT_VERSION = 4;
+
+    private final @NotNull @NonNull Path directory;
+
+    public SnapshotStore(final @NotNull @NonNull Path directory) {
+        this.directory = directory;
+    }
+
+    public @NotNull @NonNull Optional<EngineSnapshot> loadLatest() {
+        final List<Path> files = snapshots();
+        if (files.isEmpty()) {
+            return Optional.empty();
+        }
+        final Path latest = files.get(files.size() - 1);
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(latest)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Unknown snapshot format");
+            }
+            final int version = in.readInt();
+            if (version < 1 || version > FORMAT_VERSION) {
+                throw new IOException("Unknown snapshot format version " + version);
+            }
+            final long sequence = in.readLong();
+            final long epoch = (version >= 4) ? in.readLong() : 0;
+            final int stockCount = in.readInt();
+            final List<EngineSnapshot.StockEntry> stocks = new ArrayList<>(stockCount);
+            for (int i = 0; i < stockCount; i++) {
+                stocks.add(new EngineSnapshot.StockEntry(in.readLong(), in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), (version >= 3) ? in.readLong() : 0));
+            }
+            final int userCount = in.readInt();
+            final List<EngineSnapshot.UserEntry> users = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                final long id = in.readLong();
+                final String login = in.readUTF();
+                final String name = in.readUTF();
+                final long balance = in.readLong();
+                final int positionCount = in.readInt();
+                final Map<String, Long> positions = new HashMap<>();
+                for (int j = 0; j < positionCount; j++) {
+                    positions.put(in.readUTF(), in.readLong());
+                }
+                users.add(new EngineSnapshot.UserEntry(id, login, name, balance, positions));
+            }
+            final int orderCount = (version >= 2) ? in.readInt() : 0;
+            final List<EngineSnapshot.OrderEntry> orders = new ArrayList<>(orderCount);
+            for (int i = 0; i < orderCount; i++) {
+                orders.add(new EngineSnapshot.OrderEntry(in.readLong(), in.readUTF(), in.readUTF(), in.readBoolean(), in.readLong(), in.readLong()));
+            }
+            return Optional.of(new EngineSnapshot(sequence, epoch, stocks, users, orders));
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot read snapshot " + latest, e);
+        }
+    }
+
+    public void save(final @NotNull @NonNull EngineSnapshot snapshot) {
+        final Path target = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, snapshot.getSequence(), SNAPSHOT_SUFFIX));
+        final Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(snapshot.getSequence());
+                out.writeLong(snapshot.getEpoch());
+                out.writeInt(snapshot.getStocks().size());
+                for (final EngineSnapshot.StockEntry stock : snapshot.getStocks()) {
+                    out.writeLong(stock.id());
+                    out.writeUTF(stock.index());
+                    out.writeUTF(stock.name());
+                    out.writeLong(stock.price());
+                    out.writeLong(stock.availableAmount());
+                    out.writeLong(stock.version());
+                }
+                out.writeInt(snapshot.getUsers().size());
+                for (final EngineSnapshot.UserEntry user : snapshot.getUsers()) {
+                    out.writeLong(user.id());
+                    out.writeUTF(user.login());
+                    out.writeUTF(user.name());
+                    out.writeLong(user.balance());
+                    out.writeInt(user.positions().size());
+                    for (final Map.Entry<String, Long> position : user.positions().entrySet()) {
+                        out.writeUTF(position.getKey());
+                        out.writeLong(position.getValue());
+                    }
+                }
+                out.writeInt(snapshot.getOrders().size());
+                for (final EngineSnapshot.OrderEntry order : snapshot.getOrders()) {
+                    out.writeLong(order.id());
+                    out.writeUTF(order.index());
+                    out.writeUTF(order.login());
+                    out.writeBoolean(order.buy());
+                    out.writeLong(order.price());
+                    out.writeLong(order.remaining());
+                }
+            }
+            try (final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot write snapshot " + target, e);
+        }
+        for (final Path older : snapshots()) {
+            if (!older.equals(target)) {
+                try {
+                    Files.deleteIfExists(older);
+                } catch (final IOException e) {
+                    log.warn("Cannot remove old snapshot {}", older, e);
+                }
+            }
+        }
+    }
+
+    private @NotNull @NonNull List<Path> snapshots() {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files
+                    .filter(f -> f.getFileName().toString().startsWith(SNAPSHOT_PREFIX) && f.getFileName().toString().endsWith(SNAPSHOT_SUFFIX))
+                    .sorted()
+                    .toList();
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot list snapshot directory " + directory, e);
+        }
+    }
+}
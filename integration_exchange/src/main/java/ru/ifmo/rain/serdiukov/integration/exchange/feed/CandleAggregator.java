@@ -0,0 +1,96 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.feed;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.CandleDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.CandlesDTO;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maintains open, high, low, close and volume bars of every stock at all {@link CandleResolution resolutions}
+ * from committed trades and price updates, so charts are served from memory without reading the trade history.
+ * Bars are not persisted, they start over after a restart.
+ */
+@Component
+public class CandleAggregator {
+    private static final int MAX_CANDLES = 1000;
+
+    private final @NotNull @NonNull CandleProperties properties;
+    private final @NotNull @NonNull ConcurrentMap<String, StockCandles> stocks = new ConcurrentHashMap<>();
+
+    public CandleAggregator(final @NotNull @NonNull CandleProperties properties) {
+        this.properties = properties;
+    }
+
+    public void trade(final @NotNull @NonNull String index, final long price, final long amount) {
+        tick(index, price, amount);
+    }
+
+    public void priceUpdated(final @NotNull @NonNull String index, final long price) {
+        tick(index, price, 0);
+    }
+
+    private void tick(final @NotNull @NonNull String index, final long price, final long volume) {
+        final StockCandles candles = stocks.computeIfAbsent(index, i -> new StockCandles(properties));
+        synchronized (candles) {
+            // Ticks of a stock may come from several threads, they never go back so that bars stay ordered
+            candles.lastMillis = Math.max(candles.lastMillis, System.currentTimeMillis());
+            for (final CandleResolution resolution : CandleResolution.values()) {
+                candles.series[resolution.ordinal()].tick(Math.floorDiv(candles.lastMillis, resolution.getMillis()), price, volume);
+            }
+        }
+    }
+
+    /**
+     * @param from {@code null} for no lower bound, otherwise the bar containing it is the first one
+     * @param to   {@code null} for no upper bound, otherwise bars starting at it or later are not returned
+     * @return at most {@code limit} latest bars of the range
+     */
+    public @NotNull @NonNull CandlesDTO find(final @NotNull @NonNull String index, final @NotNull @NonNull CandleResolution resolution, final Instant from, final Instant to, final int limit) {
+        if (limit <= 0 || limit > MAX_CANDLES) {
+            throw new IllegalArgumentException(String.format("Limit should be between 1 and %d", MAX_CANDLES));
+        }
+        final long millis = resolution.getMillis();
+        final long fromStart = (from != null) ? Math.floorDiv(epochMillis(from), millis) : Long.MIN_VALUE;
+        final long toStart = (to != null) ? -Math.floorDiv(-epochMillis(to), millis) : Long.MAX_VALUE;
+        final StockCandles candles = stocks.get(index);
+        final List<CandleDTO> found;
+        if (candles == null) {
+            found = List.of();
+        } else {
+            synchronized (candles) {
+                found = candles.series[resolution.ordinal()].find(fromStart, toStart, limit, millis);
+            }
+        }
+        return CandlesDTO
+                .builder()
+                .index(index)
+                .resolution(resolution.getName())
+                .candles(found)
+                .build();
+    }
+
+    private static long epochMillis(final @NotNull @NonNull Instant instant) {
+        try {
+            return instant.toEpochMilli();
+        } catch (final ArithmeticException e) {
+            throw new IllegalArgumentException("Time is out of range: " + instant, e);
+        }
+    }
+
+    private static final class StockCandles {
+        private final @NotNull @NonNull CandleSeries[] series = new CandleSeries[CandleResolution.values().length];
+        private long lastMillis;
+
+        private StockCandles(final @NotNull @NonNull CandleProperties properties) {
+            series[CandleResolution.SECOND.ordinal()] = new CandleSeries(properties.getSecondBars());
+            series[CandleResolution.MINUTE.ordinal()] = new CandleSeries(properties.getMinuteBars());
+            series[CandleResolution.HOUR.ordinal()] = new CandleSeries(properties.getHourBars());
+        }
+    }
+}
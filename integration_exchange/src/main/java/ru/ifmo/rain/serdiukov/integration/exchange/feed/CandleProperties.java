@@ -0,0 +1,18 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.feed;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "exchange.candles")
+public class CandleProperties {
+    /**
+     * Number of the latest bars kept for every stock at each resolution, older ones are overwritten.
+     * Buffers start small and grow up to these sizes, 48 bytes per bar.
+     */
+    private int secondBars = 900;
+
+    private int minuteBars = 1440;
+
+    private int hourBars = 720;
+}
@@ -0,0 +1,35 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.feed;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+public enum CandleResolution {
+    SECOND("1s", 1000),
+    MINUTE("1m", 60 * 1000),
+    HOUR("1h", 60 * 60 * 1000);
+
+    private final @NotNull @NonNull String name;
+    private final long millis;
+
+    CandleResolution(final @NotNull @NonNull String name, final long millis) {
+        this.name = name;
+        this.millis = millis;
+    }
+
+    public @NotNull @NonNull String getName() {
+        return name;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public static @NotNull @NonNull CandleResolution parse(final @NotNull @NonNull String name) {
+        return Arrays.stream(values())
+                .filter(resolution -> resolution.name.equals(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(String.format("Unknown resolution %s, should be one of 1s, 1m and 1h", name)));
+    }
+}
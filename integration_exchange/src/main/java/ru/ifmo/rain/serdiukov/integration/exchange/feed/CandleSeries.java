@@ -0,0 +1,137 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.feed;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.CandleDTO;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bars of one stock at one resolution, kept in a ring of primitive arrays ordered by their start.
+ * The ring grows up to its capacity and then overwrites the oldest bar. Not thread-safe.
+ */
+final class CandleSeries {
+    private static final int INITIAL_SIZE = 16;
+
+    private final int capacity;
+    // Start of a bar is the number of whole resolution periods since the epoch
+    private long[] starts;
+    private long[] opens;
+    private long[] highs;
+    private long[] lows;
+    private long[] closes;
+    private long[] volumes;
+    private int head;
+    private int size;
+
+    CandleSeries(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Number of bars should be positive");
+        }
+        this.capacity = capacity;
+        allocate(Math.min(capacity, INITIAL_SIZE));
+    }
+
+    private void allocate(final int length) {
+        starts = new long[length];
+        opens = new long[length];
+        highs = new long[length];
+        lows = new long[length];
+        closes = new long[length];
+        volumes = new long[length];
+    }
+
+    /**
+     * Adds a tick to the bar starting at {@code start}; ticks have to come in the order of their bars.
+     */
+    void tick(final long start, final long price, final long volume) {
+        if (size > 0) {
+            final int last = slot(size - 1);
+            if (starts[last] >= start) {
+                highs[last] = Math.max(highs[last], price);
+                lows[last] = Math.min(lows[last], price);
+                closes[last] = price;
+                volumes[last] += volume;
+                return;
+            }
+        }
+        if (size == starts.length) {
+            if (size < capacity) {
+                grow();
+            } else {
+                head = slot(1);
+                size--;
+            }
+        }
+        final int slot = slot(size++);
+        starts[slot] = start;
+        opens[slot] = price;
+        highs[slot] = price;
+        lows[slot] = price;
+        closes[slot] = price;
+        volumes[slot] = volume;
+    }
+
+    private int slot(final int position) {
+        final int slot = head + position;
+        return (slot < starts.length) ? slot : slot - starts.length;
+    }
+
+    private void grow() {
+        final long[][] columns = {starts, opens, highs, lows, closes, volumes};
+        final int length = (int) Math.min(capacity, 2L * starts.length);
+        final int wrapped = starts.length - head;
+        for (int i = 0; i < columns.length; i++) {
+            final long[] grown = Arrays.copyOfRange(columns[i], head, head + length);
+            System.arraycopy(columns[i], 0, grown, wrapped, head);
+            columns[i] = grown;
+        }
+        starts = columns[0];
+        opens = columns[1];
+        highs = columns[2];
+        lows = columns[3];
+        closes = columns[4];
+        volumes = columns[5];
+        head = 0;
+    }
+
+    /**
+     * @return at most {@code limit} latest bars starting in {@code [from, to)}, oldest first
+     */
+    @NotNull @NonNull List<CandleDTO> find(final long from, final long to, final int limit, final long millis) {
+        final int end = firstStartingAt(to);
+        final int begin = Math.max(firstStartingAt(from), end - limit);
+        final List<CandleDTO> candles = new ArrayList<>(Math.max(0, end - begin));
+        for (int position = begin; position < end; position++) {
+            final int slot = slot(position);
+            candles.add(CandleDTO
+                    .builder()
+                    .start(Instant.ofEpochMilli(starts[slot] * millis))
+                    .open(opens[slot])
+                    .high(highs[slot])
+                    .low(lows[slot])
+                    .close(closes[slot])
+                    .volume(volumes[slot])
+                    .build()
+            );
+        }
+        return candles;
+    }
+
+    private int firstStartingAt(final long start) {
+        int first = 0;
+        int last = size;
+        while (first < last) {
+            final int middle = (first + last) >>> 1;
+            if (starts[slot(middle)] < start) {
+                first = middle + 1;
+            } else {
+                last = middle;
+            }
+        }
+        return first;
+    }
+}
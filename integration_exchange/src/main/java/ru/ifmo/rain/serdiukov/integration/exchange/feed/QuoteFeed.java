@@ -0,0 +1,75 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.feed;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.QuoteDTO;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Pushes a quote of a stock to its subscribers after every committed change of its price or availability.
+ * The last quote of every stock is kept, so that a new subscriber starts from the current values.
+ */
+@Component
+public class QuoteFeed {
+    private final @NotNull @NonNull ConcurrentMap<String, QuoteDTO> last = new ConcurrentHashMap<>();
+    private final @NotNull @NonNull ConcurrentMap<String, Set<QuoteSubscription>> byIndex = new ConcurrentHashMap<>();
+    private final @NotNull @NonNull Set<QuoteSubscription> everything = ConcurrentHashMap.newKeySet();
+
+    public void publish(final @NotNull @NonNull Stock stock) {
+        final QuoteDTO quote = QuoteDTO.of(stock);
+        // Concurrent commits of the same stock may be published in any order, a stale quote is dropped here or by the subscription
+        if (last.merge(quote.getIndex(), quote, (current, added) -> (added.getSequence() > current.getSequence()) ? added : current) != quote) {
+            return;
+        }
+        offer(byIndex.getOrDefault(quote.getIndex(), Set.of()), quote);
+        offer(everything, quote);
+    }
+
+    private static void offer(final @NotNull @NonNull Collection<QuoteSubscription> subscriptions, final @NotNull @NonNull QuoteDTO quote) {
+        for (final QuoteSubscription subscription : subscriptions) {
+            subscription.offer(quote);
+        }
+    }
+
+    /**
+     * @param indices stocks to receive quotes of, all stocks when empty.
+     * @param loader  looks up the current state of a requested stock which has not changed since start.
+     * @throws java.util.NoSuchElementException when one of the requested stocks does not exist.
+     */
+    public @NotNull @NonNull QuoteSubscription subscribe(final @NotNull @NonNull Set<String> indices, final @NotNull @NonNull Function<String, Optional<Stock>> loader) {
+        for (final String index : indices) {
+            if (!last.containsKey(index)) {
+                publish(loader.apply(index).orElseThrow(() -> new NoSuchElementException("Cannot find stock with index = " + index)));
+            }
+        }
+        final QuoteSubscription subscription = new QuoteSubscription(indices, this::unsubscribe);
+        if (indices.isEmpty()) {
+            everything.add(subscription);
+        } else {
+            // Added inside compute, so that a concurrent unsubscribe does not drop the set it is added to
+            indices.forEach(index -> byIndex.compute(index, (i, subscriptions) -> {
+                final Set<QuoteSubscription> added = (subscriptions != null) ? subscriptions : ConcurrentHashMap.newKeySet();
+                added.add(subscription);
+                return added;
+            }));
+        }
+        // Registered first, so that a change published meanwhile is either seen here or offered afterwards
+        final Collection<QuoteDTO> current = indices.isEmpty() ? last.values() : indices.stream().map(last::get).filter(Objects::nonNull).toList();
+        current.forEach(subscription::offer);
+        return subscription;
+    }
+
+    private void unsubscribe(final @NotNull @NonNull QuoteSubscription subscription) {
+        everything.remove(subscription);
+        subscription.getIndices().forEach(index -> byIndex.computeIfPresent(index, (i, subscriptions) -> {
+            subscriptions.remove(subscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        }));
+    }
+}
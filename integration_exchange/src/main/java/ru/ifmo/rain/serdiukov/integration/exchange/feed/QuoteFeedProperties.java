@@ -0,0 +1,22 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.feed;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "exchange.quote-feed")
+public class QuoteFeedProperties {
+    /**
+     * Servlet event streams which may be open at once, further subscribers are answered with 503 Service Unavailable.
+     * Every stream is written by its own thread, a virtual one when {@code exchange.virtual-threads.enabled} is set,
+     * so a slow subscriber only delays itself; quotes published meanwhile are conflated.
+     */
+    private int maxStreams = 1024;
+
+    /**
+     * How long a servlet event stream stays open. Zero means until the subscriber disconnects.
+     */
+    private Duration streamTimeout = Duration.ZERO;
+}
@@ -0,0 +1,89 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.feed;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.QuoteDTO;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Quotes of a single subscriber which have not been delivered yet. At most one quote per stock is pending:
+ * a newer quote replaces the pending one, so a slow subscriber only misses intermediate values.
+ */
+public class QuoteSubscription implements AutoCloseable {
+    private final @NotNull @NonNull Set<String> indices;
+    private final @NotNull @NonNull Consumer<QuoteSubscription> onClose;
+    // Both guarded by this
+    private final @NotNull @NonNull Map<String, QuoteDTO> pending = new LinkedHashMap<>();
+    private final @NotNull @NonNull Map<String, Long> sequences = new HashMap<>();
+    private long conflated;
+    private volatile Runnable listener = () -> {
+    };
+
+    QuoteSubscription(final @NotNull @NonNull Set<String> indices, final @NotNull @NonNull Consumer<QuoteSubscription> onClose) {
+        this.indices = Set.copyOf(indices);
+        this.onClose = onClose;
+    }
+
+    /**
+     * @return indices of the stocks this subscription receives, all stocks when empty.
+     */
+    public @NotNull @NonNull Set<String> getIndices() {
+        return indices;
+    }
+
+    /**
+     * @param listener is called whenever quotes become pending after everything pending has been polled.
+     */
+    public void setListener(final @NotNull @NonNull Runnable listener) {
+        this.listener = listener;
+    }
+
+    void offer(final @NotNull @NonNull QuoteDTO quote) {
+        final boolean wasEmpty;
+        synchronized (this) {
+            final Long sequence = sequences.get(quote.getIndex());
+            if (sequence != null && sequence >= quote.getSequence()) {
+                return;
+            }
+            sequences.put(quote.getIndex(), quote.getSequence());
+            wasEmpty = pending.isEmpty();
+            if (pending.put(quote.getIndex(), quote) != null) {
+                conflated++;
+            }
+        }
+        if (wasEmpty) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Removes at most {@code limit} pending quotes, in the order in which their stocks have changed.
+     */
+    public synchronized @NotNull @NonNull List<QuoteDTO> poll(final int limit) {
+        final List<QuoteDTO> polled = new ArrayList<>(Math.min(limit, pending.size()));
+        final Iterator<QuoteDTO> it = pending.values().iterator();
+        while (it.hasNext() && polled.size() < limit) {
+            polled.add(it.next());
+            it.remove();
+        }
+        return polled;
+    }
+
+    public synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * @return how many quotes have been replaced by newer ones before they were polled.
+     */
+    public synchronized long getConflated() {
+        return conflated;
+    }
+
+    @Override
+    public void close() {
+        onClose.accept(this);
+    }
+}
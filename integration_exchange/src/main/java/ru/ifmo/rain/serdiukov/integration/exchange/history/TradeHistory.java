@@ -0,0 +1,229 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.history;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.TradeDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.TradeHistoryPageDTO;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static ru.ifmo.rain.serdiukov.integration.exchange.history.TradePartition.MILLIS_PER_DAY;
+
+/**
+ * Append-only log of executed trades, partitioned by UTC day. Only the partition of the current day is appended to,
+ * indexes of past partitions are loaded when they are queried and a few of them are kept in memory.
+ * <p>
+ * Trades are written to the files in the background and are not forced to the disk,
+ * so the last trades recorded before a crash may be missing from the history.
+ */
+@Slf4j
+@Component
+public class TradeHistory {
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final @NotNull @NonNull TradeHistoryProperties properties;
+    private final @NotNull @NonNull NavigableSet<Long> days = new ConcurrentSkipListSet<>();
+    private final @NotNull @NonNull Cache<Long, TradePartition> partitions;
+    private final @NotNull @NonNull Object lock = new Object();
+    private volatile TradePartition current;
+    private long lastMillis;
+    private ScheduledExecutorService flusher;
+
+    public TradeHistory(final @NotNull @NonNull TradeHistoryProperties properties) {
+        this.properties = properties;
+        this.partitions = Caffeine
+                .newBuilder()
+                .maximumSize(properties.getCachedPartitions())
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            Files.createDirectories(properties.getDirectory());
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot create trade history directory " + properties.getDirectory(), e);
+        }
+        days.addAll(TradePartition.list(properties.getDirectory()));
+        synchronized (lock) {
+            lastMillis = System.currentTimeMillis();
+            // The partition of today is appended to after a restart, a later one is left by a clock which has been turned back
+            final long day = Math.max(Math.floorDiv(lastMillis, MILLIS_PER_DAY), days.isEmpty() ? Long.MIN_VALUE : days.last());
+            current = days.contains(day) ? TradePartition.load(properties.getDirectory(), day) : TradePartition.create(properties.getDirectory(), day);
+            days.add(day);
+            lastMillis = Math.max(lastMillis, day * MILLIS_PER_DAY + current.getLastTime());
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "exchange-trade-history-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long interval = properties.getFlushInterval().toMillis();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdownNow();
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            current.flush();
+        } catch (final RuntimeException e) {
+            log.error("Failed to write the trade history", e);
+        }
+    }
+
+    /**
+     * Records a trade executed now; does nothing when the history is disabled.
+     */
+    public void record(final @NotNull @NonNull StockOperationType type, final @NotNull @NonNull String login, final @NotNull @NonNull String index, final long amount, final long price) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (lock) {
+            // Never goes back, so that records of a partition stay sorted by their timestamps
+            lastMillis = Math.max(lastMillis, System.currentTimeMillis());
+            final long day = Math.floorDiv(lastMillis, MILLIS_PER_DAY);
+            if (day != current.getDay()) {
+                roll(day);
+            }
+            current.append((int) (lastMillis - day * MILLIS_PER_DAY), type, login, index, amount, price);
+        }
+    }
+
+    private void roll(final long day) {
+        final TradePartition previous = current;
+        previous.flush();
+        partitions.put(previous.getDay(), previous);
+        current = TradePartition.create(properties.getDirectory(), day);
+        days.add(day);
+    }
+
+    /**
+     * Trades of the user with timestamps in {@code [from, to)}, oldest first.
+     *
+     * @param from  {@code null} for no lower bound
+     * @param to    {@code null} for no upper bound
+     * @param after id of the last trade of the previous page, {@code null} for the first page
+     */
+    public @NotNull @NonNull TradeHistoryPageDTO findByUser(final @NotNull @NonNull String login, final Instant from, final Instant to, final Long after, final int limit) {
+        return find(true, login, from, to, after, limit);
+    }
+
+    /**
+     * Trades of the stock with timestamps in {@code [from, to)}, oldest first.
+     *
+     * @param from  {@code null} for no lower bound
+     * @param to    {@code null} for no upper bound
+     * @param after id of the last trade of the previous page, {@code null} for the first page
+     */
+    public @NotNull @NonNull TradeHistoryPageDTO findByStock(final @NotNull @NonNull String index, final Instant from, final Instant to, final Long after, final int limit) {
+        return find(false, index, from, to, after, limit);
+    }
+
+    /**
+     * Visits the partitions of the range one by one and reads only the records of the page from them.
+     */
+    private @NotNull @NonNull TradeHistoryPageDTO find(final boolean byUser, final @NotNull @NonNull String key, final Instant from, final Instant to, final Long after, final int limit) {
+        if (!isEnabled()) {
+            throw new IllegalArgumentException("Trade history is disabled");
+        }
+        if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("Limit should be between 1 and %d", MAX_PAGE_SIZE));
+        }
+        final long fromMillis = (from != null) ? epochMillis(from) : Long.MIN_VALUE;
+        final long toMillis = (to != null) ? epochMillis(to) : Long.MAX_VALUE;
+        if (fromMillis >= toMillis) {
+            throw new IllegalArgumentException(String.format("Start of the range %s should be before its end %s", from, to));
+        }
+        final long firstDay = Math.max(Math.floorDiv(fromMillis, MILLIS_PER_DAY), (after != null) ? TradePartition.dayOf(after) : Long.MIN_VALUE);
+        final long lastDay = Math.floorDiv(toMillis - 1, MILLIS_PER_DAY);
+        final List<TradeDTO> trades = new ArrayList<>();
+        if (firstDay <= lastDay) {
+            for (final long day : days.subSet(firstDay, true, lastDay, true)) {
+                final TradePartition partition = partition(day);
+                if (partition == null) {
+                    break;
+                }
+                final long dayStart = day * MILLIS_PER_DAY;
+                final int afterPosition = (after != null && TradePartition.dayOf(after) == day) ? TradePartition.positionOf(after) : -1;
+                // One more than requested tells whether there is a next page
+                final int[] positions = partition.find(byUser, key, millisOfDay(fromMillis, dayStart), millisOfDay(toMillis, dayStart), afterPosition, limit + 1 - trades.size());
+                trades.addAll(partition.read(positions));
+                if (trades.size() > limit) {
+                    break;
+                }
+            }
+        }
+        final boolean more = trades.size() > limit;
+        final List<TradeDTO> page = more ? trades.subList(0, limit) : trades;
+        return TradeHistoryPageDTO
+                .builder()
+                .trades(page)
+                .nextAfter(more ? page.get(limit - 1).getId() : null)
+                .build();
+    }
+
+    private static long epochMillis(final @NotNull @NonNull Instant instant) {
+        try {
+            return instant.toEpochMilli();
+        } catch (final ArithmeticException e) {
+            throw new IllegalArgumentException("Time is out of range: " + instant, e);
+        }
+    }
+
+    /**
+     * Clamps the time to the day, without overflowing for unbounded ranges.
+     */
+    private static int millisOfDay(final long millis, final long dayStart) {
+        if (millis <= dayStart) {
+            return 0;
+        }
+        return (int) Math.min(MILLIS_PER_DAY, millis - dayStart);
+    }
+
+    /**
+     * @return {@code null} for a partition started after the current one was read, it has no trades of the range yet
+     */
+    private TradePartition partition(final long day) {
+        final TradePartition appended = current;
+        if (day == appended.getDay()) {
+            return appended;
+        }
+        if (day > appended.getDay()) {
+            return null;
+        }
+        // Past partitions are not changed anymore, the previous current one has been put into the cache when it was replaced
+        return partitions.get(day, d -> TradePartition.load(properties.getDirectory(), d));
+    }
+}
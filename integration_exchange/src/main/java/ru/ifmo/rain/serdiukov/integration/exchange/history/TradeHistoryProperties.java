@@ -0,0 +1,28 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.history;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "exchange.trade-history")
+public class TradeHistoryProperties {
+    /**
+     * When enabled, every executed trade is appended to the trade log, which can be queried by user and by stock.
+     */
+    private boolean enabled = true;
+
+    private Path directory = Path.of("trade-history");
+
+    /**
+     * How often recorded trades are written to the files. Queries write the pending trades themselves before they read.
+     */
+    private Duration flushInterval = Duration.ofMillis(100);
+
+    /**
+     * Number of past days whose indexes are kept in memory, about 12 bytes per trade each.
+     */
+    private int cachedPartitions = 7;
+}
@@ -0,0 +1,445 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.history;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.TradeDTO;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Trades of one UTC day. Records have a fixed size and are stored in {@code trades-<date>.dat} in the order they were appended,
+ * which is also the order of their timestamps; logins and indices are stored once in {@code trades-<date>.dict}
+ * and records refer to them by number. Timestamps and the positions of the records of every user and every stock
+ * are kept in memory, the records themselves are only read from the file.
+ * <p>
+ * Appended records are buffered until {@link #flush()}, which does not block appending while it writes.
+ * Reads take the records which have not been written yet from the buffers, so they never write to the files themselves.
+ */
+@Slf4j
+final class TradePartition {
+    static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+    private static final String PREFIX = "trades-";
+    private static final String RECORDS_SUFFIX = ".dat";
+    private static final String DICTIONARY_SUFFIX = ".dict";
+    // [int millis of day][byte type][int user][int stock][long amount][long price]
+    private static final int RECORD_SIZE = Integer.BYTES + Byte.BYTES + 2 * Integer.BYTES + 2 * Long.BYTES;
+    private static final byte USER = 0;
+    private static final byte STOCK = 1;
+    private static final byte BUY = 0;
+    private static final byte SELL = 1;
+
+    private final long day;
+    private final @NotNull @NonNull Path records;
+    private final @NotNull @NonNull Path dictionary;
+    private final @NotNull @NonNull Keys users = new Keys();
+    private final @NotNull @NonNull Keys stocks = new Keys();
+    private int[] times = new int[1024];
+    private int size;
+    // Records before this position are in the file, the following ones are being written by a flush or are pending
+    private int written;
+    private RecordBuffer writingRecords;
+    private int pendingStart;
+    private @NotNull @NonNull RecordBuffer pendingRecords = new RecordBuffer();
+    private @NotNull @NonNull ByteArrayOutputStream pendingDictionary = new ByteArrayOutputStream();
+    private final @NotNull @NonNull ByteBuffer scratch = ByteBuffer.allocate(RECORD_SIZE);
+    private final @NotNull @NonNull Object flushLock = new Object();
+
+    private TradePartition(final @NotNull @NonNull Path directory, final long day) {
+        this.day = day;
+        final String date = LocalDate.ofEpochDay(day).toString();
+        this.records = directory.resolve(PREFIX + date + RECORDS_SUFFIX);
+        this.dictionary = directory.resolve(PREFIX + date + DICTIONARY_SUFFIX);
+    }
+
+    /**
+     * @return days of the partitions stored in the directory
+     */
+    static @NotNull @NonNull NavigableSet<Long> list(final @NotNull @NonNull Path directory) {
+        final NavigableSet<Long> days = new TreeSet<>();
+        try (final Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString()).filter(name -> name.startsWith(PREFIX) && name.endsWith(RECORDS_SUFFIX)).forEach(name -> {
+                try {
+                    days.add(LocalDate.parse(name.substring(PREFIX.length(), name.length() - RECORDS_SUFFIX.length())).toEpochDay());
+                } catch (final DateTimeParseException e) {
+                    log.warn("Ignoring unexpected file {} in the trade history directory", name);
+                }
+            });
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot list trade history directory " + directory, e);
+        }
+        return days;
+    }
+
+    static @NotNull @NonNull TradePartition create(final @NotNull @NonNull Path directory, final long day) {
+        return new TradePartition(directory, day);
+    }
+
+    /**
+     * Reads the dictionary and indexes the records of a stored partition. A torn record or dictionary entry
+     * at the end of a file, left by a crash while it was written, is cut off so that appending can continue after it.
+     */
+    static @NotNull @NonNull TradePartition load(final @NotNull @NonNull Path directory, final long day) {
+        final TradePartition partition = new TradePartition(directory, day);
+        try {
+            partition.loadDictionary();
+            partition.loadRecords();
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot read trade history partition " + partition.records, e);
+        }
+        return partition;
+    }
+
+    private void loadDictionary() throws IOException {
+        if (!Files.exists(dictionary)) {
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(dictionary));
+        while (buffer.remaining() >= Byte.BYTES + Short.BYTES) {
+            final int start = buffer.position();
+            final byte kind = buffer.get();
+            final int length = Short.toUnsignedInt(buffer.getShort());
+            if (length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            final String key = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            (kind == USER ? users : stocks).add(key);
+        }
+        truncate(dictionary, buffer.position());
+    }
+
+    private void loadRecords() throws IOException {
+        if (!Files.exists(records)) {
+            return;
+        }
+        long valid = 0;
+        try (final FileChannel channel = FileChannel.open(records, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            reading:
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    final int millis = buffer.getInt();
+                    buffer.get();
+                    final int user = buffer.getInt();
+                    final int stock = buffer.getInt();
+                    buffer.position(buffer.position() + 2 * Long.BYTES);
+                    // The dictionary is written before the records which refer to it, so this is a torn write
+                    if (user >= users.size() || stock >= stocks.size()) {
+                        break reading;
+                    }
+                    index(millis, user, stock);
+                    valid += RECORD_SIZE;
+                }
+                buffer.compact();
+            }
+        }
+        truncate(records, valid);
+        written = size;
+        pendingStart = size;
+    }
+
+    private static void truncate(final @NotNull @NonNull Path file, final long size) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            if (channel.size() > size) {
+                log.warn("Trade history file {} has a torn tail, cutting it at {} bytes", file, size);
+                channel.truncate(size);
+            }
+        }
+    }
+
+    long getDay() {
+        return day;
+    }
+
+    /**
+     * @return milliseconds of the day of the last record, or -1 if there are none
+     */
+    synchronized int getLastTime() {
+        return (size == 0) ? -1 : times[size - 1];
+    }
+
+    /**
+     * Records have to be appended in the order of their timestamps.
+     */
+    synchronized void append(final int millisOfDay, final @NotNull @NonNull StockOperationType type, final @NotNull @NonNull String login, final @NotNull @NonNull String index, final long amount, final long price) {
+        final int user = key(users, USER, login);
+        final int stock = key(stocks, STOCK, index);
+        scratch.clear();
+        scratch.putInt(millisOfDay)
+                .put(type == StockOperationType.BUY ? BUY : SELL)
+                .putInt(user)
+                .putInt(stock)
+                .putLong(amount)
+                .putLong(price);
+        pendingRecords.write(scratch.array(), 0, RECORD_SIZE);
+        index(millisOfDay, user, stock);
+    }
+
+    private int key(final @NotNull @NonNull Keys keys, final byte kind, final @NotNull @NonNull String key) {
+        final Integer id = keys.ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Key is too long to be recorded in the trade history: " + key);
+        }
+        pendingDictionary.write(kind);
+        pendingDictionary.write(bytes.length >>> 8);
+        pendingDictionary.write(bytes.length);
+        pendingDictionary.writeBytes(bytes);
+        return keys.add(key);
+    }
+
+    private void index(final int millisOfDay, final int user, final int stock) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+        }
+        times[size] = millisOfDay;
+        users.positions.get(user).add(size);
+        stocks.positions.get(stock).add(size);
+        size++;
+    }
+
+    /**
+     * Writes all records appended so far to the files. Records which cannot be written are kept to be written by the next flush.
+     */
+    void flush() {
+        synchronized (flushLock) {
+            final RecordBuffer writtenRecords;
+            ByteArrayOutputStream writtenDictionary;
+            final int end;
+            synchronized (this) {
+                if (pendingRecords.size() == 0) {
+                    return;
+                }
+                writtenRecords = pendingRecords;
+                writtenDictionary = pendingDictionary;
+                end = size;
+                // Stays readable from memory until it is in the file
+                writingRecords = writtenRecords;
+                pendingStart = end;
+                pendingRecords = new RecordBuffer();
+                pendingDictionary = new ByteArrayOutputStream();
+            }
+            try {
+                if (writtenDictionary.size() > 0) {
+                    append(dictionary, writtenDictionary);
+                    writtenDictionary = new ByteArrayOutputStream();
+                }
+                append(records, writtenRecords);
+            } catch (final IOException e) {
+                synchronized (this) {
+                    // Put back in front of what has been appended meanwhile, so that the order of the records is kept
+                    writtenRecords.writeBytes(pendingRecords.toByteArray());
+                    writtenDictionary.writeBytes(pendingDictionary.toByteArray());
+                    pendingRecords = writtenRecords;
+                    pendingDictionary = writtenDictionary;
+                    pendingStart = written;
+                    writingRecords = null;
+                }
+                throw new UncheckedIOException("Cannot write trade history partition " + records, e);
+            }
+            synchronized (this) {
+                written = end;
+                writingRecords = null;
+            }
+        }
+    }
+
+    /**
+     * Appends the bytes to the file as a whole: when they cannot be written the file is cut back to its previous size,
+     * so that records written later do not land after a torn one.
+     */
+    private static void append(final @NotNull @NonNull Path file, final @NotNull @NonNull ByteArrayOutputStream bytes) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            final long size = channel.size();
+            try {
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, size + buffer.position());
+                }
+            } catch (final IOException e) {
+                try {
+                    channel.truncate(size);
+                } catch (final IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Finds positions of the records of a user or a stock with timestamps in {@code [fromMillis, toMillis)} of the day.
+     *
+     * @param afterPosition only records after this one are returned, -1 for all of them
+     */
+    synchronized int @NotNull @NonNull [] find(final boolean byUser, final @NotNull @NonNull String key, final int fromMillis, final int toMillis, final int afterPosition, final int limit) {
+        final Keys keys = byUser ? users : stocks;
+        final Integer id = keys.ids.get(key);
+        if (id == null) {
+            return new int[0];
+        }
+        final Positions positions = keys.positions.get(id);
+        // Positions are sorted both by themselves and by the timestamps of their records
+        int first = 0;
+        int last = positions.size;
+        while (first < last) {
+            final int middle = (first + last) >>> 1;
+            final int position = positions.values[middle];
+            if (position <= afterPosition || times[position] < fromMillis) {
+                first = middle + 1;
+            } else {
+                last = middle;
+            }
+        }
+        int end = first;
+        while (end < positions.size && end - first < limit && times[positions.values[end]] < toMillis) {
+            end++;
+        }
+        return Arrays.copyOfRange(positions.values, first, end);
+    }
+
+    /**
+     * Reads records found by {@link #find}: the ones which have been written from the file, the rest from memory.
+     */
+    @NotNull @NonNull List<TradeDTO> read(final int @NotNull @NonNull [] positions) {
+        if (positions.length == 0) {
+            return List.of();
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(positions.length * RECORD_SIZE);
+        // Positions are sorted, so the records in the file come first
+        int inFile = 0;
+        synchronized (this) {
+            while (inFile < positions.length && positions[inFile] < written) {
+                inFile++;
+            }
+            buffer.position(inFile * RECORD_SIZE);
+            for (int i = inFile; i < positions.length; i++) {
+                final int position = positions[i];
+                if (position < pendingStart) {
+                    writingRecords.copy((position - written) * RECORD_SIZE, buffer);
+                } else {
+                    pendingRecords.copy((position - pendingStart) * RECORD_SIZE, buffer);
+                }
+            }
+        }
+        if (inFile > 0) {
+            readWritten(positions, inFile, buffer.slice(0, inFile * RECORD_SIZE));
+        }
+        buffer.rewind();
+        final List<TradeDTO> trades = new ArrayList<>(positions.length);
+        // Keys are resolved under the lock, the dictionary may be growing meanwhile
+        synchronized (this) {
+            for (final int position : positions) {
+                final int millis = buffer.getInt();
+                final byte type = buffer.get();
+                final int user = buffer.getInt();
+                final int stock = buffer.getInt();
+                trades.add(TradeDTO
+                        .builder()
+                        .id(id(day, position))
+                        .timestamp(Instant.ofEpochMilli(day * MILLIS_PER_DAY + millis))
+                        .type(type == BUY ? StockOperationType.BUY : StockOperationType.SELL)
+                        .userLogin(users.keys.get(user))
+                        .stockIndex(stocks.keys.get(stock))
+                        .amount(buffer.getLong())
+                        .price(buffer.getLong())
+                        .build()
+                );
+            }
+        }
+        return trades;
+    }
+
+    /**
+     * Reads the first {@code count} of the positions from the file, which is not changed before them anymore.
+     */
+    private void readWritten(final int @NotNull @NonNull [] positions, final int count, final @NotNull @NonNull ByteBuffer buffer) {
+        try (final FileChannel channel = FileChannel.open(records, StandardOpenOption.READ)) {
+            for (int i = 0; i < count; i++) {
+                final int position = positions[i];
+                final int end = buffer.position() + RECORD_SIZE;
+                while (buffer.position() < end) {
+                    if (channel.read(buffer.limit(end), (long) position * RECORD_SIZE + RECORD_SIZE - (end - buffer.position())) < 0) {
+                        throw new IllegalStateException(String.format("Trade history partition %s ends before record %d", records, position));
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Cannot read trade history partition " + records, e);
+        }
+    }
+
+    static long id(final long day, final int position) {
+        return (day << 32) | position;
+    }
+
+    static long dayOf(final long id) {
+        return id >> 32;
+    }
+
+    static int positionOf(final long id) {
+        return (int) id;
+    }
+
+    /**
+     * Dictionary of logins or indices together with the positions of their records.
+     */
+    private static final class Keys {
+        private final @NotNull @NonNull Map<String, Integer> ids = new HashMap<>();
+        private final @NotNull @NonNull List<String> keys = new ArrayList<>();
+        private final @NotNull @NonNull List<Positions> positions = new ArrayList<>();
+
+        private int add(final @NotNull @NonNull String key) {
+            ids.put(key, keys.size());
+            keys.add(key);
+            positions.add(new Positions());
+            return keys.size() - 1;
+        }
+
+        private int size() {
+            return keys.size();
+        }
+    }
+
+    /**
+     * Records which have not been written yet, readable by their offset.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        private void copy(final int offset, final @NotNull @NonNull ByteBuffer to) {
+            to.put(buf, offset, RECORD_SIZE);
+        }
+    }
+
+    private static final class Positions {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(final int position) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = position;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.binary;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationReceiptDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationRequestDTO;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Fixed-layout little-endian encoding of trades, in the manner of SBE. Every message starts with the header
+ * {@code [uint16 blockLength][uint16 templateId][uint16 schemaId][uint16 version]}, followed by a block of fixed size fields
+ * and then by variable length strings, each as {@code [uint16 length][UTF-8 bytes]}. Decoders skip the fields of a block
+ * longer than they know, so that fields can be appended to a block without breaking older clients.
+ * <ul>
+ *     <li>Request, template 1: {@code [uint8 type][int64 amount]}, then the user login and the stock index.</li>
+ *     <li>Receipt, template 2: {@code [int64 timestamp in microseconds][int64 amount][int64 price][int64 balance]
+ *     [int64 position][int64 availableAmount][uint8 type]}.</li>
+ * </ul>
+ * Type is 0 for a purchase and 1 for a sale.
+ */
+public final class BinaryStockOperationCodec {
+    public static final String MEDIA_TYPE_VALUE = "application/x-exchange-binary";
+
+    static final int HEADER_SIZE = 4 * Short.BYTES;
+    static final int SCHEMA_ID = 1;
+    static final int VERSION = 0;
+    static final int REQUEST_TEMPLATE_ID = 1;
+    static final int RECEIPT_TEMPLATE_ID = 2;
+    static final int REQUEST_BLOCK_LENGTH = Byte.BYTES + Long.BYTES;
+    static final int RECEIPT_BLOCK_LENGTH = 6 * Long.BYTES + Byte.BYTES;
+    public static final int RECEIPT_SIZE = HEADER_SIZE + RECEIPT_BLOCK_LENGTH;
+
+    private BinaryStockOperationCodec() {
+    }
+
+    public static byte @NotNull @NonNull [] encodeRequest(final @NotNull @NonNull StockOperationRequestDTO request) {
+        final byte[] login = request.getUserLogin().getBytes(StandardCharsets.UTF_8);
+        final byte[] index = request.getStockIndex().getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + REQUEST_BLOCK_LENGTH + 2 * Short.BYTES + login.length + index.length).order(ByteOrder.LITTLE_ENDIAN);
+        putHeader(buffer, REQUEST_BLOCK_LENGTH, REQUEST_TEMPLATE_ID);
+        buffer.put(type(request.getType())).putLong(request.getAmount());
+        putString(buffer, login);
+        putString(buffer, index);
+        return buffer.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException when the message is not a valid request
+     */
+    public static @NotNull @NonNull StockOperationRequestDTO decodeRequest(final @NotNull @NonNull ByteBuffer message) {
+        final ByteBuffer buffer = message.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            final int blockLength = getHeader(buffer, REQUEST_TEMPLATE_ID, REQUEST_BLOCK_LENGTH);
+            final int block = buffer.position();
+            final StockOperationType type = type(buffer.get());
+            final long amount = buffer.getLong();
+            buffer.position(block + blockLength);
+            return new StockOperationRequestDTO(type, getString(buffer), getString(buffer), amount);
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Request message is truncated", e);
+        }
+    }
+
+    public static byte @NotNull @NonNull [] encodeReceipt(final @NotNull @NonNull StockOperationReceiptDTO receipt) {
+        final ByteBuffer buffer = ByteBuffer.allocate(RECEIPT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        putHeader(buffer, RECEIPT_BLOCK_LENGTH, RECEIPT_TEMPLATE_ID);
+        buffer.putLong(ChronoUnit.MICROS.between(Instant.EPOCH, receipt.getTimestamp()))
+                .putLong(receipt.getAmount())
+                .putLong(receipt.getPrice())
+                .putLong(receipt.getBalance())
+                .putLong(receipt.getPosition())
+                .putLong(receipt.getAvailableAmount())
+                .put(type(receipt.getType()));
+        return buffer.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException when the message is not a valid receipt
+     */
+    public static @NotNull @NonNull StockOperationReceiptDTO decodeReceipt(final @NotNull @NonNull ByteBuffer message) {
+        final ByteBuffer buffer = message.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            getHeader(buffer, RECEIPT_TEMPLATE_ID, RECEIPT_BLOCK_LENGTH);
+            return StockOperationReceiptDTO
+                    .builder()
+                    .timestamp(Instant.EPOCH.plus(buffer.getLong(), ChronoUnit.MICROS))
+                    .amount(buffer.getLong())
+                    .price(buffer.getLong())
+                    .balance(buffer.getLong())
+                    .position(buffer.getLong())
+                    .availableAmount(buffer.getLong())
+                    .type(type(buffer.get()))
+                    .build();
+        } catch (final BufferUnderflowException e) {
+            throw new IllegalArgumentException("Receipt message is truncated", e);
+        }
+    }
+
+    private static void putHeader(final @NotNull @NonNull ByteBuffer buffer, final int blockLength, final int templateId) {
+        buffer.putShort((short) blockLength)
+                .putShort((short) templateId)
+                .putShort((short) SCHEMA_ID)
+                .putShort((short) VERSION);
+    }
+
+    /**
+     * @return length of the block, which is at least {@code minimumBlockLength}
+     */
+    private static int getHeader(final @NotNull @NonNull ByteBuffer buffer, final int templateId, final int minimumBlockLength) {
+        final int blockLength = Short.toUnsignedInt(buffer.getShort());
+        final int actualTemplateId = Short.toUnsignedInt(buffer.getShort());
+        final int schemaId = Short.toUnsignedInt(buffer.getShort());
+        buffer.getShort();
+        if (schemaId != SCHEMA_ID || actualTemplateId != templateId) {
+            throw new IllegalArgumentException(String.format("Expected template %d of schema %d but got template %d of schema %d", templateId, SCHEMA_ID, actualTemplateId, schemaId));
+        }
+        if (blockLength < minimumBlockLength) {
+            throw new IllegalArgumentException(String.format("Block of template %d should be at least %d bytes long but is %d", templateId, minimumBlockLength, blockLength));
+        }
+        return blockLength;
+    }
+
+    private static void putString(final @NotNull @NonNull ByteBuffer buffer, final byte @NotNull @NonNull [] value) {
+        if (value.length > 0xFFFF) {
+            throw new IllegalArgumentException("String is too long to be encoded: " + value.length + " bytes");
+        }
+        buffer.putShort((short) value.length).put(value);
+    }
+
+    private static @NotNull @NonNull String getString(final @NotNull @NonNull ByteBuffer buffer) {
+        final int length = Short.toUnsignedInt(buffer.getShort());
+        final byte[] value = new byte[length];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte type(final @NotNull @NonNull StockOperationType type) {
+        return switch (type) {
+            case BUY -> 0;
+            case SELL -> 1;
+        };
+    }
+
+    private static @NotNull @NonNull StockOperationType type(final byte type) {
+        return switch (type) {
+            case 0 -> StockOperationType.BUY;
+            case 1 -> StockOperationType.SELL;
+            default -> throw new IllegalArgumentException("Unknown operation type: " + type);
+        };
+    }
+}
@@ -0,0 +1,70 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.binary;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.stereotype.Component;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationReceiptDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationRequestDTO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads trade requests and writes trade receipts of {@link BinaryStockOperationCodec} for the REST API.
+ * Malformed messages are reported as {@link IllegalArgumentException}, like malformed parameters.
+ */
+@Component
+public class BinaryStockOperationConverter extends AbstractHttpMessageConverter<Object> {
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(BinaryStockOperationCodec.MEDIA_TYPE_VALUE);
+
+    private static final int MAX_REQUEST_SIZE = 1 << 16;
+
+    public BinaryStockOperationConverter() {
+        super(MEDIA_TYPE);
+    }
+
+    @Override
+    protected boolean supports(final @NotNull @NonNull Class<?> clazz) {
+        return clazz == StockOperationRequestDTO.class || clazz == StockOperationReceiptDTO.class;
+    }
+
+    @Override
+    protected boolean canRead(final MediaType mediaType) {
+        // Only with the exact content type, a binary request is never guessed from a missing one
+        return mediaType != null && MEDIA_TYPE.includes(mediaType) && super.canRead(mediaType);
+    }
+
+    @Override
+    protected boolean canWrite(final MediaType mediaType) {
+        return mediaType != null && !mediaType.isWildcardType() && super.canWrite(mediaType);
+    }
+
+    @Override
+    protected @NotNull @NonNull Object readInternal(final @NotNull @NonNull Class<?> clazz, final @NotNull @NonNull HttpInputMessage inputMessage) throws IOException {
+        if (clazz != StockOperationRequestDTO.class) {
+            throw new IllegalArgumentException("Only trade requests can be read from " + MEDIA_TYPE);
+        }
+        final byte[] body = inputMessage.getBody().readNBytes(MAX_REQUEST_SIZE + 1);
+        if (body.length > MAX_REQUEST_SIZE) {
+            throw new IllegalArgumentException(String.format("Request should not be longer than %d bytes", MAX_REQUEST_SIZE));
+        }
+        return BinaryStockOperationCodec.decodeRequest(ByteBuffer.wrap(body));
+    }
+
+    @Override
+    protected void writeInternal(final @NotNull @NonNull Object value, final @NotNull @NonNull HttpOutputMessage outputMessage) throws IOException {
+        final byte[] body = (value instanceof StockOperationReceiptDTO receipt)
+                ? BinaryStockOperationCodec.encodeReceipt(receipt)
+                : BinaryStockOperationCodec.encodeRequest((StockOperationRequestDTO) value);
+        outputMessage.getBody().write(body);
+    }
+
+    @Override
+    protected Long getContentLength(final @NotNull @NonNull Object value, final MediaType contentType) {
+        return (value instanceof StockOperationReceiptDTO) ? (long) BinaryStockOperationCodec.RECEIPT_SIZE : null;
+    }
+}
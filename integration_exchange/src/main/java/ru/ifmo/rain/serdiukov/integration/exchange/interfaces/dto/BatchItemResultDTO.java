@@ -0,0 +1,19 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Outcome of a single operation of a batch: either the error or the state of the user and the stock right after it.
+ */
+@Data
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResultDTO {
+    private final boolean success;
+    private final String error;
+    private final Long balance;
+    private final Long price;
+    private final Long availableAmount;
+}
@@ -0,0 +1,14 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.BatchMode;
+
+import java.util.List;
+
+@Data
+public class BatchStockOperationRequestDTO {
+    private final @NotNull @NonNull BatchMode mode;
+    private final @NotNull @NonNull List<StockOperationRequestDTO> operations;
+}
@@ -0,0 +1,16 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@Builder
+public class BatchStockOperationResponseDTO {
+    private final @NotNull @NonNull List<BatchItemResultDTO> results;
+    private final @NotNull @NonNull Instant timestamp;
+}
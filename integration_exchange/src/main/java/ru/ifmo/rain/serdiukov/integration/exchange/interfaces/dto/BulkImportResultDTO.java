@@ -0,0 +1,11 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class BulkImportResultDTO {
+    private final long users;
+    private final long stocks;
+}
@@ -0,0 +1,14 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class CacheStatsDTO {
+    private final long size;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final double hitRate;
+}
@@ -0,0 +1,22 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Instant;
+
+@Data
+@Builder
+public class CandleDTO {
+    private final @NotNull @NonNull Instant start;
+    private final long open;
+    private final long high;
+    private final long low;
+    private final long close;
+    /**
+     * Amount traded during the bar, a bar of price updates only has zero volume.
+     */
+    private final long volume;
+}
@@ -0,0 +1,19 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+@Data
+@Builder
+public class CandlesDTO {
+    private final @NotNull @NonNull String index;
+    private final @NotNull @NonNull String resolution;
+    /**
+     * Oldest first, bars without any trades or price updates are omitted.
+     */
+    private final @NotNull @NonNull List<CandleDTO> candles;
+}
@@ -0,0 +1,18 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Data;
+
+/**
+ * Row of a bulk import in NDJSON: a user with {@code login}, {@code name} and {@code balance},
+ * or a stock with {@code index}, {@code name}, {@code price} and {@code availableAmount}.
+ */
+@Data
+public class ImportRowDTO {
+    private final String type;
+    private final String login;
+    private final String index;
+    private final String name;
+    private final long balance;
+    private final long price;
+    private final long availableAmount;
+}
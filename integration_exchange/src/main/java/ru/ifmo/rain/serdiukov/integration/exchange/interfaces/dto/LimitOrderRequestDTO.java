@@ -0,0 +1,18 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+
+@Data
+public class LimitOrderRequestDTO {
+    private final @NotNull @NonNull StockOperationType type;
+    private final @NotNull @NonNull String userLogin;
+    private final @NotNull @NonNull String stockIndex;
+    /**
+     * The highest price to buy at or the lowest price to sell at.
+     */
+    private final long price;
+    private final long amount;
+}
@@ -0,0 +1,19 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Best price levels of the book, bids from the highest price and asks from the lowest one.
+ */
+@Data
+@Builder
+public class OrderBookDTO {
+    private final @NotNull @NonNull String index;
+    private final @NotNull @NonNull List<PriceLevelDTO> bids;
+    private final @NotNull @NonNull List<PriceLevelDTO> asks;
+}
@@ -0,0 +1,27 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+
+/**
+ * Limit order as changed by the request which has returned it: the amount filled by that request,
+ * the amount left resting in the book and the amount cancelled.
+ */
+@Data
+@Builder
+public class OrderDTO {
+    private final long orderId;
+    private final @NotNull @NonNull String stockIndex;
+    private final @NotNull @NonNull StockOperationType type;
+    private final long price;
+    private final long filledAmount;
+    /**
+     * Money paid or received for the filled amount, every fill is executed at the price of the resting order.
+     */
+    private final long filledValue;
+    private final long restingAmount;
+    private final long cancelledAmount;
+}
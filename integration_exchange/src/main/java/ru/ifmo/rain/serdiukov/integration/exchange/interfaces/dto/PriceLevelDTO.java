@@ -0,0 +1,12 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class PriceLevelDTO {
+    private final long price;
+    private final long amount;
+    private final int orders;
+}
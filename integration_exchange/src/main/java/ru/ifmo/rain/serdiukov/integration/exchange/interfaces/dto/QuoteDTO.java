@@ -0,0 +1,29 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+
+@Data
+@Builder
+public class QuoteDTO {
+    private final @NotNull @NonNull String index;
+    private final long price;
+    private final long availableAmount;
+    /**
+     * Grows with every change of the stock, so a quote with a lower sequence than an already received one is stale.
+     */
+    private final long sequence;
+
+    public static @NotNull @NonNull QuoteDTO of(final @NotNull @NonNull Stock stock) {
+        return QuoteDTO
+                .builder()
+                .index(stock.getIndex())
+                .price(stock.getPrice())
+                .availableAmount(stock.getAvailableAmount())
+                .sequence(stock.getVersion())
+                .build();
+    }
+}
@@ -0,0 +1,17 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class RuntimeStatsDTO {
+    private final int liveThreads;
+    private final int peakThreads;
+    private final int daemonThreads;
+    private final long heapUsed;
+    /**
+     * Callers waiting for a database connection in the connection limiter.
+     */
+    private final int connectionWaiters;
+}
@@ -0,0 +1,14 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+@Data
+@Builder
+public class StockHolderDTO {
+    private final long userId;
+    private final @NotNull @NonNull String login;
+    private final long amount;
+}
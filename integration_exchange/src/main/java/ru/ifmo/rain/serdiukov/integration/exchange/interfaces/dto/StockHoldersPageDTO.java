@@ -0,0 +1,19 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+@Data
+@Builder
+public class StockHoldersPageDTO {
+    private final @NotNull @NonNull String index;
+    private final @NotNull @NonNull List<StockHolderDTO> holders;
+    /**
+     * Value of {@code after} to request the next page with, {@code null} when there are no more holders.
+     */
+    private final Long nextAfter;
+}
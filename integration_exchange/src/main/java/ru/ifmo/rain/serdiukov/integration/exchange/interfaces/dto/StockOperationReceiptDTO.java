@@ -0,0 +1,41 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperation;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Slim result of a trade, only what the trade has changed: the balance and the position of the user and the availability of the stock.
+ */
+@Data
+@Builder
+public class StockOperationReceiptDTO {
+    private final @NotNull @NonNull StockOperationType type;
+    private final long amount;
+    private final long price;
+    private final long balance;
+    private final long position;
+    private final long availableAmount;
+    private final @NotNull @NonNull Instant timestamp;
+
+    public static @NotNull @NonNull StockOperationReceiptDTO of(final @NotNull @NonNull StockOperationResponseDTO response) {
+        final StockOperation operation = response.getOperation();
+        final Map<?, Long> portfolio = operation.getUser().getPortfolio();
+        return StockOperationReceiptDTO
+                .builder()
+                .type(operation.getType())
+                .amount(operation.getAmount())
+                .price(operation.getStock().getPrice())
+                .balance(operation.getUser().getBalance())
+                .position((portfolio != null) ? portfolio.getOrDefault(operation.getStock(), 0L) : 0L)
+                .availableAmount(operation.getStock().getAvailableAmount())
+                .timestamp(response.getTimestamp())
+                .build();
+    }
+}
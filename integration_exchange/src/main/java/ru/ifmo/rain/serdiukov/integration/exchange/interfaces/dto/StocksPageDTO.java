@@ -0,0 +1,19 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+
+import java.util.List;
+
+@Data
+@Builder
+public class StocksPageDTO {
+    private final @NotNull @NonNull List<Stock> stocks;
+    /**
+     * Value of {@code after} to request the next page with, {@code null} when there are no more stocks.
+     */
+    private final Long nextAfter;
+}
@@ -0,0 +1,27 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+
+import java.time.Instant;
+
+/**
+ * A trade as seen by one of its sides: a fill of two limit orders is recorded once for the buyer and once for the seller.
+ */
+@Data
+@Builder
+public class TradeDTO {
+    /**
+     * Grows with the timestamp, so it can be passed as {@code after} to continue right after this trade.
+     */
+    private final long id;
+    private final @NotNull @NonNull Instant timestamp;
+    private final @NotNull @NonNull StockOperationType type;
+    private final @NotNull @NonNull String userLogin;
+    private final @NotNull @NonNull String stockIndex;
+    private final long amount;
+    private final long price;
+}
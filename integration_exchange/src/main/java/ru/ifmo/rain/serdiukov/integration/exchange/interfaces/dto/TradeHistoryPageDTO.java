@@ -0,0 +1,18 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+@Data
+@Builder
+public class TradeHistoryPageDTO {
+    private final @NotNull @NonNull List<TradeDTO> trades;
+    /**
+     * Value of {@code after} to request the next page with, {@code null} when there are no more trades in the range.
+     */
+    private final Long nextAfter;
+}
@@ -0,0 +1,19 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+
+import java.util.List;
+
+@Data
+@Builder
+public class UsersPageDTO {
+    private final @NotNull @NonNull List<User> users;
+    /**
+     * Value of {@code after} to request the next page with, {@code null} when there are no more users.
+     */
+    private final Long nextAfter;
+}
@@ -0,0 +1,310 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.reactive;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperation;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.engine.ExchangeEngine;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.CandleResolution;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.QuoteSubscription;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.BatchStockOperationRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.LimitOrderRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.QuoteDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.RuntimeService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.StockService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.TransactionService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.UserService;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Handlers of {@code /api/2}, which mirrors {@code /api/1} of {@link ru.ifmo.rain.serdiukov.integration.exchange.interfaces.rest.ExchangeController}.
+ * When the engine is enabled, reads and trades never block the event loop: reads only touch the engine memory
+ * and trades complete when their lane has executed and journaled them. Everything that waits for the database
+ * or the journal runs on a bounded scheduler.
+ */
+@Component
+public class ExchangeHandler {
+    private static final int QUOTES_BATCH_SIZE = 64;
+
+    private final @NotNull @NonNull UserService userService;
+    private final @NotNull @NonNull StockService stockService;
+    private final @NotNull @NonNull TransactionService transactionService;
+    private final @NotNull @NonNull RuntimeService runtimeService;
+    private final @NotNull @NonNull ExchangeEngine engine;
+    private final @NotNull @NonNull Scheduler blocking;
+
+    public ExchangeHandler(final @NotNull @NonNull UserService userService, final @NotNull @NonNull StockService stockService, final @NotNull @NonNull TransactionService transactionService, final @NotNull @NonNull RuntimeService runtimeService, final @NotNull @NonNull ExchangeEngine engine, final @NotNull @NonNull ReactiveApiProperties properties) {
+        this.userService = userService;
+        this.stockService = stockService;
+        this.transactionService = transactionService;
+        this.runtimeService = runtimeService;
+        this.engine = engine;
+        this.blocking = Schedulers.newBoundedElastic(properties.getBlockingThreads(), properties.getBlockingQueueSize(), "exchange-reactive-blocking");
+    }
+
+    @PreDestroy
+    public void stop() {
+        blocking.dispose();
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> createUser(final @NotNull @NonNull ServerRequest request) {
+        return blocking(() -> {
+            final User user = new User();
+            user.setLogin(param(request, "login"));
+            user.setName(param(request, "name"));
+            user.setPortfolio(new HashMap<>());
+            return userService.registerUser(user);
+        });
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> createStock(final @NotNull @NonNull ServerRequest request) {
+        return blocking(() -> stockService.createStock(Stock
+                .builder()
+                .index(param(request, "index"))
+                .name(param(request, "name"))
+                .price(longParam(request, "price"))
+                .availableAmount(0)
+                .build()
+        ));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> getUser(final @NotNull @NonNull ServerRequest request) {
+        return read(() -> {
+            final String login = param(request, "login");
+            final Optional<User> user = portfolioParam(request) ? userService.findByLoginWithPortfolio(login) : userService.findByLogin(login);
+            return user.orElseThrow(() -> new NoSuchElementException("Cannot find user with login = " + login));
+        });
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> getTotalUserActivesPrice(final @NotNull @NonNull ServerRequest request) {
+        return read(() -> userService.getTotalUserActivesPrice(param(request, "login")));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> getStock(final @NotNull @NonNull ServerRequest request) {
+        return read(() -> {
+            final String index = param(request, "index");
+            return stockService.findByIndex(index).orElseThrow(() -> new NoSuchElementException("Cannot find stock with index = " + index));
+        });
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> updateStockPrice(final @NotNull @NonNull ServerRequest request) {
+        return async(() -> stockService.updateStockPriceAsync(param(request, "index"), longParam(request, "price")));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> increaseStockAmount(final @NotNull @NonNull ServerRequest request) {
+        return async(() -> stockService.increaseStockAmountAsync(param(request, "index"), longParam(request, "amount")));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> topUp(final @NotNull @NonNull ServerRequest request) {
+        return blocking(() -> userService.topUpBalance(param(request, "login"), longParam(request, "amount"), portfolioParam(request)));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> getStockHolders(final @NotNull @NonNull ServerRequest request) {
+        return read(() -> stockService.findHolders(
+                param(request, "index"),
+                request.queryParam("after").map(ExchangeHandler::parseLong).orElse(0L),
+                request.queryParam("limit").map(ExchangeHandler::parseLong).orElse(100L).intValue()
+        ));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> listStocks(final @NotNull @NonNull ServerRequest request) {
+        return read(() -> stockService.findStocks(
+                request.queryParam("after").map(ExchangeHandler::parseLong).orElse(0L),
+                request.queryParam("minPrice").map(ExchangeHandler::parseLong).orElse(0L),
+                request.queryParam("maxPrice").map(ExchangeHandler::parseLong).orElse(Long.MAX_VALUE),
+                request.queryParam("limit").map(ExchangeHandler::parseLong).orElse(100L).intValue()
+        ));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> listUsers(final @NotNull @NonNull ServerRequest request) {
+        return read(() -> userService.findUsers(
+                request.queryParam("after").map(ExchangeHandler::parseLong).orElse(0L),
+                request.queryParam("minBalance").map(ExchangeHandler::parseLong).orElse(0L),
+                request.queryParam("limit").map(ExchangeHandler::parseLong).orElse(100L).intValue()
+        ));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> getUserTrades(final @NotNull @NonNull ServerRequest request) {
+        return blocking(() -> userService.findTrades(
+                param(request, "login"),
+                request.queryParam("from").map(ExchangeHandler::parseInstant).orElse(null),
+                request.queryParam("to").map(ExchangeHandler::parseInstant).orElse(null),
+                request.queryParam("after").map(ExchangeHandler::parseLong).orElse(null),
+                request.queryParam("limit").map(ExchangeHandler::parseLong).orElse(100L).intValue()
+        ));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> getStockTrades(final @NotNull @NonNull ServerRequest request) {
+        return blocking(() -> stockService.findTrades(
+                param(request, "index"),
+                request.queryParam("from").map(ExchangeHandler::parseInstant).orElse(null),
+                request.queryParam("to").map(ExchangeHandler::parseInstant).orElse(null),
+                request.queryParam("after").map(ExchangeHandler::parseLong).orElse(null),
+                request.queryParam("limit").map(ExchangeHandler::parseLong).orElse(100L).intValue()
+        ));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> getCandles(final @NotNull @NonNull ServerRequest request) {
+        return read(() -> stockService.findCandles(
+                param(request, "index"),
+                CandleResolution.parse(request.queryParam("resolution").orElse("1m")),
+                request.queryParam("from").map(ExchangeHandler::parseInstant).orElse(null),
+                request.queryParam("to").map(ExchangeHandler::parseInstant).orElse(null),
+                request.queryParam("limit").map(ExchangeHandler::parseLong).orElse(100L).intValue()
+        ));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> streamQuotes(final @NotNull @NonNull ServerRequest request) {
+        final Set<String> indices = request.queryParams().getOrDefault("indices", List.of())
+                .stream()
+                .flatMap(value -> Arrays.stream(value.split(",")))
+                .filter(index -> !index.isEmpty())
+                .collect(Collectors.toSet());
+        // Subscribing reads the requested stocks which have not been quoted yet
+        final Mono<QuoteSubscription> subscription = Mono.fromCallable(() -> stockService.subscribeQuotes(indices));
+        return (engine.isEnabled() ? subscription : subscription.subscribeOn(blocking)).flatMap(subscribed -> ServerResponse
+                .ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(BodyInserters.fromServerSentEvents(quotes(subscribed)))
+        );
+    }
+
+    /**
+     * Quotes are polled only as far as they are requested, those published meanwhile are conflated by the subscription.
+     */
+    private static @NotNull @NonNull Flux<ServerSentEvent<QuoteDTO>> quotes(final @NotNull @NonNull QuoteSubscription subscription) {
+        return Flux.<QuoteDTO>create(sink -> {
+            // Drained by one thread at a time, so that quotes of a stock are emitted in the order they are polled
+            final Object drainLock = new Object();
+            final Runnable drain = () -> {
+                synchronized (drainLock) {
+                    while (sink.requestedFromDownstream() > 0) {
+                        final List<QuoteDTO> quotes = subscription.poll((int) Math.min(sink.requestedFromDownstream(), QUOTES_BATCH_SIZE));
+                        if (quotes.isEmpty()) {
+                            return;
+                        }
+                        quotes.forEach(sink::next);
+                    }
+                }
+            };
+            sink.onDispose(subscription::close);
+            // Not drained on the publishing thread, which may be a lane of the engine
+            subscription.setListener(() -> Schedulers.parallel().schedule(drain));
+            sink.onRequest(requested -> drain.run());
+        }).map(quote -> ServerSentEvent.builder(quote).event("quote").build());
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> getStockCacheStats(final @NotNull @NonNull ServerRequest request) {
+        return ok(Mono.fromSupplier(stockService::getCacheStats));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> getRuntimeStats(final @NotNull @NonNull ServerRequest request) {
+        return ok(Mono.fromSupplier(() -> runtimeService.getStats(request.queryParam("resetPeak").map(Boolean::parseBoolean).orElse(false))));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> performStockOperation(final @NotNull @NonNull ServerRequest request) {
+        return ok(request.bodyToMono(StockOperationRequestDTO.class).flatMap(operation -> toMono(() -> {
+            final @NotNull @NonNull Stock stock = stockService.findByIndex(operation.getStockIndex()).orElseThrow(() -> new NoSuchElementException("Cannot find requested stock with index " + operation.getStockIndex()));
+            final @NotNull @NonNull User user = userService.findByLogin(operation.getUserLogin()).orElseThrow(() -> new NoSuchElementException("Cannot find user with login " + operation.getUserLogin()));
+            return transactionService.performStockOperationAsync(StockOperation
+                    .builder()
+                    .type(operation.getType())
+                    .stock(stock)
+                    .user(user)
+                    .amount(operation.getAmount())
+                    .build(),
+                    portfolioParam(request)
+            );
+        })));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> performStockOperations(final @NotNull @NonNull ServerRequest request) {
+        // Batches wait for all of their trades to be journaled even when the engine is enabled
+        return ok(request.bodyToMono(BatchStockOperationRequestDTO.class).flatMap(batch -> Mono
+                .fromCallable(() -> transactionService.performStockOperations(batch.getMode(), batch.getOperations()))
+                .subscribeOn(blocking)
+        ));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> placeOrder(final @NotNull @NonNull ServerRequest request) {
+        return ok(request.bodyToMono(LimitOrderRequestDTO.class).flatMap(order -> toMono(() -> transactionService.placeOrderAsync(order))));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> cancelOrder(final @NotNull @NonNull ServerRequest request) {
+        return async(() -> transactionService.cancelOrderAsync(param(request, "login"), param(request, "index"), longParam(request, "orderId")));
+    }
+
+    public @NotNull @NonNull Mono<ServerResponse> getOrderBook(final @NotNull @NonNull ServerRequest request) {
+        return async(() -> transactionService.getOrderBookAsync(param(request, "index"), request.queryParam("depth").map(ExchangeHandler::parseLong).orElse(10L).intValue()));
+    }
+
+    private <T> @NotNull @NonNull Mono<ServerResponse> blocking(final @NotNull @NonNull Callable<T> call) {
+        return ok(Mono.fromCallable(call).subscribeOn(blocking));
+    }
+
+    private <T> @NotNull @NonNull Mono<ServerResponse> read(final @NotNull @NonNull Callable<T> call) {
+        return engine.isEnabled() ? ok(Mono.fromCallable(call)) : blocking(call);
+    }
+
+    private <T> @NotNull @NonNull Mono<ServerResponse> async(final @NotNull @NonNull Supplier<CompletableFuture<T>> call) {
+        return ok(toMono(call));
+    }
+
+    private <T> @NotNull @NonNull Mono<T> toMono(final @NotNull @NonNull Supplier<CompletableFuture<T>> call) {
+        // Without the engine the future is already completed by the blocking call which has created it
+        final Mono<T> result = Mono.fromFuture(call);
+        return engine.isEnabled() ? result : result.subscribeOn(blocking);
+    }
+
+    private static <T> @NotNull @NonNull Mono<ServerResponse> ok(final @NotNull @NonNull Mono<T> body) {
+        return body.flatMap(value -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(value));
+    }
+
+    private static @NotNull @NonNull String param(final @NotNull @NonNull ServerRequest request, final @NotNull @NonNull String name) {
+        return request.queryParam(name).orElseThrow(() -> new IllegalArgumentException(String.format("Required request parameter '%s' is not present", name)));
+    }
+
+    private static boolean portfolioParam(final @NotNull @NonNull ServerRequest request) {
+        return request.queryParam("portfolio").map(Boolean::parseBoolean).orElse(false);
+    }
+
+    private static long longParam(final @NotNull @NonNull ServerRequest request, final @NotNull @NonNull String name) {
+        return parseLong(param(request, name));
+    }
+
+    private static long parseLong(final @NotNull @NonNull String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Cannot parse number '%s'", value), e);
+        }
+    }
+
+    private static @NotNull @NonNull Instant parseInstant(final @NotNull @NonNull String value) {
+        try {
+            return Instant.parse(value);
+        } catch (final DateTimeParseException e) {
+            throw new IllegalArgumentException(String.format("Cannot parse instant '%s'", value), e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.reactive;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+@Configuration
+public class ExchangeRoutes {
+    @Bean
+    public @NotNull @NonNull RouterFunction<ServerResponse> exchangeRouter(final @NotNull @NonNull ExchangeHandler handler) {
+        return RouterFunctions
+                .route()
+                .path("/api/2", api -> api
+                        .GET("/createUser", handler::createUser)
+                        .GET("/createStock", handler::createStock)
+                        .GET("/getUser", handler::getUser)
+                        .GET("/getTotalUserActivesPrice", handler::getTotalUserActivesPrice)
+                        .GET("/getStock", handler::getStock)
+                        .GET("/updateStockPrice", handler::updateStockPrice)
+                        .GET("/increaseStockAmount", handler::increaseStockAmount)
+                        .GET("/topUp", handler::topUp)
+                        .GET("/getStockHolders", handler::getStockHolders)
+                        .GET("/listStocks", handler::listStocks)
+                        .GET("/listUsers", handler::listUsers)
+                        .GET("/getUserTrades", handler::getUserTrades)
+                        .GET("/getStockTrades", handler::getStockTrades)
+                        .GET("/getCandles", handler::getCandles)
+                        .GET("/streamQuotes", handler::streamQuotes)
+                        .GET("/getStockCacheStats", handler::getStockCacheStats)
+                        .GET("/getRuntimeStats", handler::getRuntimeStats)
+                        .POST("/stockOp", handler::performStockOperation)
+                        .POST("/stockOps", handler::performStockOperations)
+                        .POST("/placeOrder", handler::placeOrder)
+                        .GET("/cancelOrder", handler::cancelOrder)
+                        .GET("/getOrderBook", handler::getOrderBook)
+                )
+                // The same mapping as the exception handlers of ExchangeController, the first matching one is applied
+                .onError(IllegalArgumentException.class, (e, request) -> error(HttpStatus.BAD_REQUEST, e))
+                .onError(NoSuchElementException.class, (e, request) -> error(HttpStatus.NOT_FOUND, e))
+                .onError(ConcurrencyFailureException.class, (e, request) -> error(HttpStatus.CONFLICT, e))
+                .onError(e -> e instanceof CannotCreateTransactionException || e instanceof DataAccessResourceFailureException, (e, request) -> error(HttpStatus.SERVICE_UNAVAILABLE, e))
+                .onError(RuntimeException.class, (e, request) -> error(HttpStatus.BAD_GATEWAY, e))
+                .onError(Exception.class, (e, request) -> error(HttpStatus.INTERNAL_SERVER_ERROR, e))
+                .build();
+    }
+
+    private static @NotNull @NonNull Mono<ServerResponse> error(final @NotNull @NonNull HttpStatus status, final @NotNull @NonNull Throwable e) {
+        return ServerResponse.status(status).contentType(MediaType.TEXT_PLAIN).bodyValue(Objects.requireNonNullElse(e.getMessage(), ""));
+    }
+}
@@ -0,0 +1,26 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.reactive;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "exchange.reactive")
+public class ReactiveApiProperties {
+    /**
+     * When enabled, the non-blocking {@code /api/2} is served by a separate Reactor Netty server.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Port of the {@code /api/2} server. Zero means any free port.
+     */
+    private int port = 8081;
+
+    /**
+     * Number of threads which run calls that block on the database, calls above it are queued.
+     * It is only used when the engine is disabled, or to wait for the journal.
+     */
+    private int blockingThreads = 10;
+
+    private int blockingQueueSize = 100_000;
+}
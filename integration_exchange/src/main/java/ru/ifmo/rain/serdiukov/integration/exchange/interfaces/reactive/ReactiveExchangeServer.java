@@ -0,0 +1,66 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.reactive;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import javax.annotation.PreDestroy;
+
+/**
+ * Serves {@code /api/2} by Reactor Netty next to the servlet container which serves {@code /api/1},
+ * so that a handful of event loop threads handle every connection of the reactive API.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ReactiveExchangeServer {
+    private final @NotNull @NonNull ReactiveApiProperties properties;
+    private final @NotNull @NonNull RouterFunction<ServerResponse> exchangeRouter;
+    private final @NotNull @NonNull ObjectProvider<CodecCustomizer> codecCustomizers;
+    private DisposableServer server;
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        // Codecs use the same ObjectMapper as /api/1
+        final HandlerStrategies strategies = HandlerStrategies
+                .builder()
+                .codecs(codecs -> codecCustomizers.orderedStream().forEach(customizer -> customizer.customize(codecs)))
+                .build();
+        server = HttpServer
+                .create()
+                .port(properties.getPort())
+                .handle(new ReactorHttpHandlerAdapter(RouterFunctions.toHttpHandler(exchangeRouter, strategies)))
+                .bindNow();
+        log.info("Reactive exchange API started on port {}", server.port());
+    }
+
+    public int getPort() {
+        if (server == null) {
+            throw new IllegalStateException("Reactive exchange API is not enabled");
+        }
+        return server.port();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) {
+            server.disposeNow();
+        }
+    }
+}
@@ -1,31 +1,71 @@
 package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.rest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.ifmo.rain.serdiukov.integration.exchange.bulk.BulkImporter;
+import ru.ifmo.rain.serdiukov.integration.exchange.bulk.ImportFormat;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperation;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.CandleResolution;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.binary.BinaryStockOperationCodec;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.BatchStockOperationRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.BatchStockOperationResponseDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.BulkImportResultDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.CacheStatsDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.CandlesDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.LimitOrderRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.OrderBookDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.OrderDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.RuntimeStatsDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockHoldersPageDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationReceiptDTO;
 import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationRequestDTO;
 import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationResponseDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StocksPageDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.TradeHistoryPageDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.UsersPageDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.RuntimeService;
 import ru.ifmo.rain.serdiukov.integration.exchange.service.StockService;
 import ru.ifmo.rain.serdiukov.integration.exchange.service.TransactionService;
 import ru.ifmo.rain.serdiukov.integration.exchange.service.UserService;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 
 @RequiredArgsConstructor
 @RestController
 @RequestMapping("/api/1")
 public class ExchangeController {
+    private static final String MAX_LONG = "9223372036854775807";
+
     private final @NotNull @NonNull UserService userService;
     private final @NotNull @NonNull StockService stockService;
     private final @NotNull @NonNull TransactionService transactionService;
+    private final @NotNull @NonNull RuntimeService runtimeService;
+    private final @NotNull @NonNull QuoteEventStreams quoteEventStreams;
+    private final @NotNull @NonNull ObjectMapper objectMapper;
+    private final @NotNull @NonNull BulkImporter bulkImporter;
 
     @GetMapping("createUser")
     @ResponseStatus(HttpStatus.OK)
@@ -50,10 +90,14 @@ public class ExchangeController {
         return stockService.createStock(stock);
     }
 
+    /**
+     * The portfolio is returned only when it is asked for, it takes a query of all holdings of the user.
+     */
     @GetMapping("getUser")
     @ResponseStatus(HttpStatus.OK)
-    public @NotNull @NonNull User getUser(final @NotNull @NonNull @RequestParam("login") String login) {
-        return userService.findByLogin(login).orElseThrow(() -> new NoSuchElementException("Cannot find user with login = " + login));
+    public @NotNull @NonNull User getUser(final @NotNull @NonNull @RequestParam("login") String login, final @RequestParam(value = "portfolio", defaultValue = "false") boolean portfolio) {
+        final Optional<User> user = portfolio ? userService.findByLoginWithPortfolio(login) : userService.findByLogin(login);
+        return user.orElseThrow(() -> new NoSuchElementException("Cannot find user with login = " + login));
     }
 
     @GetMapping("getTotalUserActivesPrice")
@@ -82,13 +126,111 @@ public class ExchangeController {
 
     @GetMapping("topUp")
     @ResponseStatus(HttpStatus.OK)
-    public @NotNull @NonNull User topUp(final @NotNull @NonNull @RequestParam("login") String login, final @RequestParam("amount") long amount) {
-        return userService.topUpBalance(login, amount);
+    public @NotNull @NonNull User topUp(final @NotNull @NonNull @RequestParam("login") String login, final @RequestParam("amount") long amount, final @RequestParam(value = "portfolio", defaultValue = "false") boolean portfolio) {
+        return userService.topUpBalance(login, amount, portfolio);
+    }
+
+    @GetMapping("getStockHolders")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull StockHoldersPageDTO getStockHolders(final @NotNull @NonNull @RequestParam("index") String index, final @RequestParam(value = "after", defaultValue = "0") long afterUserId, final @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return stockService.findHolders(index, afterUserId, limit);
+    }
+
+    @GetMapping("listStocks")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull StocksPageDTO listStocks(final @RequestParam(value = "after", defaultValue = "0") long afterId, final @RequestParam(value = "minPrice", defaultValue = "0") long minPrice, final @RequestParam(value = "maxPrice", defaultValue = MAX_LONG) long maxPrice, final @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return stockService.findStocks(afterId, minPrice, maxPrice, limit);
+    }
+
+    @GetMapping("listUsers")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull UsersPageDTO listUsers(final @RequestParam(value = "after", defaultValue = "0") long afterId, final @RequestParam(value = "minBalance", defaultValue = "0") long minBalance, final @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return userService.findUsers(afterId, minBalance, limit);
+    }
+
+    /**
+     * All stocks with prices in {@code [minPrice, maxPrice]} as newline-delimited JSON, written as they are read from the database.
+     */
+    @GetMapping(value = "streamStocks", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamStocks(final @RequestParam(value = "minPrice", defaultValue = "0") long minPrice, final @RequestParam(value = "maxPrice", defaultValue = MAX_LONG) long maxPrice, final @NotNull @NonNull HttpServletResponse response) throws IOException {
+        this.<Stock>writeNdjson(response, consumer -> stockService.streamStocks(minPrice, maxPrice, consumer));
+    }
+
+    /**
+     * All users with balances of at least {@code minBalance}, without portfolios, as newline-delimited JSON.
+     */
+    @GetMapping(value = "streamUsers", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamUsers(final @RequestParam(value = "minBalance", defaultValue = "0") long minBalance, final @NotNull @NonNull HttpServletResponse response) throws IOException {
+        this.<User>writeNdjson(response, consumer -> userService.streamUsers(minBalance, consumer));
+    }
+
+    /**
+     * Nothing is written before the first item, so that errors of the request are still reported by status.
+     */
+    private <T> void writeNdjson(final @NotNull @NonNull HttpServletResponse response, final @NotNull @NonNull Consumer<Consumer<T>> source) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        final OutputStream output = response.getOutputStream();
+        source.accept(item -> {
+            try {
+                output.write(objectMapper.writeValueAsBytes(item));
+                output.write('\n');
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        output.flush();
+    }
+
+    /**
+     * Trades of the user with timestamps in {@code [from, to)}, both given as ISO-8601 instants; the range is unbounded on an omitted side.
+     */
+    @GetMapping("getUserTrades")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull TradeHistoryPageDTO getUserTrades(final @NotNull @NonNull @RequestParam("login") String login, final @RequestParam(value = "from", required = false) Instant from, final @RequestParam(value = "to", required = false) Instant to, final @RequestParam(value = "after", required = false) Long after, final @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return userService.findTrades(login, from, to, after, limit);
+    }
+
+    @GetMapping("getStockTrades")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull TradeHistoryPageDTO getStockTrades(final @NotNull @NonNull @RequestParam("index") String index, final @RequestParam(value = "from", required = false) Instant from, final @RequestParam(value = "to", required = false) Instant to, final @RequestParam(value = "after", required = false) Long after, final @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return stockService.findTrades(index, from, to, after, limit);
+    }
+
+    /**
+     * Latest bars of the stock at resolution {@code 1s}, {@code 1m} or {@code 1h} overlapping {@code [from, to)}.
+     */
+    @GetMapping("getCandles")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull CandlesDTO getCandles(final @NotNull @NonNull @RequestParam("index") String index, final @NotNull @NonNull @RequestParam(value = "resolution", defaultValue = "1m") String resolution, final @RequestParam(value = "from", required = false) Instant from, final @RequestParam(value = "to", required = false) Instant to, final @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return stockService.findCandles(index, CandleResolution.parse(resolution), from, to, limit);
+    }
+
+    /**
+     * Streams quotes of the given stocks, of all stocks when no indices are given, starting from their current values.
+     */
+    @GetMapping(value = "streamQuotes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public @NotNull @NonNull SseEmitter streamQuotes(final @RequestParam(value = "indices", defaultValue = "") Set<String> indices) {
+        return quoteEventStreams.open(stockService.subscribeQuotes(indices));
+    }
+
+    @GetMapping("getStockCacheStats")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull CacheStatsDTO getStockCacheStats() {
+        return stockService.getCacheStats();
     }
 
+    @GetMapping("getRuntimeStats")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull RuntimeStatsDTO getRuntimeStats(final @RequestParam(value = "resetPeak", defaultValue = "false") boolean resetPeak) {
+        return runtimeService.getStats(resetPeak);
+    }
+
+    /**
+     * The user of the result holds only the position in the traded stock, unless the whole portfolio is asked for.
+     */
     @PostMapping("stockOp")
     @ResponseStatus(HttpStatus.OK)
-    public @NotNull @NonNull StockOperationResponseDTO performStockOperation(final @NotNull @NonNull @RequestBody StockOperationRequestDTO request) {
+    public @NotNull @NonNull StockOperationResponseDTO performStockOperation(final @NotNull @NonNull @RequestBody StockOperationRequestDTO request, final @RequestParam(value = "portfolio", defaultValue = "false") boolean portfolio) {
         final @NotNull @NonNull Stock stock = stockService.findByIndex(request.getStockIndex()).orElseThrow(() -> new NoSuchElementException("Cannot find requested stock with index " + request.getStockIndex()));
         final @NotNull @NonNull User user = userService.findByLogin(request.getUserLogin()).orElseThrow(() -> new NoSuchElementException("Cannot find user with login " + request.getUserLogin()));
         final StockOperation operation = StockOperation
@@ -98,7 +240,55 @@ public class ExchangeController {
                 .user(user)
                 .amount(request.getAmount())
                 .build();
-        return transactionService.performStockOperation(operation);
+        return transactionService.performStockOperation(operation, portfolio);
+    }
+
+    /**
+     * The same trade in the fixed-layout encoding of {@link BinaryStockOperationCodec}, answered with only what it has changed.
+     */
+    @PostMapping(value = "stockOp", consumes = BinaryStockOperationCodec.MEDIA_TYPE_VALUE, produces = BinaryStockOperationCodec.MEDIA_TYPE_VALUE)
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull StockOperationReceiptDTO performBinaryStockOperation(final @NotNull @NonNull @RequestBody StockOperationRequestDTO request) {
+        return StockOperationReceiptDTO.of(performStockOperation(request, false));
+    }
+
+    @PostMapping("stockOps")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull BatchStockOperationResponseDTO performStockOperations(final @NotNull @NonNull @RequestBody BatchStockOperationRequestDTO request) {
+        return transactionService.performStockOperations(request.getMode(), request.getOperations());
+    }
+
+    /**
+     * Users and stocks of the request body, read line by line, see {@link BulkImporter}.
+     */
+    @PostMapping(value = "bulkImport", consumes = "text/csv")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull BulkImportResultDTO importCsv(final @NotNull @NonNull HttpServletRequest request) throws IOException {
+        return bulkImporter.importRows(request.getInputStream(), ImportFormat.CSV);
+    }
+
+    @PostMapping(value = "bulkImport", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull BulkImportResultDTO importNdjson(final @NotNull @NonNull HttpServletRequest request) throws IOException {
+        return bulkImporter.importRows(request.getInputStream(), ImportFormat.NDJSON);
+    }
+
+    @PostMapping("placeOrder")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull OrderDTO placeOrder(final @NotNull @NonNull @RequestBody LimitOrderRequestDTO request) {
+        return transactionService.placeOrder(request);
+    }
+
+    @GetMapping("cancelOrder")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull OrderDTO cancelOrder(final @NotNull @NonNull @RequestParam("login") String login, final @NotNull @NonNull @RequestParam("index") String index, final @RequestParam("orderId") long orderId) {
+        return transactionService.cancelOrder(login, index, orderId);
+    }
+
+    @GetMapping("getOrderBook")
+    @ResponseStatus(HttpStatus.OK)
+    public @NotNull @NonNull OrderBookDTO getOrderBook(final @NotNull @NonNull @RequestParam("index") String index, final @RequestParam(value = "depth", defaultValue = "10") int depth) {
+        return transactionService.getOrderBook(index, depth);
     }
 
     @ExceptionHandler(IllegalArgumentException.class)
@@ -113,6 +303,18 @@ public class ExchangeController {
         return ex.getMessage();
     }
 
+    @ExceptionHandler(ConcurrencyFailureException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public String handleError(final HttpServletRequest req, final @NotNull @NonNull ConcurrencyFailureException ex) {
+        return ex.getMessage();
+    }
+
+    @ExceptionHandler({CannotCreateTransactionException.class, DataAccessResourceFailureException.class, RejectedExecutionException.class})
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String handleUnavailable(final HttpServletRequest req, final @NotNull @NonNull RuntimeException ex) {
+        return ex.getMessage();
+    }
+
     @ExceptionHandler(RuntimeException.class)
     @ResponseStatus(HttpStatus.BAD_GATEWAY)
     public String handleError(final HttpServletRequest req, final @NotNull @NonNull RuntimeException ex) {
@@ -0,0 +1,111 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.rest;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.QuoteFeedProperties;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.QuoteSubscription;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.QuoteDTO;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes quotes of subscriptions to servlet event streams. Every stream is written by its own delivery thread
+ * while it has quotes to write, at most one at a time, so a subscriber which reads slowly blocks only its own stream
+ * and has its quotes conflated meanwhile. Threads are bounded by the number of open streams.
+ */
+@Component
+public class QuoteEventStreams {
+    private static final int BATCH_SIZE = 64;
+
+    private final @NotNull @NonNull QuoteFeedProperties properties;
+    private final @NotNull @NonNull ExecutorService delivery;
+    private final @NotNull @NonNull AtomicInteger openStreams = new AtomicInteger();
+
+    public QuoteEventStreams(final @NotNull @NonNull QuoteFeedProperties properties, final @NotNull @NonNull VirtualThreadsProperties virtualThreads) {
+        this.properties = properties;
+        this.delivery = virtualThreads.isEnabled()
+                ? VirtualThreadsConfiguration.newVirtualThreadPerTaskExecutor("exchange-quote-delivery-")
+                : Executors.newCachedThreadPool(r -> {
+                    final Thread thread = new Thread(r, "exchange-quote-delivery");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * @throws RejectedExecutionException when {@code exchange.quote-feed.max-streams} streams are open already
+     */
+    public @NotNull @NonNull SseEmitter open(final @NotNull @NonNull QuoteSubscription subscription) {
+        if (openStreams.incrementAndGet() > properties.getMaxStreams()) {
+            openStreams.decrementAndGet();
+            subscription.close();
+            throw new RejectedExecutionException(String.format("Cannot open more than %d quote streams", properties.getMaxStreams()));
+        }
+        final SseEmitter emitter = new SseEmitter(properties.getStreamTimeout().toMillis());
+        final AtomicBoolean scheduled = new AtomicBoolean(true);
+        final AtomicBoolean closed = new AtomicBoolean();
+        final Runnable close = () -> {
+            if (closed.compareAndSet(false, true)) {
+                subscription.close();
+                openStreams.decrementAndGet();
+            }
+        };
+        final Runnable drain = () -> drain(subscription, emitter, scheduled, close);
+        emitter.onCompletion(close);
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> close.run());
+        subscription.setListener(() -> {
+            if (scheduled.compareAndSet(false, true)) {
+                submit(drain, emitter);
+            }
+        });
+        // Quotes offered before the listener was set, the current values of the stocks at least
+        submit(drain, emitter);
+        return emitter;
+    }
+
+    private void submit(final @NotNull @NonNull Runnable drain, final @NotNull @NonNull SseEmitter emitter) {
+        try {
+            delivery.execute(drain);
+        } catch (final RejectedExecutionException e) {
+            emitter.complete();
+        }
+    }
+
+    private static void drain(final @NotNull @NonNull QuoteSubscription subscription, final @NotNull @NonNull SseEmitter emitter, final @NotNull @NonNull AtomicBoolean scheduled, final @NotNull @NonNull Runnable close) {
+        while (true) {
+            final List<QuoteDTO> quotes = subscription.poll(BATCH_SIZE);
+            if (quotes.isEmpty()) {
+                scheduled.set(false);
+                // A quote offered before the flag was cleared did not notify the listener, so it is picked up here
+                if (!subscription.hasPending() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                for (final QuoteDTO quote : quotes) {
+                    emitter.send(SseEmitter.event().name("quote").data(quote));
+                }
+            } catch (final IOException | IllegalStateException e) {
+                // The subscriber has gone or the stream has timed out
+                close.run();
+                return;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        delivery.shutdownNow();
+    }
+}
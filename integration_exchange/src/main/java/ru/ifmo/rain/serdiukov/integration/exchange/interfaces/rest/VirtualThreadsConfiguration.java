@@ -0,0 +1,51 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.rest;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.ProtocolHandler;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs servlet requests on virtual threads, so that a request blocked on the database costs no platform thread.
+ * The application is still built for Java 17, hence virtual threads are created reflectively.
+ * <p>
+ * H2 does its I/O inside {@code synchronized} blocks, which pin the carrier thread of a virtual thread,
+ * so it should be used together with the connection limiter, which keeps the rest of the requests parked cheaply.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(prefix = "exchange.virtual-threads", name = "enabled", havingValue = "true")
+public class VirtualThreadsConfiguration {
+    @Bean
+    public @NotNull @NonNull TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadsProtocolHandlerCustomizer() {
+        final ExecutorService executor = newVirtualThreadPerTaskExecutor("exchange-virtual-");
+        log.info("Servlet requests are handled on virtual threads");
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    static @NotNull @NonNull ExecutorService newVirtualThreadPerTaskExecutor(final @NotNull @NonNull String prefix) {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            final ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        } catch (final ClassNotFoundException | NoSuchMethodException e) {
+            throw new IllegalStateException(String.format("Virtual threads require Java 21 or newer, running on %s", Runtime.version()), e);
+        } catch (final InvocationTargetException e) {
+            // Java 19 and 20 only have virtual threads as a preview feature
+            throw new IllegalStateException(String.format("Virtual threads are not available on %s", Runtime.version()), e.getCause());
+        } catch (final IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
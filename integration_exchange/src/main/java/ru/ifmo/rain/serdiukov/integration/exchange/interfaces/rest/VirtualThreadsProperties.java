@@ -0,0 +1,14 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.interfaces.rest;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "exchange.virtual-threads")
+public class VirtualThreadsProperties {
+    /**
+     * When enabled, Tomcat handles every request of {@code /api/1} on a new virtual thread instead of its bounded pool
+     * of platform threads. Requires Java 21 or newer at runtime.
+     */
+    private boolean enabled = false;
+}
@@ -0,0 +1,34 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.repository;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * Puts {@link ConnectionLimitingDataSource} in front of the application data source when the limiter is enabled.
+ */
+@Slf4j
+@Component
+public class ConnectionLimiterPostProcessor implements BeanPostProcessor {
+    private final @NotNull @NonNull ConnectionLimiterProperties properties;
+
+    public ConnectionLimiterPostProcessor(final @NotNull @NonNull Environment environment) {
+        // Bound by hand, since post processors are created before configuration properties beans
+        this.properties = Binder.get(environment).bindOrCreate("exchange.connection-limiter", ConnectionLimiterProperties.class);
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(final @NotNull @NonNull Object bean, final @NotNull @NonNull String beanName) {
+        if (!properties.isEnabled() || !(bean instanceof DataSource dataSource) || bean instanceof ConnectionLimitingDataSource) {
+            return bean;
+        }
+        log.info("Data source {} hands out at most {} connections at once", beanName, properties.getMaxConcurrency());
+        return new ConnectionLimitingDataSource(dataSource, properties);
+    }
+}
@@ -0,0 +1,23 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.repository;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "exchange.connection-limiter")
+public class ConnectionLimiterProperties {
+    /**
+     * When enabled, at most {@code maxConcurrency} database connections are handed out at once, the rest of callers
+     * wait for at most {@code acquireTimeout} in FIFO order and are then answered with 503 Service Unavailable.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Should not exceed the size of the connection pool, so that callers wait here rather than inside the pool.
+     */
+    private int maxConcurrency = 10;
+
+    private Duration acquireTimeout = Duration.ofSeconds(5);
+}
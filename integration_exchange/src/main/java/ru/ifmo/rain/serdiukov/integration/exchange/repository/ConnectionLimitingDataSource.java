@@ -0,0 +1,86 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.repository;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hands out at most the given number of connections at once, a permit is returned when the connection is closed.
+ * Callers over the limit wait in FIFO order and fail fast with {@link SQLTransientConnectionException} after the timeout.
+ */
+public class ConnectionLimitingDataSource extends DelegatingDataSource {
+    private final @NotNull @NonNull Semaphore permits;
+    private final long acquireTimeoutNanos;
+
+    public ConnectionLimitingDataSource(final @NotNull @NonNull DataSource dataSource, final @NotNull @NonNull ConnectionLimiterProperties properties) {
+        super(dataSource);
+        this.permits = new Semaphore(properties.getMaxConcurrency(), true);
+        this.acquireTimeoutNanos = properties.getAcquireTimeout().toNanos();
+    }
+
+    @Override
+    public @NotNull @NonNull Connection getConnection() throws SQLException {
+        acquire();
+        try {
+            return limited(super.getConnection());
+        } catch (final SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public @NotNull @NonNull Connection getConnection(final String username, final String password) throws SQLException {
+        acquire();
+        try {
+            return limited(super.getConnection(username, password));
+        } catch (final SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public int getWaiting() {
+        return permits.getQueueLength();
+    }
+
+    private void acquire() throws SQLException {
+        try {
+            if (!permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                throw new SQLTransientConnectionException(String.format("No database connection became available within %d ms, %d more callers are waiting", TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos), permits.getQueueLength()));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database connection", e);
+        }
+    }
+
+    private @NotNull @NonNull Connection limited(final @NotNull @NonNull Connection connection) {
+        final AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            if ("close".equals(method.getName()) && method.getParameterCount() == 0 && released.compareAndSet(false, true)) {
+                try {
+                    connection.close();
+                } finally {
+                    permits.release();
+                }
+                return null;
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+}
@@ -0,0 +1,9 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.EngineWatermark;
+
+@Repository
+public interface EngineWatermarkRepository extends JpaRepository<EngineWatermark, Long> {
+}
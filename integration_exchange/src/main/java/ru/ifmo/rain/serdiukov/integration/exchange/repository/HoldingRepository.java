@@ -0,0 +1,73 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.repository;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Holding;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+@Repository
+public interface HoldingRepository extends JpaRepository<Holding, Long> {
+    @Query("select h.amount from Holding h where h.user.id = :userId and h.stock.id = :stockId")
+    @NotNull @NonNull Optional<Long> findAmount(@Param("userId") long userId, @Param("stockId") long stockId);
+
+    @Modifying
+    @Query("update Holding h set h.amount = h.amount + :amount where h.user.id = :userId and h.stock.id = :stockId")
+    int increaseAmount(@Param("userId") long userId, @Param("stockId") long stockId, @Param("amount") long amount);
+
+    @Modifying
+    @Query("update Holding h set h.amount = h.amount - :amount where h.user.id = :userId and h.stock.id = :stockId and h.amount >= :amount")
+    int decreaseAmount(@Param("userId") long userId, @Param("stockId") long stockId, @Param("amount") long amount);
+
+    @Modifying
+    @Query("delete from Holding h where h.user.id = :userId and h.stock.id = :stockId and h.amount = 0")
+    int deleteIfEmpty(@Param("userId") long userId, @Param("stockId") long stockId);
+
+    @Modifying
+    @Query("update Holding h set h.amount = :amount where h.user.id = :userId and h.stock.id = :stockId")
+    int setAmount(@Param("userId") long userId, @Param("stockId") long stockId, @Param("amount") long amount);
+
+    @Modifying
+    @Query("delete from Holding h where h.user.id = :userId and h.stock.id = :stockId")
+    int deleteHolding(@Param("userId") long userId, @Param("stockId") long stockId);
+
+    @Query("select h from Holding h join fetch h.stock where h.user.id = :userId")
+    @NotNull @NonNull List<Holding> findByUserIdFetchStock(@Param("userId") long userId);
+
+    @Query("select h from Holding h join fetch h.stock where h.user.id in :userIds")
+    @NotNull @NonNull List<Holding> findByUserIdsFetchStock(@Param("userIds") Collection<Long> userIds);
+
+    @Query("select h from Holding h where h.user.id in :userIds and h.stock.id in :stockIds")
+    @NotNull @NonNull List<Holding> findByUserIdsAndStockIds(@Param("userIds") Collection<Long> userIds, @Param("stockIds") Collection<Long> stockIds);
+
+    @Query("select h from Holding h join fetch h.user join fetch h.stock")
+    @NotNull @NonNull List<Holding> findAllFetchUserAndStock();
+
+    @Query("select h.user.id as userId, h.user.login as login, h.amount as amount from Holding h where h.stock.id = :stockId and h.user.id > :afterUserId order by h.user.id")
+    @NotNull @NonNull List<Holder> findHolders(@Param("stockId") long stockId, @Param("afterUserId") long afterUserId, @NotNull @NonNull Pageable page);
+
+    interface Holder {
+        long getUserId();
+
+        String getLogin();
+
+        long getAmount();
+    }
+
+    default @NotNull @NonNull Map<Stock, Long> findPortfolio(final long userId) {
+        final Map<Stock, Long> portfolio = new HashMap<>();
+        findByUserIdFetchStock(userId).forEach(h -> portfolio.put(h.getStock(), h.getAmount()));
+        return portfolio;
+    }
+}
@@ -0,0 +1,70 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.repository;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Moves the data of a database written by an older version of the exchange, once, before the engine or a request reads it.
+ * Tables and columns are added by Hibernate, which leaves the old ones alone: portfolios of the {@code user_portfolio} table,
+ * where they were stored as an element collection of the user, are copied to {@code holding} and the old table is dropped,
+ * so the copy is not made again by the next start. Holdings values are recomputed along with the copy, or when
+ * {@link SchemaMigrationsProperties#isRecomputeHoldingsValues()} asks for it, but never by every start.
+ */
+@Slf4j
+@Component
+public class SchemaMigrations {
+    private static final String LEGACY_PORTFOLIO_TABLE = "USER_PORTFOLIO";
+    private static final String COPY_PORTFOLIOS = "insert into holding (id, user_id, stock_id, amount) "
+            + "select next value for hibernate_sequence, p.user_id, p.portfolio_key, p.portfolio from user_portfolio p "
+            + "where p.portfolio > 0 and not exists (select 1 from holding h where h.user_id = p.user_id and h.stock_id = p.portfolio_key)";
+
+    private final @NotNull @NonNull JdbcTemplate jdbcTemplate;
+    private final @NotNull @NonNull TransactionTemplate transactionTemplate;
+    private final @NotNull @NonNull UserRepository userRepository;
+    private final @NotNull @NonNull SchemaMigrationsProperties properties;
+
+    public SchemaMigrations(
+            final @NotNull @NonNull JdbcTemplate jdbcTemplate,
+            final @NotNull @NonNull PlatformTransactionManager transactionManager,
+            final @NotNull @NonNull UserRepository userRepository,
+            final @NotNull @NonNull SchemaMigrationsProperties properties
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.userRepository = userRepository;
+        this.properties = properties;
+    }
+
+    @PostConstruct
+    public void migrate() {
+        if (tableExists(LEGACY_PORTFOLIO_TABLE)) {
+            transactionTemplate.executeWithoutResult(status -> {
+                final int copied = jdbcTemplate.update(COPY_PORTFOLIOS);
+                // Values of the holdings were not stored before the holdings themselves
+                userRepository.recomputeHoldingsValues();
+                // Last, since H2 commits before a DDL statement
+                jdbcTemplate.execute("drop table user_portfolio");
+                log.info("Copied {} positions of the old portfolio table to the holdings", copied);
+            });
+        } else if (properties.isRecomputeHoldingsValues()) {
+            final Integer updated = transactionTemplate.execute(status -> userRepository.recomputeHoldingsValues());
+            log.info("Recomputed holdings values of {} users", updated);
+        }
+    }
+
+    private boolean tableExists(final @NotNull @NonNull String table) {
+        final Integer count = jdbcTemplate.queryForObject(
+                "select count(*) from information_schema.tables where table_schema = schema() and table_name = ?",
+                Integer.class,
+                table
+        );
+        return count != null && count > 0;
+    }
+}
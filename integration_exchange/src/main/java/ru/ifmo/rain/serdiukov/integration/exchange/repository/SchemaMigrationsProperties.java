@@ -0,0 +1,15 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.repository;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "exchange.schema-migrations")
+public class SchemaMigrationsProperties {
+    /**
+     * Holdings values are maintained incrementally and recomputed by the migration of the old portfolio table only.
+     * When enabled, they are recomputed by a full update of the users on startup, for a database whose values were lost
+     * or changed behind the exchange's back; it is meant for a single start, not to be left on.
+     */
+    private boolean recomputeHoldingsValues = false;
+}
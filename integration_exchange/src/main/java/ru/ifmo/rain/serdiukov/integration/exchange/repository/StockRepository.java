@@ -2,13 +2,74 @@ package ru.ifmo.rain.serdiukov.integration.exchange.repository;
 
 import lombok.NonNull;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface StockRepository extends JpaRepository<Stock, Long> {
     @NotNull @NonNull Optional<Stock> findByIndex(final @NotNull @NonNull String index);
+
+    @NotNull @NonNull List<Stock> findByIndexIn(final @NotNull @NonNull Collection<String> indices);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s from Stock s where s.index in :indices order by s.index")
+    @NotNull @NonNull List<Stock> findByIndexInForUpdate(final @NotNull @NonNull @Param("indices") Collection<String> indices);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s from Stock s where s.index = :index")
+    @NotNull @NonNull Optional<Stock> findByIndexForUpdate(final @NotNull @NonNull @Param("index") String index);
+
+    @Modifying
+    @Query("update Stock s set s.availableAmount = s.availableAmount - :amount, s.version = s.version + 1 where s.index = :index and s.price = :price and s.availableAmount >= :amount")
+    int decreaseAvailableAmount(@Param("index") String index, @Param("amount") long amount, @Param("price") long price);
+
+    @Modifying
+    @Query("update Stock s set s.availableAmount = s.availableAmount + :amount, s.version = s.version + 1 where s.index = :index and s.price = :price")
+    int increaseAvailableAmount(@Param("index") String index, @Param("amount") long amount, @Param("price") long price);
+
+    /**
+     * Overwrites the stock with the state of the engine, which is the only writer of the stocks when it is enabled.
+     */
+    @Modifying
+    @Query("update Stock s set s.price = :price, s.availableAmount = :availableAmount, s.version = :version where s.id = :id")
+    int writeBack(@Param("id") long id, @Param("price") long price, @Param("availableAmount") long availableAmount, @Param("version") long version);
+
+    @Query("select s.id as id, s.index as index, s.name as name, s.price as price, s.availableAmount as availableAmount from Stock s where s.id > :afterId and s.price between :minPrice and :maxPrice order by s.id")
+    @NotNull @NonNull List<Listed> findPage(@Param("afterId") long afterId, @Param("minPrice") long minPrice, @Param("maxPrice") long maxPrice, @NotNull @NonNull Pageable page);
+
+    /**
+     * Rows are fetched from the database by {@link #STREAM_FETCH_SIZE} and are not kept by the persistence context,
+     * so the stream should be read within a transaction and closed.
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE))
+    @Query("select s.id as id, s.index as index, s.name as name, s.price as price, s.availableAmount as availableAmount from Stock s where s.price between :minPrice and :maxPrice order by s.id")
+    @NotNull @NonNull Stream<Listed> streamAll(@Param("minPrice") long minPrice, @Param("maxPrice") long maxPrice);
+
+    String STREAM_FETCH_SIZE = "1000";
+
+    interface Listed {
+        long getId();
+
+        String getIndex();
+
+        String getName();
+
+        long getPrice();
+
+        long getAvailableAmount();
+    }
 }
@@ -2,13 +2,71 @@ package ru.ifmo.rain.serdiukov.integration.exchange.repository;
 
 import lombok.NonNull;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     @NotNull @NonNull Optional<User> findByLogin(final @NotNull @NonNull String login);
+
+    @NotNull @NonNull List<User> findByLoginIn(final @NotNull @NonNull Collection<String> logins);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select u from User u where u.login in :logins order by u.login")
+    @NotNull @NonNull List<User> findByLoginInForUpdate(final @NotNull @NonNull @Param("logins") Collection<String> logins);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select u from User u where u.login = :login")
+    @NotNull @NonNull Optional<User> findByLoginForUpdate(final @NotNull @NonNull @Param("login") String login);
+
+    @Modifying
+    @Query("update User u set u.balance = u.balance - :amount, u.holdingsValue = u.holdingsValue + :amount, u.version = u.version + 1 where u.login = :login and u.balance >= :amount")
+    int debitBalanceForHoldings(@Param("login") String login, @Param("amount") long amount);
+
+    @Modifying
+    @Query("update User u set u.balance = u.balance + :amount, u.holdingsValue = u.holdingsValue - :amount, u.version = u.version + 1 where u.login = :login")
+    int creditBalanceFromHoldings(@Param("login") String login, @Param("amount") long amount);
+
+    @Modifying
+    @Query("update User u set u.holdingsValue = u.holdingsValue + :priceDelta * (select h.amount from Holding h where h.user = u and h.stock.id = :stockId), u.version = u.version + 1 where exists (select h from Holding h where h.user = u and h.stock.id = :stockId)")
+    int revalueHoldings(@Param("stockId") long stockId, @Param("priceDelta") long priceDelta);
+
+    @Modifying
+    @Query("update User u set u.holdingsValue = (select coalesce(sum(h.amount * s.price), 0) from Holding h, Stock s where h.stock = s and h.user = u)")
+    int recomputeHoldingsValues();
+
+    @Query("select u.id as id, u.login as login, u.name as name, u.balance as balance from User u where u.id > :afterId and u.balance >= :minBalance order by u.id")
+    @NotNull @NonNull List<Listed> findPage(@Param("afterId") long afterId, @Param("minBalance") long minBalance, @NotNull @NonNull Pageable page);
+
+    /**
+     * Rows are fetched from the database by {@link StockRepository#STREAM_FETCH_SIZE} and are not kept by the persistence context,
+     * so the stream should be read within a transaction and closed.
+     */
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = StockRepository.STREAM_FETCH_SIZE))
+    @Query("select u.id as id, u.login as login, u.name as name, u.balance as balance from User u where u.balance >= :minBalance order by u.id")
+    @NotNull @NonNull Stream<Listed> streamAll(@Param("minBalance") long minBalance);
+
+    interface Listed {
+        long getId();
+
+        String getLogin();
+
+        String getName();
+
+        long getBalance();
+    }
 }
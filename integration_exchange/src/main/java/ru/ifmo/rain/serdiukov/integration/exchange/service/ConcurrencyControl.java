@@ -0,0 +1,107 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.service;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.StockRepository;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.UserRepository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Runs read-modify-write transactions on stocks and users according to the configured {@link ConcurrencyMode}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConcurrencyControl {
+    private final @NotNull @NonNull ConcurrencyProperties properties;
+    private final @NotNull @NonNull TransactionTemplate transactionTemplate;
+    private final @NotNull @NonNull UserRepository userRepository;
+    private final @NotNull @NonNull StockRepository stockRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public @NotNull @NonNull ConcurrencyMode getMode() {
+        return properties.getMode();
+    }
+
+    public <T> T execute(final @NotNull @NonNull Supplier<T> action) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> {
+                    // Entities read before the transaction (e.g. by the controller) must not hide concurrent changes
+                    entityManager.clear();
+                    return action.get();
+                });
+            } catch (final ConcurrencyFailureException e) {
+                if (attempt >= properties.getMaxAttempts()) {
+                    throw e;
+                }
+                log.debug("Concurrent update detected, retrying (attempt {})", attempt, e);
+                backoff(attempt);
+            }
+        }
+    }
+
+    private void backoff(final int attempt) {
+        final long initial = properties.getInitialBackoff().toNanos();
+        final long max = Math.max(initial, properties.getMaxBackoff().toNanos());
+        final long bound = (attempt >= Long.SIZE - 1 || (initial << (attempt - 1)) > max) ? max : (initial << (attempt - 1));
+        final long delay = (bound > 0) ? ThreadLocalRandom.current().nextLong(bound / 2, bound + 1) : 0;
+        try {
+            Thread.sleep(delay / 1_000_000, (int) (delay % 1_000_000));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry the transaction", e);
+        }
+    }
+
+    /**
+     * Reads the user which is about to be modified, must be called inside {@link #execute} before {@link #loadStock}.
+     */
+    public @NotNull @NonNull User loadUser(final @NotNull @NonNull String login) {
+        return ((properties.getMode() == ConcurrencyMode.PESSIMISTIC) ? userRepository.findByLoginForUpdate(login) : userRepository.findByLogin(login))
+                .orElseThrow(() -> new NoSuchElementException("Cannot find user with login = " + login));
+    }
+
+    /**
+     * Reads the stock which is about to be modified, must be called inside {@link #execute}.
+     */
+    public @NotNull @NonNull Stock loadStock(final @NotNull @NonNull String index) {
+        return ((properties.getMode() == ConcurrencyMode.PESSIMISTIC) ? stockRepository.findByIndexForUpdate(index) : stockRepository.findByIndex(index))
+                .orElseThrow(() -> new NoSuchElementException("Cannot find stock with index = " + index));
+    }
+
+    /**
+     * Reads all users of a batch, locking them in the order of their logins.
+     */
+    public @NotNull @NonNull Map<String, User> loadUsers(final @NotNull @NonNull Collection<String> logins) {
+        final Map<String, User> users = new HashMap<>();
+        ((properties.getMode() == ConcurrencyMode.PESSIMISTIC) ? userRepository.findByLoginInForUpdate(logins) : userRepository.findByLoginIn(logins)).forEach(user -> users.put(user.getLogin(), user));
+        return users;
+    }
+
+    /**
+     * Reads all stocks of a batch after its users, locking them in the order of their indices.
+     */
+    public @NotNull @NonNull Map<String, Stock> loadStocks(final @NotNull @NonNull Collection<String> indices) {
+        final Map<String, Stock> stocks = new HashMap<>();
+        ((properties.getMode() == ConcurrencyMode.PESSIMISTIC) ? stockRepository.findByIndexInForUpdate(indices) : stockRepository.findByIndexIn(indices)).forEach(stock -> stocks.put(stock.getIndex(), stock));
+        return stocks;
+    }
+}
@@ -0,0 +1,17 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.service;
+
+public enum ConcurrencyMode {
+    /**
+     * Entities are read without locks, conflicting updates are detected by {@code @Version} and the whole transaction is retried.
+     */
+    OPTIMISTIC,
+    /**
+     * Entities are read with {@code SELECT ... FOR UPDATE}, users are always locked before stocks.
+     */
+    PESSIMISTIC,
+    /**
+     * Trades are executed by conditional {@code UPDATE} statements which check balances and amounts in the database,
+     * other updates are isolated as in {@link #OPTIMISTIC} mode.
+     */
+    CONDITIONAL
+}
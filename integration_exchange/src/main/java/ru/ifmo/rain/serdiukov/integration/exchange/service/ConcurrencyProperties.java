@@ -0,0 +1,24 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "exchange.concurrency")
+public class ConcurrencyProperties {
+    /**
+     * How concurrent updates of the same stock or user are isolated when the engine is disabled.
+     */
+    private ConcurrencyMode mode = ConcurrencyMode.CONDITIONAL;
+
+    /**
+     * How many times a transaction is executed before a concurrency failure is reported to the client.
+     */
+    private int maxAttempts = 10;
+
+    private Duration initialBackoff = Duration.ofMillis(1);
+
+    private Duration maxBackoff = Duration.ofMillis(50);
+}
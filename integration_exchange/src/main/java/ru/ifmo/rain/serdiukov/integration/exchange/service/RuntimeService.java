@@ -0,0 +1,39 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.service;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Service;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.RuntimeStatsDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.ConnectionLimitingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+
+@Service
+@RequiredArgsConstructor
+public class RuntimeService {
+    private final @NotNull @NonNull ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final @NotNull @NonNull MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final @NotNull @NonNull DataSource dataSource;
+
+    /**
+     * @param resetPeak whether the peak thread count should start over from the current count after it is read.
+     */
+    public @NotNull @NonNull RuntimeStatsDTO getStats(final boolean resetPeak) {
+        final RuntimeStatsDTO stats = RuntimeStatsDTO
+                .builder()
+                .liveThreads(threads.getThreadCount())
+                .peakThreads(threads.getPeakThreadCount())
+                .daemonThreads(threads.getDaemonThreadCount())
+                .heapUsed(memory.getHeapMemoryUsage().getUsed())
+                .connectionWaiters((dataSource instanceof ConnectionLimitingDataSource limited) ? limited.getWaiting() : 0)
+                .build();
+        if (resetPeak) {
+            threads.resetPeakThreadCount();
+        }
+        return stats;
+    }
+}
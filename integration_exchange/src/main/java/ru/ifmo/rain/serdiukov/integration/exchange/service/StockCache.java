@@ -0,0 +1,73 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.NonNull;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Component;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of stocks by index. Entries are detached copies, so callers never share mutable entities,
+ * and an entry is only replaced by a stock with the same or newer version.
+ */
+@Component
+public class StockCache {
+    private final boolean enabled;
+    private final @NotNull @NonNull Cache<String, Stock> cache;
+
+    public StockCache(final @NotNull @NonNull StockCacheProperties properties) {
+        this.enabled = properties.isEnabled();
+        this.cache = Caffeine
+                .newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .recordStats()
+                .build();
+    }
+
+    public @NotNull @NonNull Optional<Stock> get(final @NotNull @NonNull String index, final @NotNull @NonNull Function<String, Optional<Stock>> loader) {
+        if (!enabled) {
+            return loader.apply(index);
+        }
+        final Stock cached = cache.getIfPresent(index);
+        if (cached != null) {
+            return Optional.of(copy(cached));
+        }
+        final Optional<Stock> loaded = loader.apply(index);
+        loaded.ifPresent(this::update);
+        return loaded;
+    }
+
+    /**
+     * Must be called with the state of the stock after the transaction which changed it has been committed.
+     */
+    public void update(final @NotNull @NonNull Stock stock) {
+        if (enabled) {
+            cache.asMap().merge(stock.getIndex(), copy(stock), (cached, fresh) -> (fresh.getVersion() >= cached.getVersion()) ? fresh : cached);
+        }
+    }
+
+    public @NotNull @NonNull CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private static @NotNull @NonNull Stock copy(final @NotNull @NonNull Stock stock) {
+        return Stock
+                .builder()
+                .id(stock.getId())
+                .index(stock.getIndex())
+                .name(stock.getName())
+                .price(stock.getPrice())
+                .availableAmount(stock.getAvailableAmount())
+                .version(stock.getVersion())
+                .build();
+    }
+}
@@ -0,0 +1,15 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.service;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Data
+@ConfigurationProperties(prefix = "exchange.stock-cache")
+public class StockCacheProperties {
+    /**
+     * When enabled, stocks looked up by index are served from memory, the cache is updated after every committed change.
+     */
+    private boolean enabled = true;
+
+    private long maximumSize = 10_000;
+}
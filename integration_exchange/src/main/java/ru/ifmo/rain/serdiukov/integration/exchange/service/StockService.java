@@ -1,25 +1,64 @@
 package ru.ifmo.rain.serdiukov.integration.exchange.service;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.engine.ExchangeEngine;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.CandleAggregator;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.CandleResolution;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.QuoteFeed;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.QuoteSubscription;
+import ru.ifmo.rain.serdiukov.integration.exchange.history.TradeHistory;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.CacheStatsDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.CandlesDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockHolderDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockHoldersPageDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StocksPageDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.TradeHistoryPageDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.HoldingRepository;
 import ru.ifmo.rain.serdiukov.integration.exchange.repository.StockRepository;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.UserRepository;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class StockService {
+    private static final int MAX_HOLDERS_PAGE_SIZE = 1000;
+    private static final int MAX_STOCKS_PAGE_SIZE = 1000;
+
     private final StockRepository stockRepository;
+    private final HoldingRepository holdingRepository;
+    private final UserRepository userRepository;
+    private final ExchangeEngine engine;
+    private final ConcurrencyControl concurrencyControl;
+    private final StockCache stockCache;
+    private final QuoteFeed quoteFeed;
+    private final TradeHistory tradeHistory;
+    private final CandleAggregator candles;
+    private final PlatformTransactionManager transactionManager;
 
     public @NotNull @NonNull Optional<Stock> findByIndex(final @NotNull @NonNull String index) {
-        return stockRepository.findByIndex(index);
+        if (engine.isEnabled()) {
+            return engine.findStock(index);
+        }
+        return stockCache.get(index, stockRepository::findByIndex);
     }
 
-    private void validateStock(final @NotNull @NonNull Stock stock) {
+    public void validateStock(final @NotNull @NonNull Stock stock) {
         if (stock.getAvailableAmount() < 0) {
             throw new IllegalArgumentException("Stock amount might not be negative");
         }
@@ -39,25 +78,192 @@ public class StockService {
             );
         } else {
             validateStock(stock);
-            return stockRepository.save(stock);
+            final @NotNull @NonNull Stock saved = stockRepository.save(stock);
+            stockCache.update(saved);
+            if (engine.isEnabled()) {
+                return engine.registerStock(saved);
+            }
+            quoteFeed.publish(saved);
+            return saved;
         }
     }
 
     public Stock updateStockPrice(final @NotNull @NonNull String stockIndex, final long newPrice) {
+        checkPrice(newPrice);
+        if (engine.isEnabled()) {
+            return engine.updateStockPrice(stockIndex, newPrice);
+        }
+        final @NotNull @NonNull Stock updated = concurrencyControl.execute(() -> {
+            // Not locked in any mode but checked by @Version on commit, so that holders are locked before the stock as in trades
+            final @NotNull @NonNull Stock stock = stockRepository.findByIndex(stockIndex).orElseThrow(() -> new NoSuchElementException("Cannot find stock with index = " + stockIndex));
+            userRepository.revalueHoldings(stock.getId(), newPrice - stock.getPrice());
+            stock.setPrice(newPrice);
+            return stockRepository.save(stock);
+        });
+        stockCache.update(updated);
+        quoteFeed.publish(updated);
+        candles.priceUpdated(stockIndex, newPrice);
+        return updated;
+    }
+
+    /**
+     * Does not block the caller when the engine is enabled, otherwise the price is updated before it returns.
+     */
+    public @NotNull @NonNull CompletableFuture<Stock> updateStockPriceAsync(final @NotNull @NonNull String stockIndex, final long newPrice) {
+        if (!engine.isEnabled()) {
+            return CompletableFuture.completedFuture(updateStockPrice(stockIndex, newPrice));
+        }
+        checkPrice(newPrice);
+        return engine.updateStockPriceAsync(stockIndex, newPrice);
+    }
+
+    private static void checkPrice(final long newPrice) {
         if (newPrice <= 0) {
             throw new IllegalArgumentException("Stock price should be positive");
         }
-        final @NotNull @NonNull Stock stock = findByIndex(stockIndex).orElseThrow(() -> new NoSuchElementException("Cannot find stock with index = " + stockIndex));
-        stock.setPrice(newPrice);
-        return stockRepository.save(stock);
     }
 
     public Stock increaseStockAmount(final @NotNull @NonNull String stockIndex, final long amount) {
+        checkAmount(amount);
+        if (engine.isEnabled()) {
+            return engine.increaseStockAmount(stockIndex, amount);
+        }
+        final @NotNull @NonNull Stock updated = concurrencyControl.execute(() -> {
+            final @NotNull @NonNull Stock stock = concurrencyControl.loadStock(stockIndex);
+            stock.setAvailableAmount(stock.getAvailableAmount() + amount);
+            return stockRepository.save(stock);
+        });
+        stockCache.update(updated);
+        quoteFeed.publish(updated);
+        return updated;
+    }
+
+    /**
+     * Does not block the caller when the engine is enabled, otherwise the amount is increased before it returns.
+     */
+    public @NotNull @NonNull CompletableFuture<Stock> increaseStockAmountAsync(final @NotNull @NonNull String stockIndex, final long amount) {
+        if (!engine.isEnabled()) {
+            return CompletableFuture.completedFuture(increaseStockAmount(stockIndex, amount));
+        }
+        checkAmount(amount);
+        return engine.increaseStockAmountAsync(stockIndex, amount);
+    }
+
+    private static void checkAmount(final long amount) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Cannot decrease stock amount");
         }
-        final @NotNull @NonNull Stock stock = findByIndex(stockIndex).orElseThrow(() -> new NoSuchElementException("Cannot find stock with index = " + stockIndex));
-        stock.setAvailableAmount(stock.getAvailableAmount() + amount);
-        return stockRepository.save(stock);
+    }
+
+    /**
+     * Subscribes to quotes of the given stocks, or of all of them when {@code indices} is empty.
+     */
+    public @NotNull @NonNull QuoteSubscription subscribeQuotes(final @NotNull @NonNull Set<String> indices) {
+        return quoteFeed.subscribe(indices, this::findByIndex);
+    }
+
+    public @NotNull @NonNull CacheStatsDTO getCacheStats() {
+        final @NotNull @NonNull CacheStats stats = stockCache.stats();
+        return CacheStatsDTO
+                .builder()
+                .size(stockCache.size())
+                .hits(stats.hitCount())
+                .misses(stats.missCount())
+                .evictions(stats.evictionCount())
+                .hitRate(stats.hitRate())
+                .build();
+    }
+
+    public @NotNull @NonNull StockHoldersPageDTO findHolders(final @NotNull @NonNull String index, final long afterUserId, final int limit) {
+        if (limit <= 0 || limit > MAX_HOLDERS_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("Limit should be between 1 and %d", MAX_HOLDERS_PAGE_SIZE));
+        }
+        final @NotNull @NonNull List<StockHolderDTO> holders;
+        if (engine.isEnabled()) {
+            holders = engine.findHolders(index, afterUserId, limit);
+        } else {
+            final @NotNull @NonNull Stock stock = findByIndex(index).orElseThrow(() -> new NoSuchElementException("Cannot find stock with index = " + index));
+            holders = holdingRepository
+                    .findHolders(stock.getId(), afterUserId, PageRequest.ofSize(limit))
+                    .stream()
+                    .map(holder -> StockHolderDTO
+                            .builder()
+                            .userId(holder.getUserId())
+                            .login(holder.getLogin())
+                            .amount(holder.getAmount())
+                            .build()
+                    )
+                    .toList();
+        }
+        return StockHoldersPageDTO
+                .builder()
+                .index(index)
+                .holders(holders)
+                .nextAfter((holders.size() < limit) ? null : holders.get(holders.size() - 1).getUserId())
+                .build();
+    }
+
+    /**
+     * Stocks with ids greater than {@code afterId} and prices in {@code [minPrice, maxPrice]}, in the order of their ids.
+     */
+    public @NotNull @NonNull StocksPageDTO findStocks(final long afterId, final long minPrice, final long maxPrice, final int limit) {
+        if (limit <= 0 || limit > MAX_STOCKS_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("Limit should be between 1 and %d", MAX_STOCKS_PAGE_SIZE));
+        }
+        validatePriceRange(minPrice, maxPrice);
+        final @NotNull @NonNull List<Stock> stocks = engine.isEnabled()
+                ? engine.listStocks(afterId, minPrice, maxPrice).limit(limit).toList()
+                : stockRepository.findPage(afterId, minPrice, maxPrice, PageRequest.ofSize(limit)).stream().map(StockService::toStock).toList();
+        return StocksPageDTO
+                .builder()
+                .stocks(stocks)
+                .nextAfter((stocks.size() < limit) ? null : stocks.get(stocks.size() - 1).getId())
+                .build();
+    }
+
+    /**
+     * Passes all stocks with prices in {@code [minPrice, maxPrice]} to the consumer one by one in the order of their ids,
+     * without holding more than a fetch of them in memory.
+     */
+    public void streamStocks(final long minPrice, final long maxPrice, final @NotNull @NonNull Consumer<Stock> consumer) {
+        validatePriceRange(minPrice, maxPrice);
+        if (engine.isEnabled()) {
+            engine.listStocks(0, minPrice, maxPrice).forEach(consumer);
+            return;
+        }
+        final TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        transaction.executeWithoutResult(status -> {
+            try (final Stream<StockRepository.Listed> stocks = stockRepository.streamAll(minPrice, maxPrice)) {
+                stocks.map(StockService::toStock).forEach(consumer);
+            }
+        });
+    }
+
+    private static void validatePriceRange(final long minPrice, final long maxPrice) {
+        if (minPrice > maxPrice) {
+            throw new IllegalArgumentException(String.format("Minimal price %d should not be greater than maximal price %d", minPrice, maxPrice));
+        }
+    }
+
+    private static @NotNull @NonNull Stock toStock(final @NotNull @NonNull StockRepository.Listed listed) {
+        return Stock
+                .builder()
+                .id(listed.getId())
+                .index(listed.getIndex())
+                .name(listed.getName())
+                .price(listed.getPrice())
+                .availableAmount(listed.getAvailableAmount())
+                .build();
+    }
+
+    public @NotNull @NonNull TradeHistoryPageDTO findTrades(final @NotNull @NonNull String index, final Instant from, final Instant to, final Long after, final int limit) {
+        findByIndex(index).orElseThrow(() -> new NoSuchElementException("Cannot find stock with index = " + index));
+        return tradeHistory.findByStock(index, from, to, after, limit);
+    }
+
+    public @NotNull @NonNull CandlesDTO findCandles(final @NotNull @NonNull String index, final @NotNull @NonNull CandleResolution resolution, final Instant from, final Instant to, final int limit) {
+        findByIndex(index).orElseThrow(() -> new NoSuchElementException("Cannot find stock with index = " + index));
+        return candles.find(index, resolution, from, to, limit);
     }
 }
@@ -4,114 +4,487 @@ import lombok.Data;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.BatchMode;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperation;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Holding;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.engine.ExchangeEngine;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.CandleAggregator;
+import ru.ifmo.rain.serdiukov.integration.exchange.feed.QuoteFeed;
+import ru.ifmo.rain.serdiukov.integration.exchange.history.TradeHistory;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.BatchItemResultDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.BatchStockOperationResponseDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.LimitOrderRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.OrderBookDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.OrderDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationRequestDTO;
 import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationResponseDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.HoldingRepository;
 import ru.ifmo.rain.serdiukov.integration.exchange.repository.StockRepository;
 import ru.ifmo.rain.serdiukov.integration.exchange.repository.UserRepository;
 
 import java.time.Instant;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class TransactionService {
+    private static final int MAX_BATCH_SIZE = 10_000;
+    private static final int MAX_ORDER_BOOK_DEPTH = 1000;
+
     private final @NotNull @NonNull UserRepository userRepository;
     private final @NotNull @NonNull StockRepository stockRepository;
-
+    private final @NotNull @NonNull HoldingRepository holdingRepository;
+    private final @NotNull @NonNull ExchangeEngine engine;
+    private final @NotNull @NonNull ConcurrencyControl concurrencyControl;
+    private final @NotNull @NonNull StockCache stockCache;
+    private final @NotNull @NonNull QuoteFeed quoteFeed;
+    private final @NotNull @NonNull TradeHistory tradeHistory;
+    private final @NotNull @NonNull CandleAggregator candles;
 
     public @NotNull @NonNull StockOperationResponseDTO performStockOperation(final @NotNull @NonNull StockOperation operation) {
+        return performStockOperation(operation, false);
+    }
+
+    /**
+     * @param withPortfolio whether the whole portfolio of the user should be returned, otherwise only the position in the traded stock
+     */
+    public @NotNull @NonNull StockOperationResponseDTO performStockOperation(final @NotNull @NonNull StockOperation operation, final boolean withPortfolio) {
         final @NotNull @NonNull User user = operation.getUser();
         final @NotNull @NonNull Stock stock = operation.getStock();
         final long amount = operation.getAmount();
         final @NotNull @NonNull StockOperationType type = operation.getType();
 
-        final StockOperationResult result = switch (type) {
-            case BUY -> buyStock(user, stock, amount);
-            case SELL -> sellStock(user, stock, amount);
-            default -> throw new IllegalArgumentException("Unknown operation type: " + type.name());
-        };
+        if (engine.isEnabled()) {
+            return received(engine.performStockOperation(type, user.getLogin(), stock.getIndex(), amount, withPortfolio));
+        }
+
+        final StockOperationResult result = (concurrencyControl.getMode() == ConcurrencyMode.CONDITIONAL) ? tradeConditionally(type, user, stock, amount, withPortfolio) : concurrencyControl.execute(() -> {
+            final @NotNull @NonNull User lockedUser = concurrencyControl.loadUser(user.getLogin());
+            final @NotNull @NonNull Stock lockedStock = concurrencyControl.loadStock(stock.getIndex());
+            return switch (type) {
+                case BUY -> buyStock(lockedUser, lockedStock, amount, withPortfolio);
+                case SELL -> sellStock(lockedUser, lockedStock, amount, withPortfolio);
+                default -> throw new IllegalArgumentException("Unknown operation type: " + type.name());
+            };
+        });
+        stockCache.update(result.getStock());
+        quoteFeed.publish(result.getStock());
+        tradeHistory.record(type, user.getLogin(), stock.getIndex(), amount, result.getStock().getPrice());
+        candles.trade(stock.getIndex(), result.getStock().getPrice(), amount);
 
+        return received(StockOperation
+                .builder()
+                .type(type)
+                .amount(amount)
+                .user(result.getUser())
+                .stock(result.getStock())
+                .build()
+        );
+    }
+
+    /**
+     * Does not block the caller when the engine is enabled, otherwise the operation is performed before it returns.
+     */
+    public @NotNull @NonNull CompletableFuture<StockOperationResponseDTO> performStockOperationAsync(final @NotNull @NonNull StockOperation operation, final boolean withPortfolio) {
+        if (!engine.isEnabled()) {
+            return CompletableFuture.completedFuture(performStockOperation(operation, withPortfolio));
+        }
+        return engine
+                .performStockOperationAsync(operation.getType(), operation.getUser().getLogin(), operation.getStock().getIndex(), operation.getAmount(), withPortfolio)
+                .thenApply(TransactionService::received);
+    }
+
+    private static @NotNull @NonNull StockOperationResponseDTO received(final @NotNull @NonNull StockOperation operation) {
         return StockOperationResponseDTO
                 .builder()
-                .operation(StockOperation
-                        .builder()
-                        .type(type)
-                        .amount(amount)
-                        .user(result.getUser())
-                        .stock(result.getStock())
-                        .build()
-                )
+                .operation(operation)
                 .timestamp(Instant.now())
                 .build();
     }
 
-    private @NotNull @NonNull StockOperationResult buyStock(final @NotNull @NonNull User user, final @NotNull @NonNull Stock stock, final long requestedAmount) {
+    private @NotNull @NonNull StockOperationResult buyStock(final @NotNull @NonNull User user, final @NotNull @NonNull Stock stock, final long requestedAmount, final boolean withPortfolio) {
         if (requestedAmount <= 0) {
             throw new IllegalArgumentException("Amount should be positive");
         }
-        if (stock.getPrice() * requestedAmount > user.getBalance()) {
-            throw new IllegalArgumentException(String.format(
-                    "Cannot buy %d of stock %s because it requires %d money while only %d is available for user %s",
-                    requestedAmount,
-                    stock.getIndex(),
-                    stock.getPrice() * requestedAmount,
-                    user.getBalance(),
-                    user.getLogin()
-            ));
+        final long cost = cost(stock.getIndex(), stock.getPrice(), requestedAmount);
+        if (cost > user.getBalance()) {
+            throw insufficientBalance(requestedAmount, stock.getIndex(), cost, user.getBalance(), user.getLogin());
         }
         if (stock.getAvailableAmount() < requestedAmount) {
-            throw new IllegalArgumentException(String.format(
-                    "Requested amount of stock %s is not available for purchase, you can request at most %d",
-                    stock.getIndex(),
-                    stock.getAvailableAmount()
-            ));
+            throw notAvailable(stock.getIndex(), stock.getAvailableAmount());
         }
         stock.setAvailableAmount(stock.getAvailableAmount() - requestedAmount);
-        user.getPortfolio().compute(stock, (s, oldAmount) -> (oldAmount != null) ? (oldAmount + requestedAmount) : requestedAmount);
-        user.setBalance(user.getBalance() - stock.getPrice() * requestedAmount);
-        return new StockOperationResult(userRepository.save(user), stockRepository.save(stock));
+        user.setBalance(user.getBalance() - cost);
+        user.setHoldingsValue(user.getHoldingsValue() + cost);
+        // Version checks of the user and the stock must fail before the holding is touched
+        stockRepository.flush();
+        if (holdingRepository.increaseAmount(user.getId(), stock.getId(), requestedAmount) == 0) {
+            holdingRepository.save(Holding
+                    .builder()
+                    .user(user)
+                    .stock(stock)
+                    .amount(requestedAmount)
+                    .build()
+            );
+        }
+        return saveResult(user, stock, withPortfolio);
     }
 
-    private @NotNull @NonNull StockOperationResult sellStock(final @NotNull @NonNull User user, final @NotNull @NonNull Stock stock, final long requestedSellingAmount) {
+    private @NotNull @NonNull StockOperationResult sellStock(final @NotNull @NonNull User user, final @NotNull @NonNull Stock stock, final long requestedSellingAmount, final boolean withPortfolio) {
         if (requestedSellingAmount <= 0) {
             throw new IllegalArgumentException("Amount should be positive");
         }
-        final long availableAmount;
-        {
-            final Long availableAmountValue = user.getPortfolio().get(stock);
-            if (availableAmountValue == null) {
-                throw new IllegalArgumentException(String.format(
-                        "Cannot sell stock %s because user %s does not own it",
-                        stock.getIndex(),
-                        user.getLogin()
-                ));
+        final long availableAmount = holdingRepository.findAmount(user.getId(), stock.getId()).orElseThrow(() -> notOwned(stock.getIndex(), user.getLogin()));
+
+        if (availableAmount < requestedSellingAmount) {
+            throw notOwnedEnough(requestedSellingAmount, stock.getIndex(), user.getLogin(), availableAmount);
+        }
+
+        final long proceeds = cost(stock.getIndex(), stock.getPrice(), requestedSellingAmount);
+        user.setBalance(user.getBalance() + proceeds);
+        user.setHoldingsValue(user.getHoldingsValue() - proceeds);
+        stock.setAvailableAmount(stock.getAvailableAmount() + requestedSellingAmount);
+        stockRepository.flush();
+        if (holdingRepository.decreaseAmount(user.getId(), stock.getId(), requestedSellingAmount) == 0) {
+            throw new IllegalStateException("Availability of user stock has changed??");
+        }
+        if (availableAmount == requestedSellingAmount) {
+            holdingRepository.deleteIfEmpty(user.getId(), stock.getId());
+        }
+        return saveResult(user, stock, withPortfolio);
+    }
+
+    private @NotNull @NonNull StockOperationResult tradeConditionally(final @NotNull @NonNull StockOperationType type, final @NotNull @NonNull User user, final @NotNull @NonNull Stock stock, final long amount, final boolean withPortfolio) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Amount should be positive");
+        }
+        // The price the trade is executed at, it is refreshed when the stock price changes before the trade is committed
+        final AtomicLong quotedPrice = new AtomicLong(stock.getPrice());
+        return concurrencyControl.execute(() -> switch (type) {
+            case BUY -> buyStockConditionally(user, stock, amount, quotedPrice, withPortfolio);
+            case SELL -> sellStockConditionally(user, stock, amount, quotedPrice, withPortfolio);
+            default -> throw new IllegalArgumentException("Unknown operation type: " + type.name());
+        });
+    }
+
+    private @NotNull @NonNull StockOperationResult buyStockConditionally(final @NotNull @NonNull User user, final @NotNull @NonNull Stock stock, final long requestedAmount, final @NotNull @NonNull AtomicLong quotedPrice, final boolean withPortfolio) {
+        final long price = quotedPrice.get();
+        final long cost = cost(stock.getIndex(), price, requestedAmount);
+        if (userRepository.debitBalanceForHoldings(user.getLogin(), cost) == 0) {
+            final @NotNull @NonNull User current = findUser(user.getLogin());
+            checkQuotedPrice(findStock(stock.getIndex()), quotedPrice);
+            if (current.getBalance() < cost) {
+                throw insufficientBalance(requestedAmount, stock.getIndex(), cost, current.getBalance(), user.getLogin());
+            }
+            throw new OptimisticLockingFailureException(String.format("Balance of user %s has changed concurrently", user.getLogin()));
+        }
+        if (stockRepository.decreaseAvailableAmount(stock.getIndex(), requestedAmount, price) == 0) {
+            final @NotNull @NonNull Stock current = findStock(stock.getIndex());
+            checkQuotedPrice(current, quotedPrice);
+            if (current.getAvailableAmount() < requestedAmount) {
+                throw notAvailable(stock.getIndex(), current.getAvailableAmount());
             }
-            availableAmount = availableAmountValue;
+            throw new OptimisticLockingFailureException(String.format("Availability of stock %s has changed concurrently", stock.getIndex()));
+        }
+        if (holdingRepository.increaseAmount(user.getId(), stock.getId(), requestedAmount) == 0) {
+            holdingRepository.save(Holding
+                    .builder()
+                    .user(findUser(user.getLogin()))
+                    .stock(findStock(stock.getIndex()))
+                    .amount(requestedAmount)
+                    .build()
+            );
         }
+        return readResult(user.getLogin(), stock.getIndex(), withPortfolio);
+    }
 
-        if (availableAmount < requestedSellingAmount) {
-            throw new IllegalArgumentException(String.format(
-                    "Cannot sell %d of stock %s because user %s owns only %d of it",
-                    requestedSellingAmount,
-                    stock.getIndex(),
-                    user.getLogin(),
-                    availableAmount
+    private @NotNull @NonNull StockOperationResult sellStockConditionally(final @NotNull @NonNull User user, final @NotNull @NonNull Stock stock, final long requestedSellingAmount, final @NotNull @NonNull AtomicLong quotedPrice, final boolean withPortfolio) {
+        final long price = quotedPrice.get();
+        if (userRepository.creditBalanceFromHoldings(user.getLogin(), cost(stock.getIndex(), price, requestedSellingAmount)) == 0) {
+            throw new NoSuchElementException("Cannot find user with login = " + user.getLogin());
+        }
+        if (stockRepository.increaseAvailableAmount(stock.getIndex(), requestedSellingAmount, price) == 0) {
+            checkQuotedPrice(findStock(stock.getIndex()), quotedPrice);
+            throw new OptimisticLockingFailureException(String.format("Stock %s has changed concurrently", stock.getIndex()));
+        }
+        if (holdingRepository.decreaseAmount(user.getId(), stock.getId(), requestedSellingAmount) == 0) {
+            final long availableAmount = holdingRepository.findAmount(user.getId(), stock.getId()).orElseThrow(() -> notOwned(stock.getIndex(), user.getLogin()));
+            if (availableAmount < requestedSellingAmount) {
+                throw notOwnedEnough(requestedSellingAmount, stock.getIndex(), user.getLogin(), availableAmount);
+            }
+            throw new OptimisticLockingFailureException(String.format("Holding of stock %s by user %s has changed concurrently", stock.getIndex(), user.getLogin()));
+        }
+        holdingRepository.deleteIfEmpty(user.getId(), stock.getId());
+        return readResult(user.getLogin(), stock.getIndex(), withPortfolio);
+    }
+
+    private void checkQuotedPrice(final @NotNull @NonNull Stock current, final @NotNull @NonNull AtomicLong quotedPrice) {
+        if (current.getPrice() != quotedPrice.get()) {
+            quotedPrice.set(current.getPrice());
+            throw new OptimisticLockingFailureException(String.format("Price of stock %s has changed concurrently", current.getIndex()));
+        }
+    }
+
+    private @NotNull @NonNull User findUser(final @NotNull @NonNull String login) {
+        return userRepository.findByLogin(login).orElseThrow(() -> new NoSuchElementException("Cannot find user with login = " + login));
+    }
+
+    private @NotNull @NonNull Stock findStock(final @NotNull @NonNull String index) {
+        return stockRepository.findByIndex(index).orElseThrow(() -> new NoSuchElementException("Cannot find stock with index = " + index));
+    }
+
+    private @NotNull @NonNull StockOperationResult readResult(final @NotNull @NonNull String login, final @NotNull @NonNull String index, final boolean withPortfolio) {
+        final @NotNull @NonNull User user = findUser(login);
+        final @NotNull @NonNull Stock stock = findStock(index);
+        user.setPortfolio(portfolio(user, stock, withPortfolio));
+        return new StockOperationResult(user, stock);
+    }
+
+    private @NotNull @NonNull StockOperationResult saveResult(final @NotNull @NonNull User user, final @NotNull @NonNull Stock stock, final boolean withPortfolio) {
+        final @NotNull @NonNull User savedUser = userRepository.save(user);
+        final @NotNull @NonNull Stock savedStock = stockRepository.save(stock);
+        savedUser.setPortfolio(portfolio(savedUser, savedStock, withPortfolio));
+        return new StockOperationResult(savedUser, savedStock);
+    }
+
+    /**
+     * Either the whole portfolio or only the position in the traded stock, which is a single row whatever the size of the portfolio is.
+     */
+    private @NotNull @NonNull Map<Stock, Long> portfolio(final @NotNull @NonNull User user, final @NotNull @NonNull Stock stock, final boolean withPortfolio) {
+        if (withPortfolio) {
+            return holdingRepository.findPortfolio(user.getId());
+        }
+        return holdingRepository.findAmount(user.getId(), stock.getId()).filter(amount -> amount > 0).map(amount -> Map.of(stock, amount)).orElse(Map.of());
+    }
+
+    public @NotNull @NonNull BatchStockOperationResponseDTO performStockOperations(final @NotNull @NonNull BatchMode mode, final @NotNull @NonNull List<StockOperationRequestDTO> operations) {
+        if (operations.isEmpty() || operations.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException(String.format("Batch should contain between 1 and %d operations", MAX_BATCH_SIZE));
+        }
+        final @NotNull @NonNull List<BatchItemResultDTO> results;
+        if (engine.isEnabled()) {
+            results = engine.performStockOperations(mode, operations);
+        } else {
+            final BatchResult result = concurrencyControl.execute(() -> executeBatch(mode, operations));
+            result.getStocks().forEach(stock -> {
+                stockCache.update(stock);
+                quoteFeed.publish(stock);
+            });
+            results = result.getResults();
+            for (int i = 0; i < operations.size(); i++) {
+                final StockOperationRequestDTO operation = operations.get(i);
+                if (results.get(i).isSuccess()) {
+                    tradeHistory.record(operation.getType(), operation.getUserLogin(), operation.getStockIndex(), operation.getAmount(), results.get(i).getPrice());
+                    candles.trade(operation.getStockIndex(), results.get(i).getPrice(), operation.getAmount());
+                }
+            }
+        }
+        return BatchStockOperationResponseDTO
+                .builder()
+                .results(results)
+                .timestamp(Instant.now())
+                .build();
+    }
+
+    public @NotNull @NonNull OrderDTO placeOrder(final @NotNull @NonNull LimitOrderRequestDTO order) {
+        return engine().placeOrder(order.getType(), order.getUserLogin(), order.getStockIndex(), order.getPrice(), order.getAmount());
+    }
+
+    public @NotNull @NonNull CompletableFuture<OrderDTO> placeOrderAsync(final @NotNull @NonNull LimitOrderRequestDTO order) {
+        return engine().placeOrderAsync(order.getType(), order.getUserLogin(), order.getStockIndex(), order.getPrice(), order.getAmount());
+    }
+
+    public @NotNull @NonNull OrderDTO cancelOrder(final @NotNull @NonNull String login, final @NotNull @NonNull String index, final long orderId) {
+        return engine().cancelOrder(login, index, orderId);
+    }
+
+    public @NotNull @NonNull CompletableFuture<OrderDTO> cancelOrderAsync(final @NotNull @NonNull String login, final @NotNull @NonNull String index, final long orderId) {
+        return engine().cancelOrderAsync(login, index, orderId);
+    }
+
+    public @NotNull @NonNull OrderBookDTO getOrderBook(final @NotNull @NonNull String index, final int depth) {
+        return engine().getOrderBook(index, checkDepth(depth));
+    }
+
+    public @NotNull @NonNull CompletableFuture<OrderBookDTO> getOrderBookAsync(final @NotNull @NonNull String index, final int depth) {
+        return engine().getOrderBookAsync(index, checkDepth(depth));
+    }
+
+    /**
+     * Limit orders only rest in the memory of the engine, there is no order book in the database.
+     */
+    private @NotNull @NonNull ExchangeEngine engine() {
+        if (!engine.isEnabled()) {
+            throw new IllegalArgumentException("Limit orders are only supported when the exchange engine is enabled");
+        }
+        return engine;
+    }
+
+    private static int checkDepth(final int depth) {
+        if (depth <= 0 || depth > MAX_ORDER_BOOK_DEPTH) {
+            throw new IllegalArgumentException(String.format("Depth should be between 1 and %d", MAX_ORDER_BOOK_DEPTH));
+        }
+        return depth;
+    }
+
+    /**
+     * Every user, stock and holding of the batch is read once, operations change the loaded entities,
+     * and all changes are flushed together when the transaction is committed.
+     */
+    private @NotNull @NonNull BatchResult executeBatch(final @NotNull @NonNull BatchMode mode, final @NotNull @NonNull List<StockOperationRequestDTO> operations) {
+        final Map<String, User> users = concurrencyControl.loadUsers(operations.stream().map(StockOperationRequestDTO::getUserLogin).collect(Collectors.toCollection(TreeSet::new)));
+        final Map<String, Stock> stocks = concurrencyControl.loadStocks(operations.stream().map(StockOperationRequestDTO::getStockIndex).collect(Collectors.toCollection(TreeSet::new)));
+        final Map<Long, Map<Long, Holding>> holdings = new HashMap<>();
+        if (!users.isEmpty() && !stocks.isEmpty()) {
+            holdingRepository
+                    .findByUserIdsAndStockIds(users.values().stream().map(User::getId).toList(), stocks.values().stream().map(Stock::getId).toList())
+                    .forEach(holding -> holdings.computeIfAbsent(holding.getUser().getId(), id -> new HashMap<>()).put(holding.getStock().getId(), holding));
+        }
+
+        final List<BatchItemResultDTO> results = new ArrayList<>(operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            final StockOperationRequestDTO operation = operations.get(i);
+            try {
+                final User user = users.get(operation.getUserLogin());
+                if (user == null) {
+                    throw new NoSuchElementException("Cannot find user with login " + operation.getUserLogin());
+                }
+                final Stock stock = stocks.get(operation.getStockIndex());
+                if (stock == null) {
+                    throw new NoSuchElementException("Cannot find requested stock with index " + operation.getStockIndex());
+                }
+                final Map<Long, Holding> userHoldings = holdings.computeIfAbsent(user.getId(), id -> new HashMap<>());
+                switch (operation.getType()) {
+                    case BUY -> buyStockInBatch(user, stock, userHoldings, operation.getAmount());
+                    case SELL -> sellStockInBatch(user, stock, userHoldings, operation.getAmount());
+                    default -> throw new IllegalArgumentException("Unknown operation type: " + operation.getType().name());
+                }
+                results.add(BatchItemResultDTO
+                        .builder()
+                        .success(true)
+                        .balance(user.getBalance())
+                        .price(stock.getPrice())
+                        .availableAmount(stock.getAvailableAmount())
+                        .build()
+                );
+            } catch (final IllegalArgumentException | NoSuchElementException e) {
+                if (mode == BatchMode.ALL_OR_NOTHING) {
+                    throw new IllegalArgumentException(String.format("Operation %d failed: %s", i, e.getMessage()), e);
+                }
+                results.add(BatchItemResultDTO
+                        .builder()
+                        .success(false)
+                        .error(e.getMessage())
+                        .build()
+                );
+            }
+        }
+        // Emptied holdings are removed only now, so that a holding sold out and bought again is not deleted and inserted in one flush
+        holdings.values().forEach(userHoldings -> userHoldings.values().stream().filter(holding -> holding.getAmount() == 0).forEach(holdingRepository::delete));
+        return new BatchResult(results, stocks.values());
+    }
+
+    private void buyStockInBatch(final @NotNull @NonNull User user, final @NotNull @NonNull Stock stock, final @NotNull @NonNull Map<Long, Holding> userHoldings, final long requestedAmount) {
+        if (requestedAmount <= 0) {
+            throw new IllegalArgumentException("Amount should be positive");
+        }
+        final long cost = cost(stock.getIndex(), stock.getPrice(), requestedAmount);
+        if (cost > user.getBalance()) {
+            throw insufficientBalance(requestedAmount, stock.getIndex(), cost, user.getBalance(), user.getLogin());
+        }
+        if (stock.getAvailableAmount() < requestedAmount) {
+            throw notAvailable(stock.getIndex(), stock.getAvailableAmount());
+        }
+        stock.setAvailableAmount(stock.getAvailableAmount() - requestedAmount);
+        user.setBalance(user.getBalance() - cost);
+        user.setHoldingsValue(user.getHoldingsValue() + cost);
+        final Holding holding = userHoldings.get(stock.getId());
+        if (holding != null) {
+            holding.setAmount(holding.getAmount() + requestedAmount);
+        } else {
+            userHoldings.put(stock.getId(), holdingRepository.save(Holding
+                    .builder()
+                    .user(user)
+                    .stock(stock)
+                    .amount(requestedAmount)
+                    .build()
             ));
         }
+    }
 
-        user.getPortfolio().compute(stock, (s, a) -> {
-            final long newAmount = Objects.requireNonNull(a, "Availability of user stock has changed??") - requestedSellingAmount;
-            return newAmount > 0 ? newAmount : null;
-        });
-        user.setBalance(user.getBalance() + stock.getPrice() * requestedSellingAmount);
+    private void sellStockInBatch(final @NotNull @NonNull User user, final @NotNull @NonNull Stock stock, final @NotNull @NonNull Map<Long, Holding> userHoldings, final long requestedSellingAmount) {
+        if (requestedSellingAmount <= 0) {
+            throw new IllegalArgumentException("Amount should be positive");
+        }
+        final Holding holding = userHoldings.get(stock.getId());
+        if (holding == null || holding.getAmount() == 0) {
+            throw notOwned(stock.getIndex(), user.getLogin());
+        }
+        if (holding.getAmount() < requestedSellingAmount) {
+            throw notOwnedEnough(requestedSellingAmount, stock.getIndex(), user.getLogin(), holding.getAmount());
+        }
+        final long proceeds = cost(stock.getIndex(), stock.getPrice(), requestedSellingAmount);
+        holding.setAmount(holding.getAmount() - requestedSellingAmount);
+        user.setBalance(user.getBalance() + proceeds);
+        user.setHoldingsValue(user.getHoldingsValue() - proceeds);
         stock.setAvailableAmount(stock.getAvailableAmount() + requestedSellingAmount);
-        return new StockOperationResult(userRepository.save(user), stockRepository.save(stock));
     }
 
+    /**
+     * Money paid for {@code amount} shares at {@code price}, a trade whose cost does not fit into a long is rejected instead of wrapping around.
+     */
+    private static long cost(final @NotNull @NonNull String index, final long price, final long amount) {
+        try {
+            return Math.multiplyExact(price, amount);
+        } catch (final ArithmeticException e) {
+            throw new IllegalArgumentException(String.format("Cannot trade %d of stock %s at %d because the cost is too large", amount, index, price), e);
+        }
+    }
+
+    private static @NotNull @NonNull IllegalArgumentException insufficientBalance(final long requestedAmount, final @NotNull @NonNull String index, final long cost, final long balance, final @NotNull @NonNull String login) {
+        return new IllegalArgumentException(String.format(
+                "Cannot buy %d of stock %s because it requires %d money while only %d is available for user %s",
+                requestedAmount,
+                index,
+                cost,
+                balance,
+                login
+        ));
+    }
+
+    private static @NotNull @NonNull IllegalArgumentException notAvailable(final @NotNull @NonNull String index, final long availableAmount) {
+        return new IllegalArgumentException(String.format(
+                "Requested amount of stock %s is not available for purchase, you can request at most %d",
+                index,
+                availableAmount
+        ));
+    }
+
+    private static @NotNull @NonNull IllegalArgumentException notOwned(final @NotNull @NonNull String index, final @NotNull @NonNull String login) {
+        return new IllegalArgumentException(String.format(
+                "Cannot sell stock %s because user %s does not own it",
+                index,
+                login
+        ));
+    }
+
+    private static @NotNull @NonNull IllegalArgumentException notOwnedEnough(final long requestedSellingAmount, final @NotNull @NonNull String index, final @NotNull @NonNull String login, final long ownedAmount) {
+        return new IllegalArgumentException(String.format(
+                "Cannot sell %d of stock %s because user %s owns only %d of it",
+                requestedSellingAmount,
+                index,
+                login,
+                ownedAmount
+        ));
+    }
 
     @Data
     private static class StockOperationResult {
@@ -119,4 +492,9 @@ public class TransactionService {
         final @NotNull @NonNull Stock stock;
     }
 
+    @Data
+    private static class BatchResult {
+        final @NotNull @NonNull List<BatchItemResultDTO> results;
+        final @NotNull @NonNull Collection<Stock> stocks;
+    }
 }
@@ -4,22 +4,59 @@ import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import org.apache.logging.log4j.util.Strings;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.engine.ExchangeEngine;
+import ru.ifmo.rain.serdiukov.integration.exchange.history.TradeHistory;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.TradeHistoryPageDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.UsersPageDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.repository.HoldingRepository;
 import ru.ifmo.rain.serdiukov.integration.exchange.repository.UserRepository;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class UserService {
+    private static final int MAX_USERS_PAGE_SIZE = 1000;
+
     private final UserRepository userRepository;
+    private final HoldingRepository holdingRepository;
+    private final ExchangeEngine engine;
+    private final ConcurrencyControl concurrencyControl;
+    private final TradeHistory tradeHistory;
+    private final PlatformTransactionManager transactionManager;
 
+    /**
+     * The user without the portfolio, which is {@code null}.
+     */
     public @NotNull @NonNull Optional<User> findByLogin(final @NotNull @NonNull String login) {
+        if (engine.isEnabled()) {
+            return engine.findUser(login, false);
+        }
         return userRepository.findByLogin(login);
     }
 
+    public @NotNull @NonNull Optional<User> findByLoginWithPortfolio(final @NotNull @NonNull String login) {
+        if (engine.isEnabled()) {
+            return engine.findUser(login, true);
+        }
+        return userRepository.findByLogin(login).map(this::withPortfolio);
+    }
+
+    private @NotNull @NonNull User withPortfolio(final @NotNull @NonNull User user) {
+        user.setPortfolio(holdingRepository.findPortfolio(user.getId()));
+        return user;
+    }
+
     public void validateUser(final @NotNull @NonNull User user) {
         if (Strings.isBlank(user.getLogin())) {
             throw new IllegalArgumentException("Login cannot be blank");
@@ -39,28 +76,84 @@ public class UserService {
             );
         } else {
             validateUser(user);
-            return userRepository.save(user);
+            final @NotNull @NonNull User saved = userRepository.save(user);
+            return engine.isEnabled() ? engine.registerUser(saved) : saved;
         }
     }
 
-    public @NotNull @NonNull User topUpBalance(final @NotNull @NonNull String userLogin, final long amount) {
+    /**
+     * @param withPortfolio whether the portfolio of the user should be loaded, otherwise it is {@code null}
+     */
+    public @NotNull @NonNull User topUpBalance(final @NotNull @NonNull String userLogin, final long amount, final boolean withPortfolio) {
         if (amount <= 0) {
             throw new IllegalArgumentException("Amount should be positive");
         }
-        final @NotNull @NonNull User user = findByLogin(userLogin).orElseThrow(() -> new NoSuchElementException("Cannot find user with login = " + userLogin));
-        user.setBalance(user.getBalance() + amount);
-        return userRepository.save(user);
+        if (engine.isEnabled()) {
+            return engine.topUpBalance(userLogin, amount, withPortfolio);
+        }
+        return concurrencyControl.execute(() -> {
+            final @NotNull @NonNull User user = concurrencyControl.loadUser(userLogin);
+            user.setBalance(user.getBalance() + amount);
+            final @NotNull @NonNull User saved = userRepository.save(user);
+            return withPortfolio ? withPortfolio(saved) : saved;
+        });
     }
 
     public long getTotalUserActivesPrice(final @NotNull @NonNull String userLogin) {
+        if (engine.isEnabled()) {
+            return engine.getTotalUserActivesPrice(userLogin);
+        }
         final @NotNull @NonNull User user = findByLogin(userLogin).orElseThrow(() -> new NoSuchElementException("Cannot find user with login = " + userLogin));
-        final long totalStockPrice = user
-                .getPortfolio()
-                .entrySet()
-                .stream()
-                .mapToLong(e -> e.getKey().getPrice() * e.getValue())
-                .reduce(Long::sum)
-                .orElse(0L); // If no stock was owned by this user
-        return user.getBalance() + totalStockPrice;
+        return user.getBalance() + user.getHoldingsValue();
+    }
+
+    /**
+     * Users with ids greater than {@code afterId} and balances of at least {@code minBalance}, in the order of their ids, without portfolios.
+     */
+    public @NotNull @NonNull UsersPageDTO findUsers(final long afterId, final long minBalance, final int limit) {
+        if (limit <= 0 || limit > MAX_USERS_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("Limit should be between 1 and %d", MAX_USERS_PAGE_SIZE));
+        }
+        final @NotNull @NonNull List<User> users = engine.isEnabled()
+                ? engine.listUsers(afterId, minBalance).limit(limit).toList()
+                : userRepository.findPage(afterId, minBalance, PageRequest.ofSize(limit)).stream().map(UserService::toUser).toList();
+        return UsersPageDTO
+                .builder()
+                .users(users)
+                .nextAfter((users.size() < limit) ? null : users.get(users.size() - 1).getId())
+                .build();
+    }
+
+    /**
+     * Passes all users with balances of at least {@code minBalance} to the consumer one by one in the order of their ids,
+     * without portfolios and without holding more than a fetch of them in memory.
+     */
+    public void streamUsers(final long minBalance, final @NotNull @NonNull Consumer<User> consumer) {
+        if (engine.isEnabled()) {
+            engine.listUsers(0, minBalance).forEach(consumer);
+            return;
+        }
+        final TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        transaction.executeWithoutResult(status -> {
+            try (final Stream<UserRepository.Listed> users = userRepository.streamAll(minBalance)) {
+                users.map(UserService::toUser).forEach(consumer);
+            }
+        });
+    }
+
+    private static @NotNull @NonNull User toUser(final @NotNull @NonNull UserRepository.Listed listed) {
+        return User
+                .builder()
+                .id(listed.getId())
+                .login(listed.getLogin())
+                .name(listed.getName())
+                .balance(listed.getBalance())
+                .build();
+    }
+
+    public @NotNull @NonNull TradeHistoryPageDTO findTrades(final @NotNull @NonNull String login, final Instant from, final Instant to, final Long after, final int limit) {
+        findByLogin(login).orElseThrow(() -> new NoSuchElementException("Cannot find user with login = " + login));
+        return tradeHistory.findByUser(login, from, to, after, limit);
     }
 }
@@ -0,0 +1,83 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+import ru.ifmo.rain.serdiukov.integration.exchange.ExchangeLauncher;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.BatchMode;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.interfaces.dto.StockOperationRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.StockService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.TransactionService;
+import ru.ifmo.rain.serdiukov.integration.exchange.service.UserService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Starts the exchange again and again on the same database and journal, each start in the same JVM.
+ */
+public class ExchangeEngineRecoveryTests {
+    @Test
+    public void recoversJournalOnlyOverDatabaseWrittenBackFromIt(@TempDir final Path directory) throws IOException {
+        try (final ConfigurableApplicationContext exchange = start(directory, true)) {
+            exchange.getBean(UserService.class).registerUser(User.builder().login("user").name("User").build());
+            exchange.getBean(UserService.class).topUpBalance("user", 100, false);
+            exchange.getBean(StockService.class).createStock(Stock.builder().index("stock").name("Stock").price(10).availableAmount(10).build());
+            exchange.getBean(TransactionService.class).performStockOperations(BatchMode.ALL_OR_NOTHING, List.of(
+                    new StockOperationRequestDTO(StockOperationType.BUY, "user", "stock", 3),
+                    new StockOperationRequestDTO(StockOperationType.SELL, "user", "stock", 1)
+            ));
+        }
+        try (final ConfigurableApplicationContext exchange = start(directory, true)) {
+            assertThat("Balance should be recovered with the whole batch", balance(exchange), is(equalTo(80L)));
+            assertThat("Stock should be recovered with the whole batch", exchange.getBean(StockService.class).findByIndex("stock").orElseThrow().getAvailableAmount(), is(equalTo(8L)));
+        }
+        try (final ConfigurableApplicationContext exchange = start(directory, false)) {
+            assertThat("Balance should be written back", balance(exchange), is(equalTo(80L)));
+            exchange.getBean(UserService.class).topUpBalance("user", 50, false);
+        }
+
+        final Exception refused = assertThrows(Exception.class, () -> start(directory, true).close());
+        assertThat("Journal should not be recovered over the changed database", rootCause(refused).getMessage(), startsWith("Database has been changed"));
+
+        FileSystemUtils.deleteRecursively(directory.resolve("journal"));
+        try (final ConfigurableApplicationContext exchange = start(directory, true)) {
+            assertThat("Engine should be loaded from the database", balance(exchange), is(equalTo(130L)));
+        }
+    }
+
+    private static ConfigurableApplicationContext start(final Path directory, final boolean engine) {
+        return new SpringApplicationBuilder(ExchangeLauncher.class).run(
+                "--debug=false",
+                "--spring.jpa.show-sql=false",
+                "--server.port=0",
+                "--exchange.reactive.port=0",
+                "--spring.datasource.url=jdbc:h2:file:" + directory.resolve("exchange.db").toAbsolutePath(),
+                "--exchange.trade-history.directory=" + directory.resolve("trade-history"),
+                "--exchange.engine.journal.directory=" + directory.resolve("journal"),
+                "--exchange.engine.enabled=" + engine
+        );
+    }
+
+    private static long balance(final ConfigurableApplicationContext exchange) {
+        return exchange.getBean(UserService.class).findByLogin("user").orElseThrow().getBalance();
+    }
+
+    private static Throwable rootCause(final Throwable e) {
+        Throwable cause = e;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+}
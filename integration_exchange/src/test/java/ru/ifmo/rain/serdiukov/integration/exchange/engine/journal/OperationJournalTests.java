@@ -0,0 +1,165 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.engine.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class OperationJournalTests {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @Test
+    public void recoversSnapshotAndJournalTailUpToTornRecord(@TempDir final Path directory) throws IOException {
+        final OperationJournal journal = journal(directory);
+        journal.open(0);
+        journal.append(JournalRecord.builder().type(JournalRecordType.CREATE_USER).id(1).login("user").name("User").build()).join();
+        journal.append(topUp(10)).join();
+        final SnapshotStore snapshotStore = new SnapshotStore(directory);
+        snapshotStore.save(new EngineSnapshot(
+                journal.getLastSequence(),
+                42,
+                List.of(),
+                List.of(new EngineSnapshot.UserEntry(1, "user", "User", 10, Map.of())),
+                List.of()
+        ));
+        journal.truncate(journal.getLastSequence());
+        journal.append(topUp(20)).join();
+        journal.close();
+        tearTail(directory);
+
+        final EngineSnapshot snapshot = snapshotStore.loadLatest().orElseThrow();
+        assertThat("Snapshot should cover the records appended before it", snapshot.getSequence(), is(equalTo(2L)));
+        assertThat("Epoch should be kept by the snapshot", snapshot.getEpoch(), is(equalTo(42L)));
+        assertThat("Users should be kept by the snapshot", snapshot.getUsers().get(0).balance(), is(equalTo(10L)));
+        final OperationJournal recovered = journal(directory);
+        final List<JournalRecord> replayed = new ArrayList<>();
+        final long lastSequence = recovered.replay(snapshot.getSequence(), replayed::add);
+        assertThat("Only the record after the snapshot should be replayed, the torn one is ignored", replayed.size(), is(equalTo(1)));
+        assertThat("Record after the snapshot should be replayed whole", replayed.get(0).getAmount(), is(equalTo(20L)));
+        assertThat("Last valid record should be reported", lastSequence, is(equalTo(3L)));
+
+        recovered.open(lastSequence);
+        recovered.append(topUp(30)).join();
+        recovered.close();
+        final List<Long> amounts = new ArrayList<>();
+        assertThat("Journal should go on after the torn record", journal(directory).replay(snapshot.getSequence(), r -> amounts.add(r.getAmount())), is(equalTo(4L)));
+        assertThat("Records appended after the recovery should follow the recovered ones", amounts, contains(20L, 30L));
+    }
+
+    @Test
+    public void stopsReplayAtCorruptedRecordEvenIfLaterSegmentsAreValid(@TempDir final Path directory) throws IOException {
+        // Two records fit into a segment
+        final OperationJournal journal = new OperationJournal(directory, 128, Duration.ZERO);
+        journal.open(0);
+        for (long amount = 10; amount <= 60; amount += 10) {
+            journal.append(topUp(amount)).join();
+        }
+        journal.close();
+        final List<Path> segments = segments(directory);
+        assertThat("Records should have been spread over several segments", segments.size(), is(equalTo(3)));
+        try (final FileChannel channel = FileChannel.open(segments.get(0), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            final int second = 2 * Integer.BYTES + buffer.getInt(0);
+            buffer.put(second + 2 * Integer.BYTES + 1, (byte) ~buffer.get(second + 2 * Integer.BYTES + 1));
+        }
+
+        final OperationJournal recovered = new OperationJournal(directory, 128, Duration.ZERO);
+        final List<Long> amounts = new ArrayList<>();
+        assertThat("Last record before the corrupted one should be reported", recovered.replay(0, r -> amounts.add(r.getAmount())), is(equalTo(1L)));
+        assertThat("Nothing after the corrupted record should be replayed", amounts, contains(10L));
+
+        recovered.open(1);
+        recovered.append(topUp(70)).join();
+        recovered.close();
+        final List<Long> continued = new ArrayList<>();
+        assertThat("Journal should go on right after the last replayed record", journal(directory).replay(0, r -> continued.add(r.getAmount())), is(equalTo(2L)));
+        assertThat("Records after the corrupted one should be gone", continued, contains(10L, 70L));
+    }
+
+    @Test
+    public void journalsRecordsLargerThanScratchBufferUpToSegmentSize(@TempDir final Path directory) {
+        final OperationJournal journal = new OperationJournal(directory, 1024 * 1024, Duration.ZERO);
+        journal.open(0);
+        final String login = "l".repeat(0xFFFF);
+        final String name = "n".repeat(0xFFFF);
+        journal.append(JournalRecord.builder().type(JournalRecordType.CREATE_USER).id(1).login(login).name(name).build()).join();
+        journal.close();
+
+        final List<JournalRecord> replayed = new ArrayList<>();
+        journal(directory).replay(0, replayed::add);
+        assertThat("Large record should be replayed", replayed.size(), is(equalTo(1)));
+        assertThat("Login should be kept whole", replayed.get(0).getLogin(), is(equalTo(login)));
+        assertThat("Name should be kept whole", replayed.get(0).getName(), is(equalTo(name)));
+
+        final OperationJournal small = new OperationJournal(directory.resolve("small"), SEGMENT_SIZE, Duration.ZERO);
+        small.open(0);
+        assertThrows(IllegalArgumentException.class, () -> small.append(JournalRecord.builder().type(JournalRecordType.CREATE_USER).id(1).login(login).name(name).build()));
+        small.append(topUp(10)).join();
+        assertThat("Rejected record should not take a sequence", small.getLastSequence(), is(equalTo(1L)));
+        small.close();
+    }
+
+    @Test
+    public void replaysBatchAsOneRecord(@TempDir final Path directory) {
+        final OperationJournal journal = journal(directory);
+        journal.open(0);
+        journal.append(JournalRecord.builder().type(JournalRecordType.BATCH).records(List.of(
+                JournalRecord.builder().type(JournalRecordType.BUY).login("user").index("stock").amount(3).price(10).build(),
+                JournalRecord.builder().type(JournalRecordType.SELL).login("user").index("stock").amount(1).price(10).build()
+        )).build()).join();
+        journal.append(topUp(10)).join();
+        journal.close();
+
+        final List<JournalRecord> replayed = new ArrayList<>();
+        assertThat("Batch should take a single sequence", journal(directory).replay(0, replayed::add), is(equalTo(2L)));
+        assertThat("Batch should be replayed as one record", replayed.stream().map(JournalRecord::getType).toList(), contains(JournalRecordType.BATCH, JournalRecordType.TOP_UP));
+        final List<JournalRecord> trades = replayed.get(0).getRecords();
+        assertThat("Trades of the batch should be kept in order", trades.stream().map(JournalRecord::getType).toList(), contains(JournalRecordType.BUY, JournalRecordType.SELL));
+        assertThat("Trades of the batch should be kept whole", trades.stream().map(JournalRecord::getAmount).toList(), contains(3L, 1L));
+        assertThat("Trades of the batch should carry their stock", trades.get(1).getIndex(), is(equalTo("stock")));
+    }
+
+    private static OperationJournal journal(final Path directory) {
+        return new OperationJournal(directory, SEGMENT_SIZE, Duration.ZERO);
+    }
+
+    private static List<Path> segments(final Path directory) throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith("journal-")).sorted().toList();
+        }
+    }
+
+    private static JournalRecord topUp(final long amount) {
+        return JournalRecord.builder().type(JournalRecordType.TOP_UP).login("user").amount(amount).build();
+    }
+
+    /**
+     * Writes the header of a record whose body never made it to the disk after the last record of the latest segment.
+     */
+    private static void tearTail(final Path directory) throws IOException {
+        final List<Path> segments = segments(directory);
+        final Path segment = segments.get(segments.size() - 1);
+        try (final FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int length;
+            while ((length = buffer.getInt(buffer.position())) > 0) {
+                buffer.position(buffer.position() + 2 * Integer.BYTES + length);
+            }
+            buffer.putInt(32).putInt(0xBAD).put(new byte[]{1, 2, 3});
+        }
+    }
+}
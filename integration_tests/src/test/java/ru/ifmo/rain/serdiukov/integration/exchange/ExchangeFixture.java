@@ -0,0 +1,102 @@
+package ru.ifmo.rain.serdiukov.integration.exchange;
+
+import org.apache.http.impl.client.HttpClients;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+import org.testcontainers.containers.GenericContainer;
+
+import java.net.http.HttpClient;
+import java.util.function.Supplier;
+
+/**
+ * Exchange shared by all the tests of a run. Its container is started when it is used for the first time and removed
+ * when the JVM exits, as are the containers of the exchanges with the engine enabled and with the optimistic
+ * and pessimistic concurrency modes, so tests isolate their data
+ * by unique logins and indices instead of by a fresh exchange and may run concurrently. Both clients keep their
+ * connections open between the requests of all the tests.
+ * <p>
+ * When {@code exchange.port} is set the tests run against an exchange already listening on localhost,
+ * the reactive API is then expected on {@code exchange.reactive-port}, the engine on {@code exchange.engine-port}
+ * and the concurrency modes on {@code exchange.optimistic-port} and {@code exchange.pessimistic-port}.
+ * Otherwise {@code exchange.image} names the image to start, such as the native one.
+ */
+final class ExchangeFixture {
+    private static final String IMAGE = System.getProperty("exchange.image", "exchange:1.0-SNAPSHOT");
+    private static final int MAX_CONNECTIONS = 64;
+
+    // Requests such as createUser are not idempotent even though they are sent by GET, so they are never retried
+    private static final RestTemplate REST_TEMPLATE = new RestTemplate(new HttpComponentsClientHttpRequestFactory(
+            HttpClients
+                    .custom()
+                    .setMaxConnTotal(MAX_CONNECTIONS)
+                    .setMaxConnPerRoute(MAX_CONNECTIONS)
+                    .disableAutomaticRetries()
+                    .build()
+    ));
+    private static final HttpClient HTTP_CLIENT = HttpClient.newHttpClient();
+
+    private ExchangeFixture() {
+    }
+
+    static RestTemplate restTemplate() {
+        return REST_TEMPLATE;
+    }
+
+    static HttpClient httpClient() {
+        return HTTP_CLIENT;
+    }
+
+    static String apiPrefix() {
+        return String.format("http://localhost:%d/api/1/", port("exchange.port", () -> Exchange.CONTAINER, 8080));
+    }
+
+    static String reactiveApiPrefix() {
+        return String.format("http://localhost:%d/api/2/", port("exchange.reactive-port", () -> Exchange.CONTAINER, 8081));
+    }
+
+    static String engineApiPrefix() {
+        return String.format("http://localhost:%d/api/1/", port("exchange.engine-port", () -> EngineExchange.CONTAINER, 8080));
+    }
+
+    static String optimisticApiPrefix() {
+        return String.format("http://localhost:%d/api/1/", port("exchange.optimistic-port", () -> OptimisticExchange.CONTAINER, 8080));
+    }
+
+    static String pessimisticApiPrefix() {
+        return String.format("http://localhost:%d/api/1/", port("exchange.pessimistic-port", () -> PessimisticExchange.CONTAINER, 8080));
+    }
+
+    private static int port(final String property, final Supplier<GenericContainer<?>> container, final int exposedPort) {
+        final Integer port = Integer.getInteger(property);
+        return (port != null) ? port : container.get().getMappedPort(exposedPort);
+    }
+
+    private static GenericContainer<?> start(final GenericContainer<?> container) {
+        container.start();
+        return container;
+    }
+
+    // Holders are initialized once, by the first test that needs them, even when tests run concurrently
+
+    private static final class Exchange {
+        private static final GenericContainer<?> CONTAINER = start(new GenericContainer<>(IMAGE).withExposedPorts(8080, 8081));
+    }
+
+    private static final class EngineExchange {
+        private static final GenericContainer<?> CONTAINER = start(new GenericContainer<>(IMAGE)
+                .withEnv("EXCHANGE_ENGINE_ENABLED", "true")
+                .withExposedPorts(8080));
+    }
+
+    private static final class OptimisticExchange {
+        private static final GenericContainer<?> CONTAINER = start(new GenericContainer<>(IMAGE)
+                .withEnv("EXCHANGE_CONCURRENCY_MODE", "optimistic")
+                .withExposedPorts(8080));
+    }
+
+    private static final class PessimisticExchange {
+        private static final GenericContainer<?> CONTAINER = start(new GenericContainer<>(IMAGE)
+                .withEnv("EXCHANGE_CONCURRENCY_MODE", "pessimistic")
+                .withExposedPorts(8080));
+    }
+}
@@ -1,6 +1,8 @@
 package ru.ifmo.rain.serdiukov.integration.exchange;
 
-import org.junit.jupiter.api.BeforeEach;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.http.HttpStatus;
@@ -8,37 +10,64 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
-import org.testcontainers.containers.GenericContainer;
-import org.testcontainers.junit.jupiter.Container;
-import org.testcontainers.junit.jupiter.Testcontainers;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.BatchMode;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.Stock;
 import ru.ifmo.rain.serdiukov.integration.exchange.domain.model.User;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.BatchItemResultDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.BatchStockOperationRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.BatchStockOperationResponseDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.CacheStatsDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.CandleDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.CandlesDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.LimitOrderRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.OrderBookDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.OrderDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.PriceLevelDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.QuoteDTO;
 import ru.ifmo.rain.serdiukov.integration.exchange.dto.StockOperationRequestDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.StockHolderDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.StockHoldersPageDTO;
 import ru.ifmo.rain.serdiukov.integration.exchange.dto.StockOperationResponseDTO;
-
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.StocksPageDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.TradeDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.TradeHistoryPageDTO;
+import ru.ifmo.rain.serdiukov.integration.exchange.dto.UsersPageDTO;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.fail;
 
 @ExtendWith(SpringExtension.class)
-@Testcontainers
 public class StockExchangeTests {
     private static String apiPrefix;
-    @Container
-    private final GenericContainer<?> exchangeContainer =
-            new GenericContainer<>("exchange:1.0-SNAPSHOT")
-                    .withExposedPorts(8080);
+    private static String reactiveApiPrefix;
     private final Random random = new Random();
+    private final String testLogin = String.format("LOGIN<%s>", UUID.randomUUID());
 
 
-    @BeforeEach
-    public void initPort() {
-        int serverPort = exchangeContainer.getMappedPort(8080);
-        apiPrefix = String.format("http://localhost:%d/api/1/", serverPort);
+    @BeforeAll
+    public static void initPort() {
+        apiPrefix = ExchangeFixture.apiPrefix();
+        reactiveApiPrefix = ExchangeFixture.reactiveApiPrefix();
     }
 
     @Test
@@ -49,19 +78,19 @@ public class StockExchangeTests {
 
     @Test
     public void createUserOk() {
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
         final String name = String.format("NAME<%s>", UUID.randomUUID());
         final ResponseEntity<User> responseCreate = restTemplate.getForEntity(
                 apiPrefix + "createUser?login={login}&name={name}",
                 User.class,
                 Map.of(
-                        "login", "testLogin",
+                        "login", testLogin,
                         "name", name
                 )
         );
         assertThat("Registration should have been successful", responseCreate.getStatusCode(), is(equalTo(HttpStatus.OK)));
         assertThat("API call should have returned body", responseCreate.getBody(), is(not(nullValue())));
-        assertThat("Created user should have the same login as provided", responseCreate.getBody().getLogin(), is(equalTo("testLogin")));
+        assertThat("Created user should have the same login as provided", responseCreate.getBody().getLogin(), is(equalTo(testLogin)));
         assertThat("Created user should have the same name as provided", responseCreate.getBody().getName(), is(equalTo(name)));
         assertThat("User should have an ID after registration", responseCreate.getBody().getId(), is(not(equalTo(nullValue()))));
         assertThat("User should have an empty stock portfolio after registration", responseCreate.getBody().getPortfolio(), is(not(equalTo(nullValue()))));
@@ -71,7 +100,7 @@ public class StockExchangeTests {
 
     @Test
     public void createUserFail() {
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
         final String name = String.format("NAME<%s>", UUID.randomUUID());
         try {
             final ResponseEntity<User> response = restTemplate.getForEntity(
@@ -91,7 +120,7 @@ public class StockExchangeTests {
 
     @Test
     public void createStock() {
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
         final String index = String.format("NAME<%s>", UUID.randomUUID());
         final String name = "Name might be not unique";
         final long price = random.nextLong(1L, Long.MAX_VALUE / 2L - 1L);
@@ -133,7 +162,7 @@ public class StockExchangeTests {
 
     @Test
     public void updateStockPrice() {
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
         final String index = String.format("NAME<%s>", UUID.randomUUID());
         final String name = "Name might be not unique";
         final long price = random.nextLong(1L, Long.MAX_VALUE / 2L - 1L);
@@ -208,19 +237,19 @@ public class StockExchangeTests {
 
     @Test
     public void topUpBalance() {
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
         final String name = String.format("NAME<%s>", UUID.randomUUID());
         final ResponseEntity<User> responseCreate = restTemplate.getForEntity(
                 apiPrefix + "createUser?login={login}&name={name}",
                 User.class,
                 Map.of(
-                        "login", "testLogin",
+                        "login", testLogin,
                         "name", name
                 )
         );
         assertThat("Registration should have been successful", responseCreate.getStatusCode(), is(equalTo(HttpStatus.OK)));
         assertThat("API call should have returned body", responseCreate.getBody(), is(not(nullValue())));
-        assertThat("Created user should have the same login as provided", responseCreate.getBody().getLogin(), is(equalTo("testLogin")));
+        assertThat("Created user should have the same login as provided", responseCreate.getBody().getLogin(), is(equalTo(testLogin)));
         assertThat("Created user should have the same name as provided", responseCreate.getBody().getName(), is(equalTo(name)));
         assertThat("User should have an ID after registration", responseCreate.getBody().getId(), is(not(equalTo(nullValue()))));
         assertThat("User should have an empty stock portfolio after registration", responseCreate.getBody().getPortfolio(), is(not(equalTo(nullValue()))));
@@ -232,14 +261,14 @@ public class StockExchangeTests {
                 apiPrefix + "topUp?login={login}&amount={amount}",
                 User.class,
                 Map.of(
-                        "login", "testLogin",
+                        "login", testLogin,
                         "amount", newBalance
                 )
         );
 
         assertThat("Balance update should have been successful", responseUpdate.getStatusCode(), is(equalTo(HttpStatus.OK)));
         assertThat("API call should have returned body", responseUpdate.getBody(), is(not(nullValue())));
-        assertThat("Updated user should have the same login as provided", responseUpdate.getBody().getLogin(), is(equalTo("testLogin")));
+        assertThat("Updated user should have the same login as provided", responseUpdate.getBody().getLogin(), is(equalTo(testLogin)));
         assertThat("Updated user should have the same name as provided", responseUpdate.getBody().getName(), is(equalTo(name)));
         assertThat("User should have the same ID after top up", responseUpdate.getBody().getId(), is(equalTo(responseCreate.getBody().getId())));
         assertThat("User should have an updated balance after top up", responseUpdate.getBody().getBalance(), is(equalTo(newBalance)));
@@ -250,7 +279,7 @@ public class StockExchangeTests {
                     apiPrefix + "topUp?login={login}&amount={amount}",
                     User.class,
                     Map.of(
-                            "login", "testLogin",
+                            "login", testLogin,
                             "amount", -newBalance
                     )
             );
@@ -262,7 +291,7 @@ public class StockExchangeTests {
 
     @Test
     public void increaseStockAvailability() {
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
         final String index = String.format("NAME<%s>", UUID.randomUUID());
         final String name = "Name might be not unique";
         final long price = random.nextLong(1L, Long.MAX_VALUE / 2L - 1L);
@@ -323,7 +352,7 @@ public class StockExchangeTests {
 
     @Test
     public void buySellTest() {
-        final RestTemplate restTemplate = new RestTemplate();
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
         final int userCount = random.nextInt(2, 10);
         final int stockCount = random.nextInt(2, 10);
         final int testCount = 100;
@@ -334,7 +363,7 @@ public class StockExchangeTests {
 
         for (int i = 0; i < userCount; i++) {
             final String name = String.format("NAME<%d>", i);
-            final String login = String.format("LOGIN<%d>", i);
+            final String login = String.format("LOGIN<%d-%s>", i, UUID.randomUUID());
             logins[i] = login;
             final ResponseEntity<User> responseCreate = restTemplate.getForEntity(
                     apiPrefix + "createUser?login={login}&name={name}",
@@ -422,7 +451,7 @@ public class StockExchangeTests {
 
         for (int i = 0; i < userCount; i++) {
             final ResponseEntity<User> responseGet = restTemplate.getForEntity(
-                    apiPrefix + "getUser?login={login}",
+                    apiPrefix + "getUser?login={login}&portfolio=true",
                     User.class,
                     Map.of(
                             "login", logins[i]
@@ -614,4 +643,791 @@ public class StockExchangeTests {
 
     }
 
+
+    @Test
+    public void reactiveApiBuySell() {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+        final String index = String.format("NAME<%s>", UUID.randomUUID());
+        final long price = random.nextLong(1L, 100L);
+        final long amount = random.nextLong(1L, 100L);
+
+        final ResponseEntity<User> responseUser = restTemplate.getForEntity(
+                reactiveApiPrefix + "createUser?login={login}&name={name}",
+                User.class,
+                Map.of(
+                        "login", login,
+                        "name", "Reactive"
+                )
+        );
+        assertThat("Registration should have been successful", responseUser.getStatusCode(), is(equalTo(HttpStatus.OK)));
+        assertThat("Created user should have the same login as provided", responseUser.getBody().getLogin(), is(equalTo(login)));
+        restTemplate.getForEntity(reactiveApiPrefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", price * amount));
+
+        final ResponseEntity<Stock> responseStock = restTemplate.getForEntity(
+                reactiveApiPrefix + "createStock?index={index}&name={name}&price={price}",
+                Stock.class,
+                Map.of(
+                        "index", index,
+                        "name", "Reactive",
+                        "price", price
+                )
+        );
+        assertThat("Stock creation should have been successful", responseStock.getStatusCode(), is(equalTo(HttpStatus.OK)));
+        restTemplate.getForEntity(reactiveApiPrefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", amount));
+
+        final ResponseEntity<StockOperationResponseDTO> responseBuy = restTemplate.postForEntity(
+                reactiveApiPrefix + "stockOp",
+                StockOperationRequestDTO
+                        .builder()
+                        .userLogin(login)
+                        .stockIndex(index)
+                        .type(StockOperationType.BUY)
+                        .amount(amount)
+                        .build(),
+                StockOperationResponseDTO.class
+        );
+        assertThat("Buy operation should have been successful", responseBuy.getStatusCode(), is(equalTo(HttpStatus.OK)));
+        assertThat("Updated user should have spent the whole balance", responseBuy.getBody().getOperation().getUser().getBalance(), is(equalTo(0L)));
+
+        final User user = restTemplate.getForEntity(apiPrefix + "getUser?login={login}", User.class, Map.of("login", login)).getBody();
+        assertThat("Both APIs should see the same balance", user.getBalance(), is(equalTo(0L)));
+        final Long actives = restTemplate.getForEntity(apiPrefix + "getTotalUserActivesPrice?login={login}", Long.class, Map.of("login", login)).getBody();
+        assertThat("Both APIs should see the same holdings", actives, is(equalTo(price * amount)));
+        final Stock stock = restTemplate.getForEntity(apiPrefix + "getStock?index={index}", Stock.class, Map.of("index", index)).getBody();
+        assertThat("Both APIs should see the same availability", stock.getAvailableAmount(), is(equalTo(0L)));
+
+        try {
+            restTemplate.postForEntity(
+                    reactiveApiPrefix + "stockOp",
+                    StockOperationRequestDTO
+                            .builder()
+                            .userLogin(login)
+                            .stockIndex(index)
+                            .type(StockOperationType.SELL)
+                            .amount(amount + 1)
+                            .build(),
+                    StockOperationResponseDTO.class
+            );
+            fail("Selling more than owned should not be possible");
+        } catch (final HttpClientErrorException.BadRequest e) {
+            // Ok
+        }
+
+        try {
+            restTemplate.getForEntity(reactiveApiPrefix + "getStock?index={index}", Stock.class, Map.of("index", index + index));
+            fail("Unknown stock should not be found");
+        } catch (final HttpClientErrorException.NotFound e) {
+            // Ok
+        }
+    }
+
+    @Test
+    public void quoteStreamFollowsChanges() throws Exception {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        final String index = String.format("NAME<%s>", UUID.randomUUID());
+        final long price = random.nextLong(1L, 100L);
+        restTemplate.getForEntity(apiPrefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Quoted", "price", price));
+
+        final HttpClient client = ExchangeFixture.httpClient();
+        for (final String prefix : List.of(apiPrefix, reactiveApiPrefix)) {
+            final HttpResponse<Stream<String>> stream = client.send(
+                    HttpRequest.newBuilder(URI.create(prefix + "streamQuotes?indices=" + URLEncoder.encode(index, StandardCharsets.UTF_8))).build(),
+                    HttpResponse.BodyHandlers.ofLines()
+            );
+            assertThat("Subscription should have been successful", stream.statusCode(), is(equalTo(HttpStatus.OK.value())));
+            try (final Stream<String> lines = stream.body()) {
+                final Iterator<QuoteDTO> quotes = lines
+                        .filter(line -> line.startsWith("data:"))
+                        .map(line -> readQuote(line.substring("data:".length())))
+                        .iterator();
+                final QuoteDTO current = quotes.next();
+                assertThat("Subscriber should start from the current quote", current.getIndex(), is(equalTo(index)));
+
+                restTemplate.getForEntity(apiPrefix + "updateStockPrice?index={index}&price={price}", Stock.class, Map.of("index", index, "price", current.getPrice() + 1));
+                final QuoteDTO updated = quotes.next();
+                assertThat("Price update should be quoted", updated.getPrice(), is(equalTo(current.getPrice() + 1)));
+                assertThat("Sequence should grow with every change", updated.getSequence(), is(greaterThan(current.getSequence())));
+
+                restTemplate.getForEntity(apiPrefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", 10));
+                final QuoteDTO increased = quotes.next();
+                assertThat("Availability change should be quoted", increased.getAvailableAmount(), is(equalTo(current.getAvailableAmount() + 10)));
+                assertThat("Sequence should grow with every change", increased.getSequence(), is(greaterThan(updated.getSequence())));
+            }
+        }
+
+        final HttpResponse<Void> unknown = client.send(
+                HttpRequest.newBuilder(URI.create(reactiveApiPrefix + "streamQuotes?indices=" + UUID.randomUUID())).build(),
+                HttpResponse.BodyHandlers.discarding()
+        );
+        assertThat("Unknown stock should not be found", unknown.statusCode(), is(equalTo(HttpStatus.NOT_FOUND.value())));
+    }
+
+    @Test
+    public void limitOrdersMatchByPriceTimePriority() {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        try {
+            placeOrder(restTemplate, apiPrefix, StockOperationType.BUY, "nobody", "nothing", 1, 1);
+            fail("Limit orders should require the exchange engine");
+        } catch (final HttpClientErrorException.BadRequest e) {
+            // Ok
+        }
+
+        final String engineApiPrefix = ExchangeFixture.engineApiPrefix();
+        final String index = String.format("NAME<%s>", UUID.randomUUID());
+        final String firstSeller = String.format("LOGIN<%s>", UUID.randomUUID());
+        final String secondSeller = String.format("LOGIN<%s>", UUID.randomUUID());
+        final String buyer = String.format("LOGIN<%s>", UUID.randomUUID());
+        restTemplate.getForEntity(engineApiPrefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Limit", "price", 10));
+        restTemplate.getForEntity(engineApiPrefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", 100));
+        for (final String login : List.of(firstSeller, secondSeller, buyer)) {
+            restTemplate.getForEntity(engineApiPrefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Limit"));
+            restTemplate.getForEntity(engineApiPrefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 1000));
+        }
+        for (final String seller : List.of(firstSeller, secondSeller)) {
+            restTemplate.postForEntity(
+                    engineApiPrefix + "stockOp",
+                    StockOperationRequestDTO.builder().userLogin(seller).stockIndex(index).type(StockOperationType.BUY).amount(50).build(),
+                    StockOperationResponseDTO.class
+            );
+        }
+
+        placeOrder(restTemplate, engineApiPrefix, StockOperationType.SELL, firstSeller, index, 12, 20);
+        placeOrder(restTemplate, engineApiPrefix, StockOperationType.SELL, secondSeller, index, 11, 20);
+        placeOrder(restTemplate, engineApiPrefix, StockOperationType.SELL, firstSeller, index, 11, 10);
+        try {
+            placeOrder(restTemplate, engineApiPrefix, StockOperationType.SELL, firstSeller, index, 11, 21);
+            fail("Shares offered by resting asks should not be offered again");
+        } catch (final HttpClientErrorException.BadRequest e) {
+            // Ok
+        }
+
+        final OrderDTO bid = placeOrder(restTemplate, engineApiPrefix, StockOperationType.BUY, buyer, index, 12, 35);
+        assertThat("Bid should have been filled completely", bid.getFilledAmount(), is(equalTo(35L)));
+        assertThat("Lower asks should be filled first, older ones first within a price", bid.getFilledValue(), is(equalTo(20L * 11 + 10L * 11 + 5L * 12)));
+        assertThat("Nothing should be left resting", bid.getRestingAmount(), is(equalTo(0L)));
+
+        final OrderBookDTO book = restTemplate.getForEntity(engineApiPrefix + "getOrderBook?index={index}", OrderBookDTO.class, Map.of("index", index)).getBody();
+        assertThat("No bids should be resting", book.getBids(), is(empty()));
+        assertThat("Partially filled ask should keep resting", book.getAsks(), is(equalTo(List.of(PriceLevelDTO.builder().price(12).amount(15).orders(1).build()))));
+
+        final OrderDTO resting = placeOrder(restTemplate, engineApiPrefix, StockOperationType.BUY, buyer, index, 9, 5);
+        assertThat("Bid below the asks should rest", resting.getRestingAmount(), is(equalTo(5L)));
+        try {
+            restTemplate.getForEntity(engineApiPrefix + "cancelOrder?login={login}&index={index}&orderId={orderId}", OrderDTO.class, Map.of("login", firstSeller, "index", index, "orderId", resting.getOrderId()));
+            fail("Only the owner should be able to cancel an order");
+        } catch (final HttpClientErrorException.BadRequest e) {
+            // Ok
+        }
+        final OrderDTO cancelled = restTemplate.getForEntity(engineApiPrefix + "cancelOrder?login={login}&index={index}&orderId={orderId}", OrderDTO.class, Map.of("login", buyer, "index", index, "orderId", resting.getOrderId())).getBody();
+        assertThat("Resting amount should have been cancelled", cancelled.getCancelledAmount(), is(equalTo(5L)));
+
+        final User user = restTemplate.getForEntity(engineApiPrefix + "getUser?login={login}", User.class, Map.of("login", buyer)).getBody();
+        assertThat("Buyer should have paid for the fills only", user.getBalance(), is(equalTo(1000L - bid.getFilledValue())));
+        final Long actives = restTemplate.getForEntity(engineApiPrefix + "getTotalUserActivesPrice?login={login}", Long.class, Map.of("login", firstSeller)).getBody();
+        assertThat("Seller should have received the price of its asks", actives, is(equalTo(1000L + 10L * 11 + 5L * 12 - 15L * 10)));
+    }
+
+    @Test
+    public void tradesWhoseCostOverflowsAreRejected() {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        final String engineApiPrefix = ExchangeFixture.engineApiPrefix();
+        for (final String prefix : List.of(apiPrefix, engineApiPrefix)) {
+            final String expensive = String.format("NAME<%s>", UUID.randomUUID());
+            final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+            restTemplate.getForEntity(prefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", expensive, "name", "Overflow", "price", Long.MAX_VALUE / 2 + 1));
+            restTemplate.getForEntity(prefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", expensive, "amount", 2));
+            restTemplate.getForEntity(prefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Overflow"));
+            restTemplate.getForEntity(prefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 1000));
+
+            try {
+                // 2 * 2^62 wraps around to -2^63, which would pass any balance check
+                restTemplate.postForEntity(
+                        prefix + "stockOp",
+                        StockOperationRequestDTO.builder().userLogin(login).stockIndex(expensive).type(StockOperationType.BUY).amount(2).build(),
+                        StockOperationResponseDTO.class
+                );
+                fail("Purchase whose cost does not fit into a long should be rejected");
+            } catch (final HttpClientErrorException.BadRequest e) {
+                // Ok
+            }
+            final StockOperationRequestDTO overflowing = StockOperationRequestDTO.builder().userLogin(login).stockIndex(expensive).type(StockOperationType.BUY).amount(2).build();
+            try {
+                restTemplate.postForEntity(prefix + "stockOps", new BatchStockOperationRequestDTO(BatchMode.ALL_OR_NOTHING, List.of(overflowing)), BatchStockOperationResponseDTO.class);
+                fail("Batch with a purchase whose cost does not fit into a long should be rejected");
+            } catch (final HttpClientErrorException.BadRequest e) {
+                // Ok
+            }
+            final BatchItemResultDTO skipped = restTemplate.postForEntity(prefix + "stockOps", new BatchStockOperationRequestDTO(BatchMode.BEST_EFFORT, List.of(overflowing)), BatchStockOperationResponseDTO.class).getBody().getResults().get(0);
+            assertThat("Purchase whose cost does not fit into a long should be skipped", skipped.isSuccess(), is(false));
+
+            assertThat("Rejected purchase should not have changed the balance", restTemplate.getForEntity(prefix + "getUser?login={login}", User.class, Map.of("login", login)).getBody().getBalance(), is(equalTo(1000L)));
+            assertThat("Rejected purchase should not have changed the value of holdings", restTemplate.getForEntity(prefix + "getTotalUserActivesPrice?login={login}", Long.class, Map.of("login", login)).getBody(), is(equalTo(1000L)));
+            assertThat("Rejected purchase should not have taken any shares", restTemplate.getForEntity(prefix + "getStock?index={index}", Stock.class, Map.of("index", expensive)).getBody().getAvailableAmount(), is(equalTo(2L)));
+        }
+
+        final String index = String.format("NAME<%s>", UUID.randomUUID());
+        final String expensive = String.format("NAME<%s>", UUID.randomUUID());
+        final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+        restTemplate.getForEntity(engineApiPrefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Overflow", "price", 10));
+        restTemplate.getForEntity(engineApiPrefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", expensive, "name", "Overflow", "price", Long.MAX_VALUE / 2 + 1));
+        restTemplate.getForEntity(engineApiPrefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Overflow"));
+        restTemplate.getForEntity(engineApiPrefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 1000));
+        try {
+            // 2 * (2^63 - 500) wraps around to -1000
+            placeOrder(restTemplate, engineApiPrefix, StockOperationType.BUY, login, index, Long.MAX_VALUE - 499, 2);
+            fail("Bid whose cost does not fit into a long should be rejected");
+        } catch (final HttpClientErrorException.BadRequest e) {
+            // Ok
+        }
+        try {
+            // Filled shares would be valued at 2 * 2^62 in the holdings of the buyer
+            placeOrder(restTemplate, engineApiPrefix, StockOperationType.BUY, login, expensive, 1, 2);
+            fail("Bid whose shares are worth more than a long at the price of the stock should be rejected");
+        } catch (final HttpClientErrorException.BadRequest e) {
+            // Ok
+        }
+        assertThat("Rejected bids should not have changed the balance", restTemplate.getForEntity(engineApiPrefix + "getUser?login={login}", User.class, Map.of("login", login)).getBody().getBalance(), is(equalTo(1000L)));
+        for (final String bookIndex : List.of(index, expensive)) {
+            final OrderBookDTO book = restTemplate.getForEntity(engineApiPrefix + "getOrderBook?index={index}", OrderBookDTO.class, Map.of("index", bookIndex)).getBody();
+            assertThat("Rejected bid should not rest", book.getBids(), is(empty()));
+        }
+    }
+
+    @Test
+    public void engineLanesNeverSpendMoreThanTheBalance() throws Exception {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        final String engineApiPrefix = ExchangeFixture.engineApiPrefix();
+        final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+        final List<String> indices = new ArrayList<>();
+        restTemplate.getForEntity(engineApiPrefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Lanes"));
+        restTemplate.getForEntity(engineApiPrefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 100));
+        // Stocks of different indices are traded by different lanes, which share the balance of the user
+        for (int i = 0; i < 8; i++) {
+            final String index = String.format("NAME<%s>", UUID.randomUUID());
+            restTemplate.getForEntity(engineApiPrefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Lanes", "price", 10));
+            restTemplate.getForEntity(engineApiPrefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", 10));
+            indices.add(index);
+        }
+
+        final List<HttpStatus> statuses = sendConcurrently(40, i -> restTemplate.postForEntity(
+                engineApiPrefix + "stockOp",
+                StockOperationRequestDTO.builder().userLogin(login).stockIndex(indices.get(i % indices.size())).type(StockOperationType.BUY).amount(1).build(),
+                StockOperationResponseDTO.class
+        ));
+        assertThat("Exactly as many shares as the balance pays for should be bought", Collections.frequency(statuses, HttpStatus.OK), is(equalTo(10)));
+        assertThat("The rest should be rejected for the balance", Collections.frequency(statuses, HttpStatus.BAD_REQUEST), is(equalTo(30)));
+
+        final User user = restTemplate.getForEntity(engineApiPrefix + "getUser?login={login}", User.class, Map.of("login", login)).getBody();
+        assertThat("Whole balance should have been spent", user.getBalance(), is(equalTo(0L)));
+        long sold = 0;
+        for (final String index : indices) {
+            sold += 10 - restTemplate.getForEntity(engineApiPrefix + "getStock?index={index}", Stock.class, Map.of("index", index)).getBody().getAvailableAmount();
+        }
+        assertThat("Stocks should have sold the shares held", sold, is(equalTo(10L)));
+        final Long actives = restTemplate.getForEntity(engineApiPrefix + "getTotalUserActivesPrice?login={login}", Long.class, Map.of("login", login)).getBody();
+        assertThat("Every bought share should be held", actives, is(equalTo(100L)));
+    }
+
+    @Test
+    public void optimisticAndPessimisticModesLoseNoUpdates() throws Exception {
+        for (final String prefix : List.of(ExchangeFixture.optimisticApiPrefix(), ExchangeFixture.pessimisticApiPrefix())) {
+            assertConcurrentUpdatesAreKept(prefix);
+        }
+    }
+
+    @Test
+    public void conditionalModeLosesNoUpdates() throws Exception {
+        // The exchange of the other tests runs in the default, conditional, mode
+        assertConcurrentUpdatesAreKept(apiPrefix);
+    }
+
+    @Test
+    public void stockCacheServesLookupsAndFollowsChanges() {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        final String index = String.format("NAME<%s>", UUID.randomUUID());
+        final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+        restTemplate.getForEntity(apiPrefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Cache", "price", 10));
+        restTemplate.getForEntity(apiPrefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Cache"));
+        restTemplate.getForEntity(apiPrefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 100));
+        restTemplate.getForEntity(apiPrefix + "getStock?index={index}", Stock.class, Map.of("index", index));
+
+        // Other tests use the cache at the same time, so its counters only grow by at least as much as this one uses it
+        final CacheStatsDTO before = restTemplate.getForEntity(apiPrefix + "getStockCacheStats", CacheStatsDTO.class).getBody();
+        for (int i = 0; i < 3; i++) {
+            restTemplate.getForEntity(apiPrefix + "getStock?index={index}", Stock.class, Map.of("index", index));
+        }
+        final CacheStatsDTO after = restTemplate.getForEntity(apiPrefix + "getStockCacheStats", CacheStatsDTO.class).getBody();
+        assertThat("Repeated lookups should be served by the cache", after.getHits(), is(greaterThanOrEqualTo(before.getHits() + 3)));
+        assertThat("Cached stock should be counted", after.getSize(), is(greaterThan(0L)));
+        assertThat("Hit rate should be a ratio", after.getHitRate(), is(both(greaterThan(0.0)).and(lessThanOrEqualTo(1.0))));
+
+        restTemplate.getForEntity(apiPrefix + "updateStockPrice?index={index}&price={price}", Stock.class, Map.of("index", index, "price", 12));
+        assertThat("Cached stock should follow the price", restTemplate.getForEntity(apiPrefix + "getStock?index={index}", Stock.class, Map.of("index", index)).getBody().getPrice(), is(equalTo(12L)));
+        restTemplate.getForEntity(apiPrefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", 5));
+        assertThat("Cached stock should follow the availability", restTemplate.getForEntity(apiPrefix + "getStock?index={index}", Stock.class, Map.of("index", index)).getBody().getAvailableAmount(), is(equalTo(5L)));
+        restTemplate.postForEntity(apiPrefix + "stockOp", StockOperationRequestDTO.builder().userLogin(login).stockIndex(index).type(StockOperationType.BUY).amount(2).build(), StockOperationResponseDTO.class);
+        final Stock traded = restTemplate.getForEntity(reactiveApiPrefix + "getStock?index={index}", Stock.class, Map.of("index", index)).getBody();
+        assertThat("Cached stock should follow the trades", traded.getAvailableAmount(), is(equalTo(3L)));
+    }
+
+    @Test
+    public void stockHoldersArePagedInTheOrderOfUsers() {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        for (final String prefix : List.of(apiPrefix, ExchangeFixture.engineApiPrefix())) {
+            final String index = String.format("NAME<%s>", UUID.randomUUID());
+            final List<String> logins = new ArrayList<>();
+            restTemplate.getForEntity(prefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Holders", "price", 10));
+            restTemplate.getForEntity(prefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", 10));
+            for (int i = 0; i < 3; i++) {
+                final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+                restTemplate.getForEntity(prefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Holders"));
+                restTemplate.getForEntity(prefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 100));
+                restTemplate.postForEntity(prefix + "stockOp", StockOperationRequestDTO.builder().userLogin(login).stockIndex(index).type(StockOperationType.BUY).amount(i + 1).build(), StockOperationResponseDTO.class);
+                logins.add(login);
+            }
+
+            final StockHoldersPageDTO first = restTemplate.getForEntity(prefix + "getStockHolders?index={index}&limit=2", StockHoldersPageDTO.class, Map.of("index", index)).getBody();
+            assertThat("First page should hold the first users", first.getHolders().stream().map(StockHolderDTO::getLogin).toList(), is(equalTo(logins.subList(0, 2))));
+            assertThat("Amounts of the holders should be listed", first.getHolders().stream().map(StockHolderDTO::getAmount).toList(), is(equalTo(List.of(1L, 2L))));
+            assertThat("There should be a next page", first.getNextAfter(), is(notNullValue()));
+            final StockHoldersPageDTO second = restTemplate.getForEntity(prefix + "getStockHolders?index={index}&limit=2&after={after}", StockHoldersPageDTO.class, Map.of("index", index, "after", first.getNextAfter())).getBody();
+            assertThat("Second page should hold the rest", second.getHolders().stream().map(StockHolderDTO::getLogin).toList(), is(equalTo(logins.subList(2, 3))));
+            assertThat("There should be no more pages", second.getNextAfter(), is(nullValue()));
+
+            restTemplate.postForEntity(prefix + "stockOp", StockOperationRequestDTO.builder().userLogin(logins.get(0)).stockIndex(index).type(StockOperationType.SELL).amount(1).build(), StockOperationResponseDTO.class);
+            final StockHoldersPageDTO sold = restTemplate.getForEntity(prefix + "getStockHolders?index={index}", StockHoldersPageDTO.class, Map.of("index", index)).getBody();
+            assertThat("User who sold out should not be a holder", sold.getHolders().stream().map(StockHolderDTO::getLogin).toList(), is(equalTo(logins.subList(1, 3))));
+            try {
+                restTemplate.getForEntity(prefix + "getStockHolders?index={index}", StockHoldersPageDTO.class, Map.of("index", UUID.randomUUID().toString()));
+                fail("Holders of an unknown stock should not be found");
+            } catch (final HttpClientErrorException.NotFound e) {
+                // Ok
+            }
+        }
+    }
+
+    @Test
+    public void stockOpsBatchesAreAllOrNothingOrBestEffort() {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        for (final String prefix : List.of(apiPrefix, ExchangeFixture.engineApiPrefix())) {
+            final String index = String.format("NAME<%s>", UUID.randomUUID());
+            final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+            restTemplate.getForEntity(prefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Batch", "price", 10));
+            restTemplate.getForEntity(prefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", 10));
+            restTemplate.getForEntity(prefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Batch"));
+            restTemplate.getForEntity(prefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 100));
+            final StockOperationRequestDTO.StockOperationRequestDTOBuilder operation = StockOperationRequestDTO.builder().userLogin(login).stockIndex(index);
+
+            try {
+                restTemplate.postForEntity(prefix + "stockOps", new BatchStockOperationRequestDTO(BatchMode.ALL_OR_NOTHING, List.of(
+                        operation.type(StockOperationType.BUY).amount(3).build(),
+                        operation.type(StockOperationType.BUY).amount(20).build()
+                )), BatchStockOperationResponseDTO.class);
+                fail("Batch with an operation which cannot be executed should be rejected as a whole");
+            } catch (final HttpClientErrorException.BadRequest e) {
+                assertThat("Failed operation should be named", e.getResponseBodyAsString(), containsString("Operation 1 failed"));
+            }
+            assertThat("Rejected batch should not have changed the balance", restTemplate.getForEntity(prefix + "getUser?login={login}", User.class, Map.of("login", login)).getBody().getBalance(), is(equalTo(100L)));
+            assertThat("Rejected batch should not have taken any shares", restTemplate.getForEntity(prefix + "getStock?index={index}", Stock.class, Map.of("index", index)).getBody().getAvailableAmount(), is(equalTo(10L)));
+
+            final List<BatchItemResultDTO> executed = restTemplate.postForEntity(prefix + "stockOps", new BatchStockOperationRequestDTO(BatchMode.ALL_OR_NOTHING, List.of(
+                    operation.type(StockOperationType.BUY).amount(3).build(),
+                    operation.type(StockOperationType.SELL).amount(1).build()
+            )), BatchStockOperationResponseDTO.class).getBody().getResults();
+            assertThat("Every operation should have succeeded", executed.stream().allMatch(BatchItemResultDTO::isSuccess), is(true));
+            assertThat("Results should follow the operations", executed.stream().map(BatchItemResultDTO::getBalance).toList(), is(equalTo(List.of(70L, 80L))));
+            assertThat("Results should follow the stock", executed.stream().map(BatchItemResultDTO::getAvailableAmount).toList(), is(equalTo(List.of(7L, 8L))));
+
+            final List<BatchItemResultDTO> skipped = restTemplate.postForEntity(prefix + "stockOps", new BatchStockOperationRequestDTO(BatchMode.BEST_EFFORT, List.of(
+                    operation.type(StockOperationType.BUY).amount(2).build(),
+                    operation.type(StockOperationType.BUY).amount(100).build(),
+                    operation.type(StockOperationType.SELL).amount(50).build(),
+                    StockOperationRequestDTO.builder().userLogin(login).stockIndex(UUID.randomUUID().toString()).type(StockOperationType.BUY).amount(1).build()
+            )), BatchStockOperationResponseDTO.class).getBody().getResults();
+            assertThat("Only the operations which can be executed should succeed", skipped.stream().map(BatchItemResultDTO::isSuccess).toList(), is(equalTo(List.of(true, false, false, false))));
+            assertThat("Skipped operations should be explained", skipped.subList(1, 4).stream().map(BatchItemResultDTO::getError).toList(), everyItem(is(not(emptyOrNullString()))));
+            assertThat("Executed operations should be kept", restTemplate.getForEntity(prefix + "getUser?login={login}", User.class, Map.of("login", login)).getBody().getBalance(), is(equalTo(60L)));
+            assertThat("Executed operations should take their shares", restTemplate.getForEntity(prefix + "getStock?index={index}", Stock.class, Map.of("index", index)).getBody().getAvailableAmount(), is(equalTo(6L)));
+        }
+    }
+
+    @Test
+    public void tradeHistoryPagesByUserAndStock() {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+        final String index = String.format("NAME<%s>", UUID.randomUUID());
+        final long price = random.nextLong(1L, 100L);
+        restTemplate.getForEntity(apiPrefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "History"));
+        restTemplate.getForEntity(apiPrefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", price * 6));
+        restTemplate.getForEntity(apiPrefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "History", "price", price));
+        restTemplate.getForEntity(apiPrefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", 6));
+        for (final long amount : List.of(1L, 2L, 3L)) {
+            restTemplate.postForEntity(
+                    apiPrefix + "stockOp",
+                    StockOperationRequestDTO.builder().userLogin(login).stockIndex(index).type(StockOperationType.BUY).amount(amount).build(),
+                    StockOperationResponseDTO.class
+            );
+        }
+        restTemplate.postForEntity(
+                reactiveApiPrefix + "stockOp",
+                StockOperationRequestDTO.builder().userLogin(login).stockIndex(index).type(StockOperationType.SELL).amount(1).build(),
+                StockOperationResponseDTO.class
+        );
+
+        final TradeHistoryPageDTO first = restTemplate.getForEntity(apiPrefix + "getUserTrades?login={login}&limit=2", TradeHistoryPageDTO.class, Map.of("login", login)).getBody();
+        assertThat("First page should be full", first.getTrades().size(), is(equalTo(2)));
+        assertThat("There should be a next page", first.getNextAfter(), is(notNullValue()));
+        final TradeHistoryPageDTO second = restTemplate.getForEntity(apiPrefix + "getUserTrades?login={login}&limit=2&after={after}", TradeHistoryPageDTO.class, Map.of("login", login, "after", first.getNextAfter())).getBody();
+        assertThat("Second page should hold the rest", second.getTrades().size(), is(equalTo(2)));
+        assertThat("There should be no more pages", second.getNextAfter(), is(nullValue()));
+        final List<TradeDTO> trades = new ArrayList<>(first.getTrades());
+        trades.addAll(second.getTrades());
+        assertThat("Trades should be returned oldest first", trades.stream().map(TradeDTO::getAmount).toList(), is(equalTo(List.of(1L, 2L, 3L, 1L))));
+        assertThat("Trades should keep their type", trades.stream().map(TradeDTO::getType).toList(), is(equalTo(List.of(StockOperationType.BUY, StockOperationType.BUY, StockOperationType.BUY, StockOperationType.SELL))));
+        assertThat("Trades should be executed at the stock price", trades.stream().allMatch(trade -> trade.getPrice() == price && trade.getStockIndex().equals(index)), is(true));
+
+        final TradeHistoryPageDTO byStock = restTemplate.getForEntity(reactiveApiPrefix + "getStockTrades?index={index}", TradeHistoryPageDTO.class, Map.of("index", index)).getBody();
+        assertThat("Both APIs should see the same trades of the stock", byStock.getTrades(), is(equalTo(trades)));
+
+        final Instant from = trades.get(2).getTimestamp();
+        final TradeHistoryPageDTO later = restTemplate.getForEntity(apiPrefix + "getStockTrades?index={index}&from={from}", TradeHistoryPageDTO.class, Map.of("index", index, "from", from.toString())).getBody();
+        assertThat("Only trades from the start of the range should be returned", later.getTrades(), is(equalTo(trades.stream().filter(trade -> !trade.getTimestamp().isBefore(from)).toList())));
+        final TradeHistoryPageDTO earlier = restTemplate.getForEntity(reactiveApiPrefix + "getUserTrades?login={login}&to={to}", TradeHistoryPageDTO.class, Map.of("login", login, "to", from.toString())).getBody();
+        assertThat("Only trades before the end of the range should be returned", earlier.getTrades(), is(equalTo(trades.stream().filter(trade -> trade.getTimestamp().isBefore(from)).toList())));
+
+        try {
+            restTemplate.getForEntity(apiPrefix + "getUserTrades?login={login}", TradeHistoryPageDTO.class, Map.of("login", login + login));
+            fail("Unknown user should not be found");
+        } catch (final HttpClientErrorException.NotFound e) {
+            // Ok
+        }
+    }
+
+    @Test
+    public void candlesFollowTradesAndPriceUpdates() {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+        final String index = String.format("NAME<%s>", UUID.randomUUID());
+        restTemplate.getForEntity(apiPrefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Candles"));
+        restTemplate.getForEntity(apiPrefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 1000));
+        restTemplate.getForEntity(apiPrefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Candles", "price", 10));
+        restTemplate.getForEntity(apiPrefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", 10));
+        restTemplate.getForEntity(apiPrefix + "updateStockPrice?index={index}&price={price}", Stock.class, Map.of("index", index, "price", 12));
+        restTemplate.postForEntity(
+                apiPrefix + "stockOp",
+                StockOperationRequestDTO.builder().userLogin(login).stockIndex(index).type(StockOperationType.BUY).amount(2).build(),
+                StockOperationResponseDTO.class
+        );
+        restTemplate.getForEntity(reactiveApiPrefix + "updateStockPrice?index={index}&price={price}", Stock.class, Map.of("index", index, "price", 8));
+        restTemplate.postForEntity(
+                reactiveApiPrefix + "stockOp",
+                StockOperationRequestDTO.builder().userLogin(login).stockIndex(index).type(StockOperationType.BUY).amount(3).build(),
+                StockOperationResponseDTO.class
+        );
+
+        for (final String prefix : List.of(apiPrefix, reactiveApiPrefix)) {
+            final List<CandleDTO> candles = restTemplate.getForEntity(prefix + "getCandles?index={index}&resolution=1h", CandlesDTO.class, Map.of("index", index)).getBody().getCandles();
+            // The changes may fall into two bars when they happen at the turn of an hour
+            assertThat("Changes should have formed a bar", candles, is(not(empty())));
+            assertThat("First change should open the bar", candles.get(0).getOpen(), is(equalTo(12L)));
+            assertThat("Last change should close the bar", candles.get(candles.size() - 1).getClose(), is(equalTo(8L)));
+            assertThat("Highest price should be kept", candles.stream().mapToLong(CandleDTO::getHigh).max().getAsLong(), is(equalTo(12L)));
+            assertThat("Lowest price should be kept", candles.stream().mapToLong(CandleDTO::getLow).min().getAsLong(), is(equalTo(8L)));
+            assertThat("Only trades should add to the volume", candles.stream().mapToLong(CandleDTO::getVolume).sum(), is(equalTo(5L)));
+        }
+
+        try {
+            restTemplate.getForEntity(apiPrefix + "getCandles?index={index}&resolution=1d", CandlesDTO.class, Map.of("index", index));
+            fail("Unknown resolution should not be accepted");
+        } catch (final HttpClientErrorException.BadRequest e) {
+            // Ok
+        }
+    }
+
+    @Test
+    public void binaryStockOperationReturnsOnlyChanges() throws Exception {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+        final String index = String.format("NAME<%s>", UUID.randomUUID());
+        restTemplate.getForEntity(apiPrefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Binary"));
+        restTemplate.getForEntity(apiPrefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 1000));
+        restTemplate.getForEntity(apiPrefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Binary", "price", 10));
+        restTemplate.getForEntity(apiPrefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", 100));
+        final HttpClient client = ExchangeFixture.httpClient();
+
+        final HttpResponse<byte[]> bought = client.send(binaryStockOperation(0, login, index, 5), HttpResponse.BodyHandlers.ofByteArray());
+        assertThat("Binary trade should succeed", bought.statusCode(), is(equalTo(200)));
+        assertThat("Receipt should be binary", bought.headers().firstValue("Content-Type").orElse(""), startsWith(BINARY_MEDIA_TYPE));
+        // Header, then timestamp, amount, price, balance, position, available amount and type
+        final ByteBuffer receipt = ByteBuffer.wrap(bought.body()).order(ByteOrder.LITTLE_ENDIAN);
+        assertThat("Receipt should have a fixed size", receipt.remaining(), is(equalTo(57)));
+        assertThat("Receipt should be template 2", receipt.getShort(2), is(equalTo((short) 2)));
+        receipt.position(8);
+        final Instant timestamp = Instant.EPOCH.plusNanos(receipt.getLong() * 1000);
+        assertThat("Timestamp should be recent", timestamp.isAfter(Instant.now().minusSeconds(60)), is(true));
+        assertThat("Amount should be reported", receipt.getLong(), is(equalTo(5L)));
+        assertThat("Price should be reported", receipt.getLong(), is(equalTo(10L)));
+        assertThat("Balance should be decreased", receipt.getLong(), is(equalTo(950L)));
+        assertThat("Position should be increased", receipt.getLong(), is(equalTo(5L)));
+        assertThat("Available amount should be decreased", receipt.getLong(), is(equalTo(95L)));
+        assertThat("Type should be BUY", receipt.get(), is(equalTo((byte) 0)));
+
+        final ByteBuffer sold = ByteBuffer.wrap(client.send(binaryStockOperation(1, login, index, 2), HttpResponse.BodyHandlers.ofByteArray()).body()).order(ByteOrder.LITTLE_ENDIAN);
+        assertThat("Balance should be increased", sold.getLong(32), is(equalTo(970L)));
+        assertThat("Position should be decreased", sold.getLong(40), is(equalTo(3L)));
+        final User user = restTemplate.getForEntity(apiPrefix + "getUser?login={login}", User.class, Map.of("login", login)).getBody();
+        assertThat("Binary trades should change the same user", user.getBalance(), is(equalTo(970L)));
+
+        assertThat("Failed binary trade should be rejected", client.send(binaryStockOperation(0, login, index, 1000), HttpResponse.BodyHandlers.ofString()).statusCode(), is(equalTo(400)));
+        assertThat("Binary trade of an unknown user should not be found", client.send(binaryStockOperation(0, login + "?", index, 1), HttpResponse.BodyHandlers.ofString()).statusCode(), is(equalTo(404)));
+        final HttpRequest truncated = HttpRequest
+                .newBuilder(URI.create(apiPrefix + "stockOp"))
+                .header("Content-Type", BINARY_MEDIA_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(new byte[]{9, 0, 1}))
+                .build();
+        assertThat("Truncated binary trade should be rejected", client.send(truncated, HttpResponse.BodyHandlers.ofString()).statusCode(), is(equalTo(400)));
+    }
+
+    @Test
+    public void portfolioIsReturnedOnlyWhenAskedFor() {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+        final String traded = String.format("TRADED<%s>", UUID.randomUUID());
+        final String held = String.format("HELD<%s>", UUID.randomUUID());
+        restTemplate.getForEntity(apiPrefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Portfolio"));
+        restTemplate.getForEntity(apiPrefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 1000));
+        for (final String index : List.of(held, traded)) {
+            restTemplate.getForEntity(apiPrefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Portfolio", "price", 10));
+            restTemplate.getForEntity(apiPrefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", 10));
+            restTemplate.postForEntity(apiPrefix + "stockOp", StockOperationRequestDTO.builder().userLogin(login).stockIndex(index).type(StockOperationType.BUY).amount(4).build(), String.class);
+        }
+
+        for (final String prefix : List.of(apiPrefix, reactiveApiPrefix)) {
+            final String slimUser = restTemplate.getForEntity(prefix + "getUser?login={login}", String.class, Map.of("login", login)).getBody();
+            assertThat("User should come without the portfolio by default", slimUser, not(containsString("portfolio")));
+            assertThat("User should still have the balance", slimUser, containsString("\"balance\":"));
+            final String fullUser = restTemplate.getForEntity(prefix + "getUser?login={login}&portfolio=true", String.class, Map.of("login", login)).getBody();
+            assertThat("User should come with the whole portfolio when asked for", fullUser, allOf(containsString(held), containsString(traded)));
+            final String toppedUp = restTemplate.getForEntity(prefix + "topUp?login={login}&amount={amount}", String.class, Map.of("login", login, "amount", 1)).getBody();
+            assertThat("Topped up user should come without the portfolio by default", toppedUp, not(containsString("portfolio")));
+
+            final StockOperationRequestDTO sell = StockOperationRequestDTO.builder().userLogin(login).stockIndex(traded).type(StockOperationType.SELL).amount(1).build();
+            final String slimTrade = restTemplate.postForEntity(prefix + "stockOp", sell, String.class).getBody();
+            assertThat("Trade should return the position in the traded stock", slimTrade, containsString("index=" + traded));
+            assertThat("Trade should not return the other positions by default", slimTrade, not(containsString(held)));
+            final String fullTrade = restTemplate.postForEntity(prefix + "stockOp?portfolio=true", sell, String.class).getBody();
+            assertThat("Trade should return the whole portfolio when asked for", fullTrade, containsString(held));
+        }
+    }
+
+    @Test
+    public void listingsPageAndStreamStocksAndUsers() {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        // Prices and balances above those of the other tests, which stay below a half of the range, so that the filters select only these
+        final long base = Long.MAX_VALUE - 2L - random.nextLong(Long.MAX_VALUE / 4L);
+        final List<String> indices = new ArrayList<>();
+        final List<String> logins = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final String index = String.format("NAME<%s>", UUID.randomUUID());
+            final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+            restTemplate.getForEntity(apiPrefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Listing", "price", base + i));
+            restTemplate.getForEntity(apiPrefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Listing"));
+            restTemplate.getForEntity(apiPrefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", base + i));
+            indices.add(index);
+            logins.add(login);
+        }
+
+        for (final String prefix : List.of(apiPrefix, reactiveApiPrefix)) {
+            final StocksPageDTO firstStocks = restTemplate.getForEntity(prefix + "listStocks?minPrice={min}&maxPrice={max}&limit=2", StocksPageDTO.class, Map.of("min", base, "max", base + 2)).getBody();
+            assertThat("First page should be full", firstStocks.getStocks().size(), is(equalTo(2)));
+            assertThat("There should be a next page", firstStocks.getNextAfter(), is(notNullValue()));
+            final StocksPageDTO secondStocks = restTemplate.getForEntity(prefix + "listStocks?minPrice={min}&maxPrice={max}&limit=2&after={after}", StocksPageDTO.class, Map.of("min", base, "max", base + 2, "after", firstStocks.getNextAfter())).getBody();
+            assertThat("There should be no more pages", secondStocks.getNextAfter(), is(nullValue()));
+            final List<Stock> stocks = Stream.concat(firstStocks.getStocks().stream(), secondStocks.getStocks().stream()).toList();
+            assertThat("Stocks should be listed in the order of creation", stocks.stream().map(Stock::getIndex).toList(), is(equalTo(indices)));
+            final StocksPageDTO cheaper = restTemplate.getForEntity(prefix + "listStocks?minPrice={min}&maxPrice={max}", StocksPageDTO.class, Map.of("min", base, "max", base + 1)).getBody();
+            assertThat("Price range should be inclusive", cheaper.getStocks().stream().map(Stock::getIndex).toList(), is(equalTo(indices.subList(0, 2))));
+
+            final UsersPageDTO richer = restTemplate.getForEntity(prefix + "listUsers?minBalance={min}&limit=10", UsersPageDTO.class, Map.of("min", base + 1)).getBody();
+            assertThat("Only users with enough balance should be listed", richer.getUsers().stream().map(User::getLogin).toList(), is(equalTo(logins.subList(1, 3))));
+            assertThat("There should be no more pages", richer.getNextAfter(), is(nullValue()));
+        }
+
+        final ResponseEntity<String> streamedStocks = restTemplate.getForEntity(apiPrefix + "streamStocks?minPrice={min}&maxPrice={max}", String.class, Map.of("min", base, "max", base + 2));
+        assertThat("Stocks should be streamed as NDJSON", streamedStocks.getHeaders().getContentType().toString(), startsWith("application/x-ndjson"));
+        final List<String> stockLines = streamedStocks.getBody().lines().toList();
+        assertThat("Every stock should be a line", stockLines.size(), is(equalTo(3)));
+        for (int i = 0; i < 3; i++) {
+            assertThat("Stocks should be streamed in the order of creation", stockLines.get(i), containsString(indices.get(i)));
+        }
+        final List<String> userLines = restTemplate.getForEntity(apiPrefix + "streamUsers?minBalance={min}", String.class, Map.of("min", base)).getBody().lines().toList();
+        assertThat("Every user should be a line", userLines.size(), is(equalTo(3)));
+        assertThat("Streamed users should come without portfolios", userLines.stream().noneMatch(line -> line.contains("portfolio")), is(true));
+
+        try {
+            restTemplate.getForEntity(apiPrefix + "listStocks?minPrice=2&maxPrice=1", StocksPageDTO.class);
+            fail("Empty price range should not be accepted");
+        } catch (final HttpClientErrorException.BadRequest e) {
+            // Ok
+        }
+    }
+
+    @Test
+    public void bulkImportLoadsUsersAndStocks() throws Exception {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+        final String index = String.format("NAME<%s>", UUID.randomUUID());
+        final String otherLogin = String.format("LOGIN<%s>", UUID.randomUUID());
+        final String otherIndex = String.format("NAME<%s>", UUID.randomUUID());
+        final HttpClient client = ExchangeFixture.httpClient();
+
+        final String csv = String.join("\n",
+                "# users and stocks",
+                String.format("user,%s,\"Bulk, CSV\",100", login),
+                String.format("stock,%s,Bulk CSV,10,50", index)
+        );
+        final HttpResponse<String> imported = client.send(bulkImport("text/csv", csv), HttpResponse.BodyHandlers.ofString());
+        assertThat("CSV should be imported", imported.statusCode(), is(equalTo(200)));
+        assertThat("All rows should be counted", imported.body(), allOf(containsString("\"users\":1"), containsString("\"stocks\":1")));
+        final String ndjson = String.format("{\"type\":\"user\",\"login\":\"%s\",\"name\":\"Bulk NDJSON\",\"balance\":7}%n{\"type\":\"stock\",\"index\":\"%s\",\"name\":\"Bulk NDJSON\",\"price\":3,\"availableAmount\":4}", otherLogin, otherIndex);
+        assertThat("NDJSON should be imported", client.send(bulkImport("application/x-ndjson", ndjson), HttpResponse.BodyHandlers.ofString()).statusCode(), is(equalTo(200)));
+
+        final User user = restTemplate.getForEntity(apiPrefix + "getUser?login={login}", User.class, Map.of("login", login)).getBody();
+        assertThat("Quoted name should be read", user.getName(), is(equalTo("Bulk, CSV")));
+        assertThat("Balance should be imported", user.getBalance(), is(equalTo(100L)));
+        final Stock stock = restTemplate.getForEntity(reactiveApiPrefix + "getStock?index={index}", Stock.class, Map.of("index", otherIndex)).getBody();
+        assertThat("Available amount should be imported", stock.getAvailableAmount(), is(equalTo(4L)));
+        final StockOperationResponseDTO bought = restTemplate.postForEntity(
+                apiPrefix + "stockOp",
+                StockOperationRequestDTO.builder().userLogin(login).stockIndex(index).type(StockOperationType.BUY).amount(5).build(),
+                StockOperationResponseDTO.class
+        ).getBody();
+        assertThat("Imported user should trade imported stocks", bought.getOperation().getUser().getBalance(), is(equalTo(50L)));
+
+        final HttpResponse<String> occupied = client.send(bulkImport("text/csv", String.format("user,%s,Again,1", login)), HttpResponse.BodyHandlers.ofString());
+        assertThat("Occupied login should be rejected", occupied.statusCode(), is(equalTo(400)));
+        final HttpResponse<String> invalid = client.send(bulkImport("text/csv", String.format("stock,%s,Invalid,0,1", UUID.randomUUID())), HttpResponse.BodyHandlers.ofString());
+        assertThat("Invalid stock should be rejected", invalid.statusCode(), is(equalTo(400)));
+        assertThat("Rejected row should be named", invalid.body(), startsWith("Line 1:"));
+    }
+
+    private static final String BINARY_MEDIA_TYPE = "application/x-exchange-binary";
+
+    /**
+     * Header {@code [blockLength][templateId][schemaId][version]}, then {@code [type][amount]}, then the login and the index.
+     */
+    private static HttpRequest binaryStockOperation(final int type, final String login, final String index, final long amount) {
+        final byte[] loginBytes = login.getBytes(StandardCharsets.UTF_8);
+        final byte[] indexBytes = index.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer body = ByteBuffer.allocate(8 + 9 + 4 + loginBytes.length + indexBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        body.putShort((short) 9).putShort((short) 1).putShort((short) 1).putShort((short) 0);
+        body.put((byte) type).putLong(amount);
+        body.putShort((short) loginBytes.length).put(loginBytes);
+        body.putShort((short) indexBytes.length).put(indexBytes);
+        return HttpRequest
+                .newBuilder(URI.create(apiPrefix + "stockOp"))
+                .header("Content-Type", BINARY_MEDIA_TYPE)
+                .header("Accept", BINARY_MEDIA_TYPE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.array()))
+                .build();
+    }
+
+    private static HttpRequest bulkImport(final String contentType, final String body) {
+        return HttpRequest
+                .newBuilder(URI.create(apiPrefix + "bulkImport"))
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static OrderDTO placeOrder(final RestTemplate restTemplate, final String prefix, final StockOperationType type, final String login, final String index, final long price, final long amount) {
+        return restTemplate.postForEntity(
+                prefix + "placeOrder",
+                LimitOrderRequestDTO.builder().type(type).userLogin(login).stockIndex(index).price(price).amount(amount).build(),
+                OrderDTO.class
+        ).getBody();
+    }
+
+    /**
+     * Races the users for the shares of a stock, each of them can pay for all the shares it asks for, and then tops up
+     * the balance of one of them concurrently. Conflicts are either retried or answered with 409 Conflict, which should
+     * have changed nothing.
+     */
+    private static void assertConcurrentUpdatesAreKept(final String prefix) throws Exception {
+        final RestTemplate restTemplate = ExchangeFixture.restTemplate();
+        final String index = String.format("NAME<%s>", UUID.randomUUID());
+        final List<String> logins = new ArrayList<>();
+        restTemplate.getForEntity(prefix + "createStock?index={index}&name={name}&price={price}", Stock.class, Map.of("index", index, "name", "Concurrency", "price", 10));
+        restTemplate.getForEntity(prefix + "increaseStockAmount?index={index}&amount={amount}", Stock.class, Map.of("index", index, "amount", 20));
+        for (int i = 0; i < 8; i++) {
+            final String login = String.format("LOGIN<%s>", UUID.randomUUID());
+            restTemplate.getForEntity(prefix + "createUser?login={login}&name={name}", User.class, Map.of("login", login, "name", "Concurrency"));
+            restTemplate.getForEntity(prefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 50));
+            logins.add(login);
+        }
+
+        final List<HttpStatus> trades = sendConcurrently(40, i -> restTemplate.postForEntity(
+                prefix + "stockOp",
+                StockOperationRequestDTO.builder().userLogin(logins.get(i % logins.size())).stockIndex(index).type(StockOperationType.BUY).amount(1).build(),
+                StockOperationResponseDTO.class
+        ));
+        assertThat("Trades should succeed, run out of shares or conflict", trades, everyItem(is(oneOf(HttpStatus.OK, HttpStatus.BAD_REQUEST, HttpStatus.CONFLICT))));
+        final int bought = Collections.frequency(trades, HttpStatus.OK);
+        assertThat("Trades which have not conflicted should have bought shares while there were any", bought, is(equalTo(Math.min(20, 40 - Collections.frequency(trades, HttpStatus.CONFLICT)))));
+        final Stock stock = restTemplate.getForEntity(prefix + "getStock?index={index}", Stock.class, Map.of("index", index)).getBody();
+        assertThat("Every bought share should have been taken from the stock", stock.getAvailableAmount(), is(equalTo(20L - bought)));
+        long balances = 0;
+        long actives = 0;
+        for (final String login : logins) {
+            balances += restTemplate.getForEntity(prefix + "getUser?login={login}", User.class, Map.of("login", login)).getBody().getBalance();
+            actives += restTemplate.getForEntity(prefix + "getTotalUserActivesPrice?login={login}", Long.class, Map.of("login", login)).getBody();
+        }
+        assertThat("Every bought share should have been paid for once", balances, is(equalTo(8L * 50 - 10L * bought)));
+        assertThat("Trades should have kept the value of the actives", actives, is(equalTo(8L * 50)));
+
+        final String login = logins.get(0);
+        final long balance = restTemplate.getForEntity(prefix + "getUser?login={login}", User.class, Map.of("login", login)).getBody().getBalance();
+        final List<HttpStatus> topUps = sendConcurrently(30, i -> restTemplate.getForEntity(prefix + "topUp?login={login}&amount={amount}", User.class, Map.of("login", login, "amount", 1)));
+        assertThat("Top ups should succeed or conflict", topUps, everyItem(is(oneOf(HttpStatus.OK, HttpStatus.CONFLICT))));
+        assertThat("Every successful top up should have been kept", restTemplate.getForEntity(prefix + "getUser?login={login}", User.class, Map.of("login", login)).getBody().getBalance(), is(equalTo(balance + Collections.frequency(topUps, HttpStatus.OK))));
+    }
+
+    /**
+     * Sends the requests from several threads at once.
+     *
+     * @return status of every answer, in the order of the requests
+     */
+    private static List<HttpStatus> sendConcurrently(final int count, final IntFunction<ResponseEntity<?>> request) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            final List<Future<HttpStatus>> answers = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                final int n = i;
+                answers.add(executor.submit(() -> {
+                    try {
+                        return request.apply(n).getStatusCode();
+                    } catch (final HttpStatusCodeException e) {
+                        return e.getStatusCode();
+                    }
+                }));
+            }
+            final List<HttpStatus> statuses = new ArrayList<>();
+            for (final Future<HttpStatus> answer : answers) {
+                statuses.add(answer.get());
+            }
+            return statuses;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static QuoteDTO readQuote(final String json) {
+        try {
+            return new ObjectMapper().readValue(json, QuoteDTO.class);
+        } catch (final JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
 }
@@ -0,0 +1,6 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.domain.commands;
+
+public enum BatchMode {
+    ALL_OR_NOTHING,
+    BEST_EFFORT
+}
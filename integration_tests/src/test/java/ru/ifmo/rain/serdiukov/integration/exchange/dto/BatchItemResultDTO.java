@@ -0,0 +1,24 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchItemResultDTO {
+    @JsonProperty("success")
+    private boolean success;
+    @JsonProperty("error")
+    private String error;
+    @JsonProperty("balance")
+    private Long balance;
+    @JsonProperty("price")
+    private Long price;
+    @JsonProperty("availableAmount")
+    private Long availableAmount;
+}
@@ -0,0 +1,21 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.BatchMode;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchStockOperationRequestDTO {
+    @JsonProperty("mode")
+    private BatchMode mode;
+    @JsonProperty("operations")
+    private List<StockOperationRequestDTO> operations;
+}
@@ -0,0 +1,21 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchStockOperationResponseDTO {
+    @JsonProperty("results")
+    private List<BatchItemResultDTO> results;
+    @JsonProperty("timestamp")
+    private Instant timestamp;
+}
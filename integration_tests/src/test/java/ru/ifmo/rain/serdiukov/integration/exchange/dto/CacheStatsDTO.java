@@ -0,0 +1,24 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheStatsDTO {
+    @JsonProperty("size")
+    private long size;
+    @JsonProperty("hits")
+    private long hits;
+    @JsonProperty("misses")
+    private long misses;
+    @JsonProperty("evictions")
+    private long evictions;
+    @JsonProperty("hitRate")
+    private double hitRate;
+}
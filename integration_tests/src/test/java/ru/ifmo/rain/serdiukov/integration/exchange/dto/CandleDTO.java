@@ -0,0 +1,28 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CandleDTO {
+    @JsonProperty("start")
+    private Instant start;
+    @JsonProperty("open")
+    private long open;
+    @JsonProperty("high")
+    private long high;
+    @JsonProperty("low")
+    private long low;
+    @JsonProperty("close")
+    private long close;
+    @JsonProperty("volume")
+    private long volume;
+}
@@ -0,0 +1,22 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CandlesDTO {
+    @JsonProperty("index")
+    private String index;
+    @JsonProperty("resolution")
+    private String resolution;
+    @JsonProperty("candles")
+    private List<CandleDTO> candles;
+}
@@ -0,0 +1,31 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ru.ifmo.rain.serdiukov.integration.exchange.domain.commands.StockOperationType;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderDTO {
+    @JsonProperty("orderId")
+    private long orderId;
+    @JsonProperty("stockIndex")
+    private String stockIndex;
+    @JsonProperty("type")
+    private StockOperationType type;
+    @JsonProperty("price")
+    private long price;
+    @JsonProperty("filledAmount")
+    private long filledAmount;
+    @JsonProperty("filledValue")
+    private long filledValue;
+    @JsonProperty("restingAmount")
+    private long restingAmount;
+    @JsonProperty("cancelledAmount")
+    private long cancelledAmount;
+}
@@ -0,0 +1,20 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PriceLevelDTO {
+    @JsonProperty("price")
+    private long price;
+    @JsonProperty("amount")
+    private long amount;
+    @JsonProperty("orders")
+    private int orders;
+}
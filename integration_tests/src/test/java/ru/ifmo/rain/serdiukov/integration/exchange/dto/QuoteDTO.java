@@ -0,0 +1,22 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class QuoteDTO {
+    @JsonProperty("index")
+    private String index;
+    @JsonProperty("price")
+    private long price;
+    @JsonProperty("availableAmount")
+    private long availableAmount;
+    @JsonProperty("sequence")
+    private long sequence;
+}
@@ -0,0 +1,20 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockHolderDTO {
+    @JsonProperty("userId")
+    private long userId;
+    @JsonProperty("login")
+    private String login;
+    @JsonProperty("amount")
+    private long amount;
+}
@@ -0,0 +1,22 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockHoldersPageDTO {
+    @JsonProperty("index")
+    private String index;
+    @JsonProperty("holders")
+    private List<StockHolderDTO> holders;
+    @JsonProperty("nextAfter")
+    private Long nextAfter;
+}
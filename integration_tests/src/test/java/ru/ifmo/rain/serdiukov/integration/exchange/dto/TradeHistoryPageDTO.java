@@ -0,0 +1,20 @@
+package ru.ifmo.rain.serdiukov.integration.exchange.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TradeHistoryPageDTO {
+    @JsonProperty("trades")
+    private List<TradeDTO> trades;
+    @JsonProperty("nextAfter")
+    private Long nextAfter;
+}